@@ -222,8 +222,11 @@ public class CompressedExplorerAdapter extends RecyclerView.Adapter<CompressedIt
                     }
                 }
             } else {
-                if (compressedExplorerFragment.showSize)
-                    holder.txtDesc.setText(Formatter.formatFileSize(context, rowItem.size));
+                if (compressedExplorerFragment.showSize) {
+                    // single file archives like .gz don't record the size of their content
+                    holder.txtDesc.setText(rowItem.size >= 0
+                            ? Formatter.formatFileSize(context, rowItem.size) : "");
+                }
                 holder.txtTitle.setText(rowItem.name.substring(rowItem.name.lastIndexOf("/") + 1));
                 if (compressedExplorerFragment.coloriseIcons) {
                     ColorUtils.colorizeIcons(context, Icons.getTypeOfFile(new File(rowItem.name)),
@@ -0,0 +1,79 @@
+package com.amaze.filemanager.asynchronous.asynctasks;
+
+import android.os.AsyncTask;
+
+import com.amaze.filemanager.adapters.data.CompressedObjectParcelable;
+import com.amaze.filemanager.filesystem.compressed.ArchiveCodecs;
+import com.amaze.filemanager.filesystem.compressed.ArchiveIndex;
+import com.amaze.filemanager.filesystem.compressed.ArchiveReader;
+import com.amaze.filemanager.utils.OnAsyncTaskFinished;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Loads items of the archive formats of {@link ArchiveCodecs}. These can only be read from start
+ * to end, so the whole archive is read once to build it's {@link ArchiveIndex}.
+ */
+public class ArchiveHelperTask extends AsyncTask<Void, Void, ArrayList<CompressedObjectParcelable>> {
+
+    private String fileLocation;
+    private String relativeDirectory;
+    private boolean createBackItem;
+    private OnAsyncTaskFinished<ArrayList<CompressedObjectParcelable>> onFinish;
+
+    /**
+     * @param realFileDirectory the location of the archive
+     * @param dir relativeDirectory to access inside the archive
+     */
+    public ArchiveHelperTask(String realFileDirectory, String dir, boolean goBack,
+                             OnAsyncTaskFinished<ArrayList<CompressedObjectParcelable>> l) {
+        fileLocation = realFileDirectory;
+        relativeDirectory = dir;
+        createBackItem = goBack;
+        onFinish = l;
+    }
+
+    @Override
+    protected ArrayList<CompressedObjectParcelable> doInBackground(Void... params) {
+        File file = new File(fileLocation);
+
+        ArchiveIndex index = ArchiveIndex.get(fileLocation, file.lastModified());
+        if (index == null) {
+            // first time in this archive, read all entries once
+            index = new ArchiveIndex();
+            try {
+                ArchiveCodecs.Codec codec = ArchiveCodecs.getCodec(fileLocation);
+                if (codec == null) throw new IOException("Unsupported archive " + fileLocation);
+
+                ArchiveReader reader = codec.open(file, null);
+                try {
+                    for (ArchiveEntry entry = reader.getNextEntry(); entry != null; entry = reader.getNextEntry()) {
+                        if (isCancelled()) return null;
+                        index.addEntry(entry.getName(), entry.getLastModifiedDate().getTime(),
+                                entry.getSize(), entry.isDirectory());
+                    }
+                } finally {
+                    reader.close();
+                }
+                index.finish();
+                ArchiveIndex.put(fileLocation, file.lastModified(), index);
+            } catch (IOException e) {
+                e.printStackTrace();
+                index.finish();
+            }
+        }
+
+        return index.getChildren(relativeDirectory, createBackItem);
+    }
+
+    @Override
+    protected void onPostExecute(ArrayList<CompressedObjectParcelable> zipEntries) {
+        super.onPostExecute(zipEntries);
+        onFinish.onAsyncTaskFinished(zipEntries);
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.amaze.filemanager.asynchronous.asynctasks;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+import com.afollestad.materialdialogs.DialogAction;
+import com.afollestad.materialdialogs.MaterialDialog;
+import com.amaze.filemanager.R;
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.utils.files.FileHasher;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Generates every supported hash of several files, reading each file once, and shows them in a
+ * dialog along with how much has been hashed so far
+ */
+public class GenerateBatchHashesTask extends AsyncTask<Void, Integer, String> {
+
+    private static final String[] ALGORITHMS = new String[] {FileHasher.MD5, FileHasher.SHA1,
+            FileHasher.SHA256, FileHasher.CRC_32};
+
+    private final Context context;
+    private final List<HybridFileParcelable> files;
+    private final MaterialDialog dialog;
+
+    public GenerateBatchHashesTask(Context context, List<HybridFileParcelable> files, MaterialDialog dialog) {
+        this.context = context;
+        this.files = files;
+        this.dialog = dialog;
+    }
+
+    @Override
+    protected String doInBackground(Void... params) {
+        long totalSize = 0;
+        for (HybridFileParcelable file : files) {
+            if (!file.isDirectory()) totalSize += file.getSize();
+        }
+
+        final String[] names = new String[] {context.getString(R.string.md5), context.getString(R.string.hash_sha1),
+                context.getString(R.string.hash_sha256), context.getString(R.string.hash_crc32)};
+        final StringBuilder text = new StringBuilder();
+        final long finalTotalSize = totalSize;
+
+        FileHasher.hash(context, files, ALGORITHMS, new FileHasher.HashListener() {
+            private long hashedSize = 0;
+            private int lastPercent = -1;
+
+            @Override
+            public boolean isCancelled() {
+                return GenerateBatchHashesTask.this.isCancelled();
+            }
+
+            @Override
+            public void onProgress(long length) {
+                if (finalTotalSize <= 0) return;
+
+                hashedSize += length;
+                int percent = (int) Math.min(100, hashedSize * 100 / finalTotalSize);
+                if (percent != lastPercent) {
+                    lastPercent = percent;
+                    publishProgress(percent);
+                }
+            }
+        }, new FileHasher.BatchCallback() {
+            @Override
+            public void onHashed(HybridFileParcelable file, HashMap<String, String> hashes) {
+                text.append(file.getName()).append('\n');
+                for (int i = 0; i < ALGORITHMS.length; i++) {
+                    text.append(names[i]).append(": ").append(hashes.get(ALGORITHMS[i])).append('\n');
+                }
+                text.append('\n');
+            }
+
+            @Override
+            public void onFailed(HybridFileParcelable file, Exception e) {
+                e.printStackTrace();
+                text.append(file.getName()).append('\n')
+                        .append(context.getString(R.string.error)).append("\n\n");
+            }
+        });
+
+        return text.toString().trim();
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        dialog.setContent(context.getString(R.string.calculating_progress, values[0]));
+    }
+
+    @Override
+    protected void onPostExecute(String text) {
+        dialog.setContent(text);
+        // nothing worth copying until now
+        dialog.getActionButton(DialogAction.POSITIVE).setEnabled(true);
+    }
+}
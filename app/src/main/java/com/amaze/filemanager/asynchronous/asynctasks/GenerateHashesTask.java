@@ -8,19 +8,12 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.amaze.filemanager.R;
-import com.amaze.filemanager.filesystem.ssh.SshClientSessionTemplate;
-import com.amaze.filemanager.filesystem.ssh.SshClientUtils;
+import com.amaze.filemanager.filesystem.ssh.SshRemoteOperations;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.utils.files.FileHasher;
 import com.amaze.filemanager.utils.files.FileUtils;
-import com.amaze.filemanager.utils.files.GenericCopyUtil;
 
-import net.schmizz.sshj.common.IOUtils;
-import net.schmizz.sshj.connection.channel.direct.Session;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
 
 /**
  * Generates hashes from files (MD5 and SHA256)
@@ -52,37 +45,19 @@ public class GenerateHashesTask extends AsyncTask<Void, String, String[]> {
         String sha256 = context.getString(R.string.error);
 
         try {
-            if (file.isSftp()) {
-                md5 = SshClientUtils.execute(new SshClientSessionTemplate(file.getPath()) {
-                    @Override
-                    public String execute(Session session) throws IOException {
-                        Session.Command cmd = session.exec(String.format("md5sum -b \"%s\" | cut -c -32", SshClientUtils.extractRemotePathFrom(file.getPath())));
-                        String result = new String(IOUtils.readFully(cmd.getInputStream()).toByteArray());
-                        cmd.close();
-                        if(cmd.getExitStatus() == 0)
-                            return result;
-                        else {
-                            return null;
-                        }
-                    }
-                });
-                sha256 = SshClientUtils.execute(new SshClientSessionTemplate(file.getPath()) {
-                    @Override
-                    public String execute(Session session) throws IOException {
-                        Session.Command cmd = session.exec(String.format("sha256sum -b \"%s\" | cut -c -64", SshClientUtils.extractRemotePathFrom(file.getPath())));
-                        String result = new String(IOUtils.readFully(cmd.getInputStream()).toByteArray());
-                        cmd.close();
-                        if(cmd.getExitStatus() == 0)
-                            return result;
-                        else {
-                            return null;
-                        }
-                    }
-                });
+            // both sums in one command, so it's a single round trip to the server
+            String[] sums = file.isSftp() ? SshRemoteOperations.hashes(file.getPath()) : null;
+            if (sums != null) {
+                md5 = sums[0];
+                sha256 = sums[1];
             }
             else if (!file.isDirectory(context)) {
-                md5 = getMD5Checksum();
-                sha256 = getSHA256Checksum();
+                HashMap<String, String> hashes = FileHasher.hash(context, file,
+                        new String[] {FileHasher.MD5, FileHasher.SHA256}, new ProgressListener(file.getSize()));
+                if (hashes != null) {
+                    md5 = hashes.get(FileHasher.MD5);
+                    sha256 = hashes.get(FileHasher.SHA256);
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -91,6 +66,12 @@ public class GenerateHashesTask extends AsyncTask<Void, String, String[]> {
         return new String[] {md5, sha256};
     }
 
+    @Override
+    protected void onProgressUpdate(String... values) {
+        md5HashText.setText(values[0]);
+        sha256Text.setText(values[0]);
+    }
+
     @Override
     protected void onPostExecute(final String[] hashes) {
         super.onPostExecute(hashes);
@@ -116,57 +97,35 @@ public class GenerateHashesTask extends AsyncTask<Void, String, String[]> {
         }
     }
 
-    // see this How-to for a faster way to convert a byte array to a HEX string
+    /**
+     * Shows how much of the file is hashed, in place of the hashes
+     */
+    private class ProgressListener implements FileHasher.HashListener {
 
-    private String getMD5Checksum() throws Exception {
-        byte[] b = createChecksum();
-        String result = "";
+        private final long totalSize;
+        private long hashedSize = 0;
+        private int lastPercent = -1;
 
-        for (byte aB : b) {
-            result += Integer.toString((aB & 0xff) + 0x100, 16).substring(1);
+        ProgressListener(long totalSize) {
+            this.totalSize = totalSize;
         }
-        return result;
-    }
 
-    private String getSHA256Checksum() throws NoSuchAlgorithmException, IOException {
-        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-        byte[] input = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-        int length;
-        InputStream inputStream = file.getInputStream(context);
-        while ((length = inputStream.read(input)) != -1) {
-            if (length > 0)
-                messageDigest.update(input, 0, length);
+        @Override
+        public boolean isCancelled() {
+            return GenerateHashesTask.this.isCancelled();
         }
 
-        byte[] hash = messageDigest.digest();
-
-        StringBuilder hexString = new StringBuilder();
+        @Override
+        public void onProgress(long length) {
+            if (totalSize <= 0) return;
 
-        for (byte aHash : hash) {
-            // convert hash to base 16
-            String hex = Integer.toHexString(0xff & aHash);
-            if (hex.length() == 1) hexString.append('0');
-            hexString.append(hex);
-        }
-        inputStream.close();
-        return hexString.toString();
-    }
-
-    private byte[] createChecksum() throws Exception {
-        InputStream fis = file.getInputStream(context);
-
-        byte[] buffer = new byte[8192];
-        MessageDigest complete = MessageDigest.getInstance("MD5");
-        int numRead;
-
-        do {
-            numRead = fis.read(buffer);
-            if (numRead > 0) {
-                complete.update(buffer, 0, numRead);
+            hashedSize += length;
+            int percent = (int) Math.min(100, hashedSize * 100 / totalSize);
+            // a buffer is hashed at a time, only redraw when the number shown changes
+            if (percent != lastPercent) {
+                lastPercent = percent;
+                publishProgress(context.getString(R.string.calculating_progress, percent));
             }
-        } while (numRead != -1);
-
-        fis.close();
-        return complete.digest();
+        }
     }
 }
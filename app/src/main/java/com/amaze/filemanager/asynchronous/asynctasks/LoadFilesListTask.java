@@ -34,6 +34,7 @@ import com.amaze.filemanager.exceptions.CloudPluginException;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.filesystem.RootHelper;
+import com.amaze.filemanager.filesystem.smb.SmbListing;
 import com.amaze.filemanager.fragments.CloudSheetFragment;
 import com.amaze.filemanager.fragments.MainFragment;
 import com.amaze.filemanager.adapters.data.LayoutElementParcelable;
@@ -41,6 +42,7 @@ import com.amaze.filemanager.utils.DataUtils;
 import com.amaze.filemanager.utils.OTGUtil;
 import com.amaze.filemanager.utils.OnAsyncTaskFinished;
 import com.amaze.filemanager.utils.OnFileFound;
+import com.amaze.filemanager.utils.OnProgressUpdate;
 import com.amaze.filemanager.utils.OpenMode;
 import com.amaze.filemanager.utils.application.AppConfig;
 import com.amaze.filemanager.utils.cloud.CloudUtil;
@@ -57,9 +59,13 @@ import java.util.LinkedList;
 
 import jcifs.smb.SmbAuthException;
 import jcifs.smb.SmbException;
-import jcifs.smb.SmbFile;
 
-public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, ArrayList<LayoutElementParcelable>>> {
+public class LoadFilesListTask extends AsyncTask<Void, ArrayList<LayoutElementParcelable>, Pair<OpenMode, ArrayList<LayoutElementParcelable>>> {
+
+    // number of elements to be found before the first screen is published
+    private static final int FIRST_BATCH_SIZE = 40;
+    // minimum delay in millis between two partial publishes, so the list isn't redrawn for every entry
+    private static final long PUBLISH_INTERVAL = 250;
 
     private String path;
     private MainFragment ma;
@@ -67,13 +73,31 @@ public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, Arra
     private OpenMode openmode;
     private DataUtils dataUtils = DataUtils.getInstance();
     private OnAsyncTaskFinished<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> listener;
+    private OnProgressUpdate<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> updateListener;
+
+    // elements found so far, kept sorted; and the ones found since they were last merged in
+    private ArrayList<LayoutElementParcelable> sortedElements = new ArrayList<>();
+    private ArrayList<LayoutElementParcelable> batch = new ArrayList<>();
+    private FileListSorter sorter;
+    private long lastPublishTime = 0;
 
     public LoadFilesListTask(Context c, String path, MainFragment ma, OpenMode openmode,
                              OnAsyncTaskFinished<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> l) {
+        this(c, path, ma, openmode, null, l);
+    }
+
+    /**
+     * @param updateListener called on UI thread with the sorted elements found so far, while the
+     *                       directory is still being read. Can be null
+     */
+    public LoadFilesListTask(Context c, String path, MainFragment ma, OpenMode openmode,
+                             OnProgressUpdate<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> updateListener,
+                             OnAsyncTaskFinished<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> l) {
         this.path = path;
         this.ma = ma;
         this.openmode = openmode;
         this.c = c;
+        this.updateListener = updateListener;
         this.listener = l;
     }
 
@@ -97,7 +121,8 @@ public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, Arra
 
         ma.folder_count = 0;
         ma.file_count = 0;
-        final ArrayList<LayoutElementParcelable> list;
+        sorter = new FileListSorter(ma.dsort, ma.sortby, ma.asc);
+        ArrayList<LayoutElementParcelable> list;
 
         switch (openmode) {
             case SMB:
@@ -106,8 +131,13 @@ public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, Arra
                 }
 
                 try {
-                    SmbFile[] smbFile = hFile.getSmbFile(5000).listFiles();
-                    list = ma.addToSmb(smbFile, path);
+                    // attributes of all entries come with the listing, sorting again reuses it;
+                    // entries are shown as each FIND response is read, like other listings
+                    SmbListing.getInstance().list(hFile.getSmbFile(5000), true, entry -> {
+                        LayoutElementParcelable elem = ma.addToSmb(entry, path);
+                        if(elem != null) addElement(elem);
+                    });
+                    list = finishElements();
                     openmode = OpenMode.SMB;
                 } catch (SmbAuthException e) {
                     if (!e.getMessage().toLowerCase().contains("denied")) {
@@ -122,12 +152,11 @@ public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, Arra
             case SFTP:
                 HybridFile sftpHFile = new HybridFile(OpenMode.SFTP, path);
 
-                list = new ArrayList<LayoutElementParcelable>();
-
                 sftpHFile.forEachChildrenFile(c, false, file -> {
                     LayoutElementParcelable elem = createListParcelables(file);
-                    if(elem != null) list.add(elem);
+                    if(elem != null) addElement(elem);
                 });
+                list = finishElements();
                 break;
             case CUSTOM:
                 switch (Integer.parseInt(path)) {
@@ -158,14 +187,14 @@ public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, Arra
 
                 break;
             case OTG:
-                list = new ArrayList<>();
                 listOtg(path, new OnFileFound() {
                     @Override
                     public void onFileFound(HybridFileParcelable file) {
                         LayoutElementParcelable elem = createListParcelables(file);
-                        if(elem != null) list.add(elem);
+                        if(elem != null) addElement(elem);
                     }
                 });
+                list = finishElements();
                 openmode = OpenMode.OTG;
                 break;
             case DROPBOX:
@@ -173,25 +202,24 @@ public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, Arra
             case GDRIVE:
             case ONEDRIVE:
                 CloudStorage cloudStorage = dataUtils.getAccount(openmode);
-                list = new ArrayList<>();
 
                 try {
                     listCloud(path, cloudStorage, openmode, new OnFileFound() {
                         @Override
                         public void onFileFound(HybridFileParcelable file) {
                             LayoutElementParcelable elem = createListParcelables(file);
-                            if(elem != null) list.add(elem);
+                            if(elem != null) addElement(elem);
                         }
                     });
                 } catch (CloudPluginException e) {
                     e.printStackTrace();
                     AppConfig.toast(c, c.getResources().getString(R.string.failed_no_connection));
-                    return new Pair<>(openmode, list);
+                    return new Pair<>(openmode, finishElements());
                 }
+                list = finishElements();
                 break;
             default:
                 // we're neither in OTG not in SMB, load the list based on root/general filesystem
-                list = new ArrayList<>();
                 RootHelper.getFiles(path, ThemedActivity.rootMode, ma.SHOW_HIDDEN,
                         new RootHelper.GetModeCallBack() {
                             @Override
@@ -202,25 +230,88 @@ public class LoadFilesListTask extends AsyncTask<Void, Void, Pair<OpenMode, Arra
                             @Override
                             public void onFileFound(HybridFileParcelable file) {
                                 LayoutElementParcelable elem = createListParcelables(file);
-                                if(elem != null) list.add(elem);
+                                if(elem != null) addElement(elem);
                             }
                         });
+                list = finishElements();
                 break;
         }
 
-        if (list != null && !(openmode == OpenMode.CUSTOM && ((path).equals("5") || (path).equals("6")))) {
-            Collections.sort(list, new FileListSorter(ma.dsort, ma.sortby, ma.asc));
+        if (list != null && openmode == OpenMode.CUSTOM && !((path).equals("5") || (path).equals("6"))) {
+            // these lists are created as a whole, the streamed ones are already sorted
+            Collections.sort(list, sorter);
         }
 
         return new Pair<>(openmode, list);
     }
 
+    @Override
+    protected void onProgressUpdate(ArrayList<LayoutElementParcelable>... values) {
+        super.onProgressUpdate(values);
+        if (updateListener != null && !isCancelled()) {
+            updateListener.onUpdate(new Pair<>(openmode, values[0]));
+        }
+    }
+
     @Override
     protected void onPostExecute(Pair<OpenMode, ArrayList<LayoutElementParcelable>> list) {
         super.onPostExecute(list);
         listener.onAsyncTaskFinished(list);
     }
 
+    /**
+     * Adds an element found while reading the directory. Elements are gathered in batches,
+     * each batch is sorted and merged in the already sorted elements, and the result is published
+     * to {@link #updateListener}: as soon as the first screen is found, then at most every
+     * {@link #PUBLISH_INTERVAL}
+     */
+    private void addElement(LayoutElementParcelable element) {
+        batch.add(element);
+
+        if (updateListener == null || isCancelled()) return;
+
+        long now = System.currentTimeMillis();
+        boolean firstScreen = lastPublishTime == 0 && batch.size() >= FIRST_BATCH_SIZE;
+        if (firstScreen || (lastPublishTime != 0 && now - lastPublishTime >= PUBLISH_INTERVAL)) {
+            mergeBatch();
+            lastPublishTime = now;
+            publishProgress(new ArrayList<>(sortedElements));
+        }
+    }
+
+    /**
+     * @return every element found, sorted
+     */
+    private ArrayList<LayoutElementParcelable> finishElements() {
+        mergeBatch();
+        return sortedElements;
+    }
+
+    /**
+     * Sorts the pending batch and merges it in {@link #sortedElements}, in O(n) instead of
+     * sorting everything found so far again
+     */
+    private void mergeBatch() {
+        if (batch.size() == 0) return;
+
+        Collections.sort(batch, sorter);
+
+        ArrayList<LayoutElementParcelable> merged = new ArrayList<>(sortedElements.size() + batch.size());
+        int i = 0, j = 0;
+        while (i < sortedElements.size() && j < batch.size()) {
+            if (sorter.compare(sortedElements.get(i), batch.get(j)) <= 0) {
+                merged.add(sortedElements.get(i++));
+            } else {
+                merged.add(batch.get(j++));
+            }
+        }
+        while (i < sortedElements.size()) merged.add(sortedElements.get(i++));
+        while (j < batch.size()) merged.add(batch.get(j++));
+
+        sortedElements = merged;
+        batch = new ArrayList<>();
+    }
+
     private LayoutElementParcelable createListParcelables(HybridFileParcelable baseFile) {
         if (!dataUtils.isFileHidden(baseFile.getPath())) {
             String size = "";
@@ -29,6 +29,8 @@ import com.amaze.filemanager.database.CryptHandler;
 import com.amaze.filemanager.database.models.EncryptedEntry;
 import com.amaze.filemanager.exceptions.ShellNotRunningException;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.filesystem.smb.SmbListing;
+import com.amaze.filemanager.filesystem.ssh.SshRemoteOperations;
 import com.amaze.filemanager.fragments.MainFragment;
 import com.amaze.filemanager.utils.application.AppConfig;
 import com.amaze.filemanager.asynchronous.services.CopyService;
@@ -36,6 +38,7 @@ import com.amaze.filemanager.utils.DataUtils;
 import com.amaze.filemanager.utils.cloud.CloudUtil;
 import com.amaze.filemanager.utils.files.CryptUtil;
 import com.amaze.filemanager.utils.files.FileUtils;
+import com.amaze.filemanager.utils.files.FilesListCache;
 import com.amaze.filemanager.utils.OpenMode;
 import com.amaze.filemanager.utils.RootUtils;
 import com.amaze.filemanager.utils.ServiceWatcherUtil;
@@ -82,6 +85,8 @@ public class MoveFiles extends AsyncTask<ArrayList<String>, Void, Boolean> {
                             SmbFile source = new SmbFile(f.getPath());
                             SmbFile dest = new SmbFile(paths.get(i) + "/" + f.getName());
                             source.renameTo(dest);
+                            SmbListing.getInstance().invalidate(source.getPath());
+                            SmbListing.getInstance().invalidate(dest.getPath());
                         } catch (MalformedURLException e) {
                             e.printStackTrace();
                             return false;
@@ -113,6 +118,21 @@ public class MoveFiles extends AsyncTask<ArrayList<String>, Void, Boolean> {
                     }
                 }
                 break;
+            case SFTP:
+                for (int i = 0; i < paths.size(); i++) {
+                    for (HybridFileParcelable f : files.get(i)) {
+                        // on another host, the files have to be copied by the service
+                        if (!f.isSftp() || !SshRemoteOperations.isSameHost(f.getPath(), paths.get(i)))
+                            return false;
+                    }
+                }
+                for (int i = 0; i < paths.size(); i++) {
+                    for (HybridFileParcelable f : files.get(i)) {
+                        if (!SshRemoteOperations.move(f.getPath(), paths.get(i) + "/" + f.getName()))
+                            return false;
+                    }
+                }
+                break;
             case DROPBOX:
             case BOX:
             case ONEDRIVE:
@@ -148,6 +168,14 @@ public class MoveFiles extends AsyncTask<ArrayList<String>, Void, Boolean> {
 
     @Override
     public void onPostExecute(Boolean movedCorrectly) {
+        // some may have moved even if others failed
+        for (int i = 0; i < paths.size(); i++) {
+            for (HybridFileParcelable f : files.get(i)) {
+                FilesListCache.getInstance().invalidateFile(f.getPath());
+                FilesListCache.getInstance().invalidateFile(paths.get(i) + "/" + f.getName());
+            }
+        }
+
         if (movedCorrectly) {
             if (mainFrag != null && mainFrag.getCurrentPath().equals(paths.get(0))) {
                 // mainFrag.updateList();
@@ -2,6 +2,7 @@ package com.amaze.filemanager.asynchronous.asynctasks;
 
 import android.os.AsyncTask;
 
+import com.amaze.filemanager.filesystem.compressed.ArchiveIndex;
 import com.amaze.filemanager.filesystem.compressed.RarHelper;
 import com.amaze.filemanager.adapters.data.CompressedObjectParcelable;
 import com.amaze.filemanager.utils.OnAsyncTaskFinished;
@@ -12,7 +13,6 @@ import com.github.junrar.rarfile.FileHeader;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 
 /**
  * Created by Arpit on 25-01-2015 edited by Emmanuel Messulam<emmanuelbendavid@gmail.com>
@@ -39,32 +39,30 @@ public class RarHelperTask extends AsyncTask<Void, Void, ArrayList<CompressedObj
 
     @Override
     protected ArrayList<CompressedObjectParcelable> doInBackground(Void... params) {
-        ArrayList<CompressedObjectParcelable> elements = new ArrayList<>();
+        File file = new File(fileLocation);
 
-        try {
-            if (createBackItem) {
-                elements.add(0, new CompressedObjectParcelable());
-            }
-
-            Archive zipfile = new Archive(new File(fileLocation));
-            String relativeDirDiffSeparator = relativeDirectory.replace("/", "\\");
-
-            for (FileHeader header : zipfile.getFileHeaders()) {
-                String name = header.getFileNameString();//This uses \ as separator, not /
-                boolean isInBaseDir = (relativeDirDiffSeparator == null || relativeDirDiffSeparator.equals("")) && !name.contains("\\");
-                boolean isInRelativeDir = relativeDirDiffSeparator != null && name.contains("\\")
-                        && name.substring(0, name.lastIndexOf("\\")).equals(relativeDirDiffSeparator);
-
-                if (isInBaseDir || isInRelativeDir) {
-                    elements.add(new CompressedObjectParcelable(RarHelper.convertName(header), 0, header.getDataSize(), header.isDirectory()));
+        ArchiveIndex index = ArchiveIndex.get(fileLocation, file.lastModified());
+        if (index == null) {
+            // first time in this archive, read all headers once
+            index = new ArchiveIndex();
+            try {
+                Archive zipfile = new Archive(file);
+                try {
+                    for (FileHeader header : zipfile.getFileHeaders()) {
+                        index.addEntry(RarHelper.convertName(header), 0, header.getDataSize(), header.isDirectory());
+                    }
+                } finally {
+                    zipfile.close();
                 }
+                index.finish();
+                ArchiveIndex.put(fileLocation, file.lastModified(), index);
+            } catch (RarException | IOException e) {
+                e.printStackTrace();
+                index.finish();
             }
-            Collections.sort(elements, new CompressedObjectParcelable.Sorter());
-        } catch (RarException | IOException e) {
-            e.printStackTrace();
         }
 
-        return elements;
+        return index.getChildren(relativeDirectory, createBackItem);
     }
 
     @Override
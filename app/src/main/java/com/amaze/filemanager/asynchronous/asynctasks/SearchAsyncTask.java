@@ -9,8 +9,16 @@ import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.fragments.SearchWorkerFragment;
 import com.amaze.filemanager.utils.OnFileFound;
 import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.files.FileIndexer;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -18,16 +26,31 @@ import java.util.regex.Pattern;
  *         on 15/8/2017, at 19:47.
  */
 
-public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Void> {
+public class SearchAsyncTask extends AsyncTask<String, ArrayList<HybridFileParcelable>, Void> {
 
     private static final String TAG = "SearchAsyncTask";
 
+    // number of directories searched at once on local storage
+    private static final int PARALLELISM = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+
+    // results are published once this many are found, or this long after the last publish
+    private static final int BATCH_SIZE = 50;
+    private static final long BATCH_INTERVAL = 250;
+
     private WeakReference<Activity> activity;
     private SearchWorkerFragment.HelperCallbacks mCallbacks;
     private String mInput;
     private OpenMode mOpenMode;
     private boolean mRootMode, isRegexEnabled, isMatchesEnabled;
 
+    private ExecutorService executor;
+    // directories submitted to the executor and not yet searched
+    private final AtomicInteger pendingDirectories = new AtomicInteger(0);
+    private final Object completionLock = new Object();
+
+    private ArrayList<HybridFileParcelable> batch = new ArrayList<>();
+    private long lastPublishTime = 0;
+
     public SearchAsyncTask(Activity a, SearchWorkerFragment.HelperCallbacks l,
                            String input, OpenMode openMode, boolean root, boolean regex,
                            boolean matches) {
@@ -62,17 +85,32 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
         file.generateMode(activity.get());
         if (file.isSmb()) return null;
 
-        // level 1
-        // if regex or not
-        if (!isRegexEnabled) {
-            search(file, mInput);
-        } else {
-            // compile the regular expression in the input
-            Pattern pattern = Pattern.compile(bashRegexToJava(mInput));
-            // level 2
-            if (!isMatchesEnabled) searchRegExFind(file, pattern);
-            else searchRegExMatch(file, pattern);
+        FileIndexer fileIndexer = FileIndexer.getInstance(activity.get());
+        if (file.getMode() == OpenMode.FILE && fileIndexer.canSearch(file.getPath())) {
+            // storage has been indexed, no need to walk it
+            searchIndex(fileIndexer, file.getPath());
+            publishBatch(true);
+            // catch up with whatever changed since last update, for next search
+            fileIndexer.requestUpdate();
+            return null;
+        }
+
+        // subtrees of local storage are searched in parallel, other filesystems are either
+        // accessed through a single connection or shell, or don't like many parallel requests
+        int threads = file.getMode() == OpenMode.FILE ? PARALLELISM : 1;
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> new Thread(runnable, "search_worker"));
+
+        try {
+            search(file, createFilter());
+            awaitCompletion();
+        } finally {
+            // workers aren't daemons, they'd be left waiting for tasks if the search threw
+            executor.shutdownNow();
         }
+
+        publishBatch(true);
+        if (file.getMode() == OpenMode.FILE && !isCancelled()) fileIndexer.requestUpdate();
         return null;
     }
 
@@ -89,14 +127,55 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
     }
 
     @Override
-    public void onProgressUpdate(HybridFileParcelable... val) {
+    public void onProgressUpdate(ArrayList<HybridFileParcelable>... val) {
         if (!isCancelled() && mCallbacks != null) {
             mCallbacks.onProgressUpdate(val[0], mInput);
         }
     }
 
     /**
-     * Recursively search for occurrences of a given text in file names and publish the result
+     * Builds the filter for the search input once, so nothing is recompiled or converted per file
+     */
+    private SearchFilter createFilter() {
+        if (!isRegexEnabled) {
+            final String query = mInput;
+            return fileName -> containsIgnoreCase(fileName, query);
+        }
+
+        // compile the regular expression in the input
+        final Pattern pattern = Pattern.compile(bashRegexToJava(mInput));
+        // a file name can't match unless it has this text in it, which is much cheaper to check
+        final String literal = getRequiredLiteral(mInput);
+
+        if (!isMatchesEnabled) {
+            return fileName -> (literal == null || fileName.contains(literal))
+                    && pattern.matcher(fileName).find();
+        } else {
+            return fileName -> (literal == null || fileName.contains(literal))
+                    && pattern.matcher(fileName).matches();
+        }
+    }
+
+    /**
+     * Searches the file index, the database narrows down the names with the plain text any match
+     * has to contain, and the filter decides on the rest
+     */
+    private void searchIndex(FileIndexer fileIndexer, String path) {
+        String nameText;
+        if (!isRegexEnabled) {
+            // LIKE ignores case of ASCII letters only
+            nameText = isAscii(mInput) ? mInput : null;
+        } else {
+            nameText = getRequiredLiteral(mInput);
+        }
+
+        fileIndexer.search(path, nameText, createFilter(), this::addResult, this::isCancelled);
+    }
+
+    /**
+     * Searches the children of a directory for file names accepted by filter, and publishes the
+     * results. Child directories are handed to the executor, to be searched by whichever worker
+     * is free.
      *
      * @param directory the current path
      */
@@ -107,10 +186,10 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
                 public void onFileFound(HybridFileParcelable file) {
                     if (!isCancelled()) {
                         if (filter.searchFilter(file.getName())) {
-                            publishProgress(file);
+                            addResult(file);
                         }
                         if (file.isDirectory() && !isCancelled()) {
-                            search(file, filter);
+                            submit(file, filter);
                         }
                     }
                 }
@@ -120,40 +199,111 @@ public class SearchAsyncTask extends AsyncTask<String, HybridFileParcelable, Voi
         }
     }
 
+    private void submit(final HybridFile directory, final SearchFilter filter) {
+        pendingDirectories.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!isCancelled()) search(directory, filter);
+                } finally {
+                    onDirectoryDone();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // executor is shut down, search was cancelled
+            onDirectoryDone();
+        }
+    }
+
+    private void onDirectoryDone() {
+        if (pendingDirectories.decrementAndGet() == 0) {
+            synchronized (completionLock) {
+                completionLock.notifyAll();
+            }
+        }
+    }
 
     /**
-     * Recursively search for occurrences of a given text in file names and publish the result
-     *
-     * @param file  the current path
-     * @param query the searched text
+     * Waits till every directory is searched, or the task is cancelled
      */
-    private void search(HybridFile file, final String query) {
-        search(file, fileName -> fileName.toLowerCase().contains(query.toLowerCase()));
+    private void awaitCompletion() {
+        synchronized (completionLock) {
+            while (pendingDirectories.get() > 0 && !isCancelled()) {
+                try {
+                    // wake up now and then to check for cancellation
+                    completionLock.wait(BATCH_INTERVAL);
+                } catch (InterruptedException e) {
+                    // cancel(true) interrupts us
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                publishBatch(false);
+            }
+        }
+    }
+
+    private void addResult(HybridFileParcelable file) {
+        synchronized (this) {
+            batch.add(file);
+        }
+        publishBatch(false);
     }
 
     /**
-     * Recursively find a java regex pattern {@link Pattern} in the file names and publish the result
+     * Publishes the results found since the last publish
      *
-     * @param file    the current file
-     * @param pattern the compiled java regex
+     * @param force whether to publish right away, irrespective of size of the batch
      */
-    private void searchRegExFind(HybridFile file, final Pattern pattern) {
-        search(file, new SearchFilter() {
-            @Override
-            public boolean searchFilter(String fileName) {
-                return pattern.matcher(fileName).find();
+    private void publishBatch(boolean force) {
+        ArrayList<HybridFileParcelable> results;
+        synchronized (this) {
+            long time = System.currentTimeMillis();
+            if (batch.size() == 0 || (!force && batch.size() < BATCH_SIZE
+                    && time - lastPublishTime < BATCH_INTERVAL)) {
+                return;
             }
-        });
+            results = batch;
+            batch = new ArrayList<>();
+            lastPublishTime = time;
+        }
+        publishProgress(results);
     }
 
     /**
-     * Recursively match a java regex pattern {@link Pattern} with the file names and publish the result
+     * Case insensitive {@link String#contains(CharSequence)}, without creating lower case copies
+     */
+    private static boolean containsIgnoreCase(String text, String query) {
+        int length = query.length();
+        for (int i = text.length() - length; i >= 0; i--) {
+            if (text.regionMatches(true, i, query, 0, length)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 127) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the longest run of plain text in a bash style expression, which any matching
+     * file name has to contain.
      *
-     * @param file    the current file
-     * @param pattern the compiled java regex
+     * @return null if there's no such text, or the expression is too complex to tell
      */
-    private void searchRegExMatch(HybridFile file, final Pattern pattern) {
-        search(file, fileName -> pattern.matcher(fileName).matches());
+    private static String getRequiredLiteral(String expression) {
+        // alternation, groups, classes or escapes could make any part of the text optional
+        for (char c : new char[] {'|', '\\', '[', '(', '{'}) {
+            if (expression.indexOf(c) != -1) return null;
+        }
+
+        String literal = null;
+        for (String part : expression.split("[*?.+^$]")) {
+            if (literal == null || part.length() > literal.length()) literal = part;
+        }
+        return literal == null || literal.length() == 0 ? null : literal;
     }
 
     /**
@@ -1,17 +1,20 @@
 package com.amaze.filemanager.asynchronous.asynctasks;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
 
 import com.amaze.filemanager.adapters.data.CompressedObjectParcelable;
+import com.amaze.filemanager.filesystem.compressed.ArchiveIndex;
 import com.amaze.filemanager.utils.OnAsyncTaskFinished;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -44,81 +47,80 @@ public class ZipHelperTask extends AsyncTask<Void, Void, ArrayList<CompressedObj
 
     @Override
     protected ArrayList<CompressedObjectParcelable> doInBackground(Void... params) {
-        ArrayList<CompressedObjectParcelable> elements = new ArrayList<>();
-
-        if (createBackItem) {
-            elements.add(0, new CompressedObjectParcelable());
+        File file = new File(fileLocation.getPath());
+        boolean isReadable = file.canRead();
+        String key;
+        long lastModified;
+        if (isReadable) {
+            key = file.getPath();
+            lastModified = file.lastModified();
+        } else {
+            // a document's size goes into the key too, as providers may not keep the time precisely
+            long[] attributes = queryAttributes(fileLocation);
+            key = fileLocation.toString() + "\u0000" + attributes[1];
+            lastModified = attributes[0];
         }
-
-        try {
-            ArrayList<CompressedObjectParcelable> wholelist = new ArrayList<>();
-            if (new File(fileLocation.getPath()).canRead()) {
-                ZipFile zipfile = new ZipFile(fileLocation.getPath());
-                for (Enumeration e = zipfile.entries(); e.hasMoreElements(); ) {
-                    ZipEntry entry = (ZipEntry) e.nextElement();
-                    wholelist.add(new CompressedObjectParcelable(entry.getName(), entry.getTime(), entry.getSize(), entry.isDirectory()));
-                }
-            } else {
-                ZipInputStream zipfile1 = new ZipInputStream(context.get().getContentResolver().openInputStream(fileLocation));
-                for (ZipEntry entry = zipfile1.getNextEntry(); entry != null; entry = zipfile1.getNextEntry()) {
-                    wholelist.add(new CompressedObjectParcelable(entry.getName(), entry.getTime(), entry.getSize(), entry.isDirectory()));
-                }
-            }
-
-            ArrayList<String> strings = new ArrayList<>();
-
-            for (CompressedObjectParcelable entry : wholelist) {
-                File file = new File(entry.name);
-                if (relativeDirectory == null || relativeDirectory.trim().length() == 0) {
-                    String y = entry.name;
-                    if (y.startsWith("/"))
-                        y = y.substring(1, y.length());
-                    if (file.getParent() == null || file.getParent().length() == 0 || file.getParent().equals("/")) {
-                        if (!strings.contains(y)) {
-                            elements.add(new CompressedObjectParcelable(y, entry.date, entry.size, entry.directory));
-                            strings.add(y);
-                        }
-                    } else {
-                        String path = y.substring(0, y.indexOf("/") + 1);
-                        if (!strings.contains(path)) {
-                            CompressedObjectParcelable zipObj = new CompressedObjectParcelable(path, entry.date, entry.size, true);
-                            strings.add(path);
-                            elements.add(zipObj);
+        // without a time a changed archive can't be told apart, it's read every time
+        boolean cacheable = lastModified != 0;
+
+        ArchiveIndex index = cacheable ? ArchiveIndex.get(key, lastModified) : null;
+        if (index == null) {
+            // first time in this archive, read all entries once
+            index = new ArchiveIndex();
+            try {
+                if (isReadable) {
+                    ZipFile zipfile = new ZipFile(file);
+                    try {
+                        for (Enumeration e = zipfile.entries(); e.hasMoreElements(); ) {
+                            ZipEntry entry = (ZipEntry) e.nextElement();
+                            index.addEntry(entry.getName(), entry.getTime(), entry.getSize(), entry.isDirectory());
                         }
+                    } finally {
+                        zipfile.close();
                     }
                 } else {
-                    String y = entry.name;
-                    if (entry.name.startsWith("/"))
-                        y = y.substring(1, y.length());
-
-                    if (file.getParent() != null && (file.getParent().equals(relativeDirectory) || file.getParent().equals("/" + relativeDirectory))) {
-                        if (!strings.contains(y)) {
-                            elements.add(new CompressedObjectParcelable(y, entry.date, entry.size, entry.directory));
-                            strings.add(y);
-                        }
-                    } else {
-                        if (y.startsWith(relativeDirectory + "/") && y.length() > relativeDirectory.length() + 1) {
-                            String path1 = y.substring(relativeDirectory.length() + 1, y.length());
-
-                            int index = relativeDirectory.length() + 1 + path1.indexOf("/");
-                            String path = y.substring(0, index + 1);
-                            if (!strings.contains(path)) {
-                                CompressedObjectParcelable zipObj = new CompressedObjectParcelable(y.substring(0, index + 1), entry.date, entry.size, true);
-                                strings.add(path);
-                                elements.add(zipObj);
-                            }
+                    ZipInputStream zipfile1 = new ZipInputStream(context.get().getContentResolver().openInputStream(fileLocation));
+                    try {
+                        for (ZipEntry entry = zipfile1.getNextEntry(); entry != null; entry = zipfile1.getNextEntry()) {
+                            index.addEntry(entry.getName(), entry.getTime(), entry.getSize(), entry.isDirectory());
                         }
+                    } finally {
+                        zipfile1.close();
                     }
-
                 }
+                index.finish();
+                if (cacheable) ArchiveIndex.put(key, lastModified, index);
+            } catch (IOException e) {
+                e.printStackTrace();
+                index.finish();
             }
+        }
+
+        return index.getChildren(relativeDirectory, createBackItem);
+    }
 
-            Collections.sort(elements, new CompressedObjectParcelable.Sorter());
-        } catch (IOException e) {
+    /**
+     * @return last modified time and size of a document, either 0 if the provider doesn't tell
+     */
+    private long[] queryAttributes(Uri uri) {
+        long[] attributes = new long[2];
+        Cursor cursor = null;
+        try {
+            cursor = context.get().getContentResolver().query(uri, new String[] {
+                    DocumentsContract.Document.COLUMN_LAST_MODIFIED, OpenableColumns.SIZE}, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                int dateColumn = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                int sizeColumn = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (dateColumn != -1 && !cursor.isNull(dateColumn)) attributes[0] = cursor.getLong(dateColumn);
+                if (sizeColumn != -1 && !cursor.isNull(sizeColumn)) attributes[1] = cursor.getLong(sizeColumn);
+            }
+        } catch (RuntimeException e) {
+            // providers which aren't document providers may refuse the projection
             e.printStackTrace();
+        } finally {
+            if (cursor != null) cursor.close();
         }
-
-        return elements;
+        return attributes;
     }
 
     @Override
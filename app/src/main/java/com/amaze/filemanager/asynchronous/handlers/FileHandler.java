@@ -10,6 +10,8 @@ import com.amaze.filemanager.adapters.RecyclerAdapter;
 import com.amaze.filemanager.filesystem.CustomFileObserver;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.fragments.MainFragment;
+import com.amaze.filemanager.utils.files.FileIndexer;
+import com.amaze.filemanager.utils.files.FilesListCache;
 import com.amaze.filemanager.utils.provider.UtilitiesProviderInterface;
 
 import java.io.File;
@@ -39,6 +41,12 @@ public class FileHandler extends Handler {
 
         String path = (String) msg.obj;
 
+        // listing of current directory no longer matches what's on disk
+        FilesListCache.getInstance().invalidate(main.getCurrentPath());
+        if (msg.what != CustomFileObserver.GOBACK && main.getContext() != null) {
+            FileIndexer.getInstance(main.getContext()).onDirectoryChanged(main.getCurrentPath());
+        }
+
         switch (msg.what) {
             case CustomFileObserver.GOBACK:
                 main.goBack();
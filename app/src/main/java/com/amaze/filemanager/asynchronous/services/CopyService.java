@@ -47,6 +47,7 @@ import com.amaze.filemanager.filesystem.FileUtil;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.Operations;
 import com.amaze.filemanager.filesystem.RootHelper;
+import com.amaze.filemanager.filesystem.ssh.SshRemoteOperations;
 import com.amaze.filemanager.fragments.ProcessViewerFragment;
 import com.amaze.filemanager.utils.OnFileFound;
 import com.amaze.filemanager.utils.files.CryptUtil;
@@ -56,6 +57,7 @@ import com.amaze.filemanager.utils.OpenMode;
 import com.amaze.filemanager.utils.ProgressHandler;
 import com.amaze.filemanager.utils.RootUtils;
 import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.files.CopyScheduler;
 import com.amaze.filemanager.utils.files.FileUtils;
 import com.amaze.filemanager.utils.files.GenericCopyUtil;
 
@@ -126,7 +128,7 @@ public class CopyService extends Service {
         b.putParcelableArrayList(TAG_COPY_SOURCES, files);
 
         //going async
-        new DoInBackground().execute(b);
+        new DoInBackground().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, b);
 
         // If we get killed, after returning from here, restart
         return START_STICKY;
@@ -134,6 +136,7 @@ public class CopyService extends Service {
 
     public void onDestroy() {
         this.unregisterReceiver(receiver3);
+        ServiceWatcherUtil.onServiceFinished(this, CopyService.class);
     }
 
     private class DoInBackground extends AsyncTask<Bundle, Void, Integer> {
@@ -246,12 +249,23 @@ public class CopyService extends Service {
 
             ArrayList<HybridFile> failedFOps;
             ArrayList<HybridFileParcelable> toDelete;
+            CopyScheduler scheduler;
 
             Copy() {
                 failedFOps = new ArrayList<>();
                 toDelete = new ArrayList<>();
             }
 
+            /**
+             * Marks a source file as failed, files are copied on several threads at once
+             * so additions to {@link #failedFOps} are synchronized
+             */
+            void addFailed(HybridFile sourceFile) {
+                synchronized (failedFOps) {
+                    if (!failedFOps.contains(sourceFile)) failedFOps.add(sourceFile);
+                }
+            }
+
             /**
              * Method iterate through files to be copied
              *
@@ -267,6 +281,8 @@ public class CopyService extends Service {
                 watcherUtil.watch();
 
                 if (FileUtil.checkFolder((targetPath), c) == 1) {
+                    // files are handed over to worker threads as we walk the tree
+                    scheduler = new CopyScheduler(progressHandler);
                     for (int i = 0; i < sourceFiles.size(); i++) {
                         sourceProgress = i;
                         HybridFileParcelable f1 = (sourceFiles.get(i));
@@ -297,7 +313,7 @@ public class CopyService extends Service {
                                     continue;
                                 }
                                 progressHandler.setSourceFilesProcessed(++sourceProgress);
-                                copyFiles((f1), hFile, progressHandler);
+                                copyFiles((f1), hFile, progressHandler, f1);
                             } else {
                                 break;
                             }
@@ -305,13 +321,16 @@ public class CopyService extends Service {
                             e.printStackTrace();
                             Log.e("CopyService", "Got exception checkout: " + f1.getPath());
 
-                            failedFOps.add(sourceFiles.get(i));
+                            addFailed(sourceFiles.get(i));
                             for (int j = i + 1; j < sourceFiles.size(); j++)
-                                failedFOps.add(sourceFiles.get(j));
+                                addFailed(sourceFiles.get(j));
                             break;
                         }
                     }
 
+                    // wait for the files still being copied by workers
+                    scheduler.awaitCompletion();
+
                 } else if (ThemedActivity.rootMode) {
                     for (int i = 0; i < sourceFiles.size(); i++) {
                         if (!progressHandler.getCancelled()) {
@@ -351,7 +370,7 @@ public class CopyService extends Service {
                 try {
                     if (!move) RootUtils.copy(sourceFile.getPath(), targetFile.getPath());
                     else if (move) RootUtils.move(sourceFile.getPath(), targetFile.getPath());
-                    ServiceWatcherUtil.POSITION += sourceFile.getSize();
+                    progressHandler.addProgress(sourceFile.getSize());
                 } catch (ShellNotRunningException e) {
                     failedFOps.add(sourceFile);
                     e.printStackTrace();
@@ -359,8 +378,21 @@ public class CopyService extends Service {
                 FileUtils.scanFile(targetFile.getPath(), c);
             }
 
+            private boolean isSameSshHost(HybridFile sourceFile, HybridFile targetFile) {
+                return sourceFile.isSftp() && targetFile.isSftp()
+                        && SshRemoteOperations.isSameHost(sourceFile.getPath(), targetFile.getPath());
+            }
+
+            /**
+             * Walks the source tree, creating directories on this thread and submitting
+             * files to {@link #scheduler} to be copied concurrently
+             *
+             * @param selectedFile the file selected by user this file belongs to, it is reported
+             *                     as failed if copy of any file inside it fails
+             */
             private void copyFiles(final HybridFileParcelable sourceFile, final HybridFile targetFile,
-                                   final ProgressHandler progressHandler) throws IOException {
+                                   final ProgressHandler progressHandler,
+                                   final HybridFileParcelable selectedFile) throws IOException {
 
                 if (sourceFile.isDirectory()) {
                     if (progressHandler.getCancelled()) return;
@@ -372,19 +404,25 @@ public class CopyService extends Service {
                     // 2. source file has a valid name or not
                     if (!Operations.isFileNameValid(sourceFile.getName())
                             || Operations.isCopyLoopPossible(sourceFile, targetFile)) {
-                        failedFOps.add(sourceFile);
+                        addFailed(sourceFile);
                         return;
                     }
                     targetFile.setLastModified(sourceFile.lastModified());
 
                     if(progressHandler.getCancelled()) return;
+                    if (isSameSshHost(sourceFile, targetFile)
+                            && SshRemoteOperations.copy(sourceFile.getPath(), targetFile.getPath(), true)) {
+                        // whole tree copied by the server
+                        progressHandler.addProgress(sourceFile.folderSize(c));
+                        return;
+                    }
                     sourceFile.forEachChildrenFile(c, false, new OnFileFound() {
                         @Override
                         public void onFileFound(HybridFileParcelable file) {
                             HybridFile destFile = new HybridFile(targetFile.getMode(), targetFile.getPath(),
                                     file.getName(), file.isDirectory());
                             try {
-                                copyFiles(file, destFile, progressHandler);
+                                copyFiles(file, destFile, progressHandler, selectedFile);
                             } catch (IOException e) {
                                 throw new IllegalStateException(e);//throw unchecked exception, no throws needed
                             }
@@ -393,14 +431,30 @@ public class CopyService extends Service {
                 } else {
                     if (progressHandler.getCancelled()) return;
                     if (!Operations.isFileNameValid(sourceFile.getName())) {
-                        failedFOps.add(sourceFile);
+                        addFailed(sourceFile);
                         return;
                     }
 
-                    GenericCopyUtil copyUtil = new GenericCopyUtil(c);
+                    scheduler.submit(sourceFile.getMode(), targetFile.getMode(), new CopyScheduler.CopyTask() {
+                        @Override
+                        public void run() throws Exception {
+                            progressHandler.setFileName(sourceFile.getName());
+                            if (isSameSshHost(sourceFile, targetFile)
+                                    && SshRemoteOperations.copy(sourceFile.getPath(), targetFile.getPath(), false)) {
+                                // copied by the server, without passing through the device
+                                progressHandler.addProgress(sourceFile.getSize());
+                                return;
+                            }
+
+                            GenericCopyUtil copyUtil = new GenericCopyUtil(c, progressHandler);
+                            copyUtil.copy(sourceFile, targetFile);
+                        }
 
-                    progressHandler.setFileName(sourceFile.getName());
-                    copyUtil.copy(sourceFile, targetFile);
+                        @Override
+                        public void onFailed(Exception e) {
+                            addFailed(selectedFile);
+                        }
+                    });
                 }
             }
         }
@@ -474,6 +528,7 @@ public class CopyService extends Service {
             mBuilder.setContentTitle(c.getResources().getString(title));
             mBuilder.setContentText(fileName + " " + Formatter.formatFileSize(c, writtenSize) + "/" +
                     Formatter.formatFileSize(c, totalSize));
+            mBuilder.setSubText(ProgressHandler.getTimeLeftText(c, progressHandler.getTimeLeft()));
             int id1 = Integer.parseInt("456" + id);
             mNotifyManager.notify(id1, mBuilder.build());
             if (writtenSize == totalSize || totalSize == 0) {
@@ -488,6 +543,7 @@ public class CopyService extends Service {
                     mBuilder.setProgress(0, 0, false);
                 }
                 mBuilder.setContentText("");
+                mBuilder.setSubText(null);
                 mBuilder.setOngoing(false);
                 mBuilder.setAutoCancel(true);
                 mNotifyManager.notify(id1, mBuilder.build());
@@ -591,7 +647,7 @@ public class CopyService extends Service {
      * Returns the {@link #dataPackages} list which contains
      * data to be transferred to {@link ProcessViewerFragment}
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by progress watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @return
@@ -607,7 +663,7 @@ public class CopyService extends Service {
     /**
      * Puts a {@link CopyDataParcelable} into a list
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by progress watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @param dataPackage
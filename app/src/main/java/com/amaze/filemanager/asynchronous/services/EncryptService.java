@@ -104,7 +104,7 @@ public class EncryptService extends Service {
 
         startForeground(ID_NOTIFICATION, notificationBuilder.build());
 
-        new BackgroundTask().execute();
+        new BackgroundTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
 
         return START_STICKY;
@@ -191,11 +191,14 @@ public class EncryptService extends Service {
             notificationBuilder.setContentText(fileName + " " + Formatter.formatFileSize(context,
                     writtenSize) + "/" +
                     Formatter.formatFileSize(context, totalSize));
+            notificationBuilder.setSubText(ProgressHandler.getTimeLeftText(context,
+                    progressHandler.getTimeLeft()));
 
             notificationManager.notify(ID_NOTIFICATION, notificationBuilder.build());
             if (writtenSize == totalSize || totalSize == 0) {
 
                 notificationBuilder.setContentText("");
+                notificationBuilder.setSubText(null);
                 notificationBuilder.setOngoing(false);
                 notificationBuilder.setAutoCancel(true);
                 notificationManager.notify(ID_NOTIFICATION, notificationBuilder.build());
@@ -237,6 +240,7 @@ public class EncryptService extends Service {
     public void onDestroy() {
         super.onDestroy();
         this.unregisterReceiver(cancelReceiver);
+        ServiceWatcherUtil.onServiceFinished(this, EncryptService.class);
     }
 
     /**
@@ -311,7 +315,7 @@ public class EncryptService extends Service {
      * Returns the {@link #dataPackages} list which contains
      * data to be transferred to {@link ProcessViewerFragment}
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by progress watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      * @return
      */
@@ -326,7 +330,7 @@ public class EncryptService extends Service {
     /**
      * Puts a {@link CopyDataParcelable} into a list
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by progress watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      * @param dataPackage
      */
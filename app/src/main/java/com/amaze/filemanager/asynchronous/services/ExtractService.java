@@ -37,29 +37,37 @@ import android.util.Log;
 import com.amaze.filemanager.R;
 import com.amaze.filemanager.activities.MainActivity;
 import com.amaze.filemanager.filesystem.FileUtil;
+import com.amaze.filemanager.filesystem.compressed.ArchiveCodecs;
+import com.amaze.filemanager.filesystem.compressed.ArchiveReader;
+import com.amaze.filemanager.filesystem.compressed.CompressedHelper;
 import com.amaze.filemanager.fragments.ProcessViewerFragment;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.CopyDataParcelable;
+import com.amaze.filemanager.utils.OpenMode;
 import com.amaze.filemanager.utils.ProgressHandler;
 import com.amaze.filemanager.utils.ServiceWatcherUtil;
 import com.amaze.filemanager.utils.application.AppConfig;
+import com.amaze.filemanager.utils.files.CopyScheduler;
 import com.amaze.filemanager.utils.files.GenericCopyUtil;
 import com.github.junrar.Archive;
 import com.github.junrar.exception.RarException;
 import com.github.junrar.rarfile.FileHeader;
 
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveEntry;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 public class ExtractService extends Service {
@@ -112,7 +120,7 @@ public class ExtractService extends Service {
         NotificationConstants.setMetadata(getApplicationContext(), mBuilder);
         startForeground(Integer.parseInt("123" + startId), mBuilder.build());
 
-        new DoWork(this, progressHandler, file, extractPath, entries).execute();
+        new DoWork(this, progressHandler, file, extractPath, entries).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         return START_STICKY;
     }
 
@@ -158,11 +166,13 @@ public class ExtractService extends Service {
             mBuilder.setOngoing(true);
             mBuilder.setContentText(fileName + " " + Formatter.formatFileSize(context, done) + "/"
                     + Formatter.formatFileSize(context, total));
+            mBuilder.setSubText(ProgressHandler.getTimeLeftText(context, progressHandler.getTimeLeft()));
             int id1 = Integer.parseInt("123" + id);
             mNotifyManager.notify(id1, mBuilder.build());
             if (progressPercent == 100 || total == 0) {
                 mBuilder.setContentTitle(getString(R.string.extract_complete));
                 mBuilder.setContentText(fileName + " " + Formatter.formatFileSize(context, total));
+                mBuilder.setSubText(null);
                 mBuilder.setProgress(100, 100, false);
                 mBuilder.setOngoing(false);
                 mNotifyManager.notify(id1, mBuilder.build());
@@ -197,6 +207,9 @@ public class ExtractService extends Service {
         private long totalBytes = 0L;
         private ServiceWatcherUtil watcherUtil;
 
+        // size of buffer each entry is extracted in, per thread
+        private static final int EXTRACT_BUFFER_SIZE = 64 * 1024;
+
 
         private DoWork(ExtractService extractService, ProgressHandler progressHandler, String cpath, String epath,
                        String[] entries) {
@@ -221,18 +234,19 @@ public class ExtractService extends Service {
             }
 
             try {
-                String path = f.getPath().toLowerCase();
-                boolean isZip = path.endsWith(".zip") || path.endsWith(".jar") || path.endsWith(".apk");
-                boolean isTar = path.endsWith(".tar") || path.endsWith(".tar.gz");
-                boolean isRar = path.endsWith(".rar");
+                String path = f.getPath();
+                boolean isZip = CompressedHelper.isZip(path);
+                boolean isRar = CompressedHelper.isRar(path);
+                ArchiveCodecs.Codec codec = ArchiveCodecs.getCodec(path);
 
                 if (entriesToExtract != null && entriesToExtract.length != 0) {
                     if (isZip) extract(context, f, extractionPath, entriesToExtract);
                     else if (isRar) extractRar(context, f, extractionPath, entriesToExtract);
+                    else if (codec != null) extractArchive(context, f, codec, extractionPath, entriesToExtract);
                 } else {
                     if (isZip) extract(context, f, extractionPath);
                     else if (isRar) extractRar(context, f, extractionPath);
-                    else if (isTar) extractTar(context, f, extractionPath);
+                    else if (codec != null) extractArchive(context, f, codec, extractionPath, null);
                 }
             } catch (IOException | RarException e) {
                 Log.e("amaze", "Error while extracting file " + compressedPath, e);
@@ -242,40 +256,30 @@ public class ExtractService extends Service {
         }
 
         /**
-         * Method extracts {@link ZipEntry} from {@link ZipFile}
+         * Method extracts {@link ZipEntry} from {@link ZipFile}. Called from several worker
+         * threads at once, {@link ZipFile} inflates each entry's stream independently.
          *
-         * @param zipFile   zip file from which entriesToExtract are to be extracted
-         * @param entry     zip entry that is to be extracted
-         * @param outputDir output directory
+         * @param zipFile    zip file from which entriesToExtract are to be extracted
+         * @param entry      zip entry that is to be extracted
+         * @param outputFile file to write the entry to, it's parent directory must exist
          */
-        private void unzipEntry(@NonNull final Context context, ZipFile zipFile, ZipEntry entry, String outputDir)
+        private void unzipEntry(@NonNull final Context context, ZipFile zipFile, ZipEntry entry, File outputFile)
                 throws IOException {
 
-            if (entry.isDirectory()) {
-                // zip entry is a directory, return after creating new directory
-                FileUtil.mkdir(new File(outputDir, entry.getName()), context);
-                return;
-            }
-
-            final File outputFile = new File(outputDir, entry.getName());
-
-            if (!outputFile.getParentFile().exists()) {
-                // creating directory if not already exists
-
-                FileUtil.mkdir(outputFile.getParentFile(), context);
+            InputStream inputStream = zipFile.getInputStream(entry);
+            OutputStream outputStream = FileUtil.getOutputStream(outputFile, context, 0);
+            if (outputStream == null) {
+                inputStream.close();
+                throw new IOException("Can't write to " + outputFile.getPath());
             }
 
-            BufferedInputStream inputStream = new BufferedInputStream(
-                    zipFile.getInputStream(entry));
-            BufferedOutputStream outputStream = new BufferedOutputStream(
-                    FileUtil.getOutputStream(outputFile, context, 0));
             try {
                 int len;
-                byte buf[] = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-                while ((len = inputStream.read(buf)) > 0) {
+                byte buf[] = new byte[EXTRACT_BUFFER_SIZE];
+                while ((len = inputStream.read(buf)) > 0 && !progressHandler.getCancelled()) {
 
                     outputStream.write(buf, 0, len);
-                    ServiceWatcherUtil.POSITION += len;
+                    progressHandler.addProgress(len);
                 }
             } finally {
                 outputStream.close();
@@ -283,6 +287,64 @@ public class ExtractService extends Service {
             }
         }
 
+        /**
+         * Extracts zip entries on a pool of worker threads, one entry per worker at a time.
+         * Directories are created on this thread before any entry inside them is handed out.
+         *
+         * @param countProcessed whether to report each entry as a processed source file
+         */
+        private void unzipEntries(@NonNull final Context context, final ZipFile zipFile,
+                                  ArrayList<ZipEntry> entries, String outputDir,
+                                  final boolean countProcessed) throws IOException {
+            CopyScheduler scheduler = new CopyScheduler(progressHandler);
+            final AtomicInteger processed = new AtomicInteger(0);
+            final IOException[] failure = {null};
+
+            try {
+                for (final ZipEntry entry : entries) {
+                    if (progressHandler.getCancelled() || failure[0] != null) break;
+
+                    final File outputFile = new File(outputDir, entry.getName());
+                    if (entry.isDirectory()) {
+                        // zip entry is a directory, create it and move on
+                        FileUtil.mkdir(outputFile, context);
+                        if (countProcessed) progressHandler.setSourceFilesProcessed(processed.incrementAndGet());
+                        continue;
+                    }
+
+                    if (!outputFile.getParentFile().exists()) {
+                        // creating directory if not already exists
+                        FileUtil.mkdir(outputFile.getParentFile(), context);
+                    }
+
+                    scheduler.submit(OpenMode.FILE, OpenMode.FILE, new CopyScheduler.CopyTask() {
+                        @Override
+                        public void run() throws Exception {
+                            progressHandler.setFileName(entry.getName());
+                            unzipEntry(context, zipFile, entry, outputFile);
+                            if (countProcessed) progressHandler.setSourceFilesProcessed(processed.incrementAndGet());
+                        }
+
+                        @Override
+                        public void onFailed(Exception e) {
+                            synchronized (failure) {
+                                if (failure[0] == null) {
+                                    failure[0] = e instanceof IOException ? (IOException) e : new IOException(e);
+                                }
+                            }
+                        }
+                    });
+                }
+            } finally {
+                scheduler.awaitCompletion();
+                zipFile.close();
+            }
+
+            synchronized (failure) {
+                if (failure[0] != null) throw failure[0];
+            }
+        }
+
         private void unzipRAREntry(@NonNull final Context context, Archive zipFile, FileHeader entry, String outputDir)
                 throws RarException, IOException {
             String name = entry.getFileNameString();
@@ -306,7 +368,7 @@ public class ExtractService extends Service {
                 while ((len = inputStream.read(buf)) > 0) {
 
                     outputStream.write(buf, 0, len);
-                    ServiceWatcherUtil.POSITION += len;
+                    progressHandler.addProgress(len);
                 }
             } finally {
                 outputStream.close();
@@ -314,33 +376,6 @@ public class ExtractService extends Service {
             }
         }
 
-        private void unzipTAREntry(@NonNull final Context context, TarArchiveInputStream zipFileStream, TarArchiveEntry entry,
-                                   String outputDir) throws IOException {
-            String name = entry.getName();
-            if (entry.isDirectory()) {
-                FileUtil.mkdir(new File(outputDir, name), context);
-                return;
-            }
-            File outputFile = new File(outputDir, name);
-            if (!outputFile.getParentFile().exists()) {
-                FileUtil.mkdir(outputFile.getParentFile(), context);
-            }
-
-            BufferedOutputStream outputStream = new BufferedOutputStream(
-                    FileUtil.getOutputStream(outputFile, context, entry.getRealSize()));
-            try {
-                int len;
-                byte buf[] = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-                while ((len = zipFileStream.read(buf)) > 0) {
-
-                    outputStream.write(buf, 0, len);
-                    ServiceWatcherUtil.POSITION += len;
-                }
-            } finally {
-                outputStream.close();
-            }
-        }
-
         /**
          * Helper method to initiate extraction of zip/jar files.
          *
@@ -382,15 +417,7 @@ public class ExtractService extends Service {
             watcherUtil = new ServiceWatcherUtil(progressHandler, totalBytes);
             watcherUtil.watch();
 
-            int i = 0;
-            for (ZipEntry entry : entry1) {
-                if (!progressHandler.getCancelled()) {
-
-                    progressHandler.setFileName(entry.getName());
-                    unzipEntry(context, zipfile, entry, destinationPath);
-                    progressHandler.setSourceFilesProcessed(++i);
-                }
-            }
+            unzipEntries(context, zipfile, entry1, destinationPath, true);
         }
 
         private void extract(@NonNull final Context context, File archive, String destinationPath) throws IOException {
@@ -416,63 +443,90 @@ public class ExtractService extends Service {
             watcherUtil = new ServiceWatcherUtil(progressHandler, totalBytes);
             watcherUtil.watch();
 
-            for (ZipEntry entry : arrayList) {
-                if (!progressHandler.getCancelled()) {
-
-                    progressHandler.setFileName(entry.getName());
-                    unzipEntry(context, zipfile, entry, destinationPath);
-                }
-            }
+            unzipEntries(context, zipfile, arrayList, destinationPath, false);
             progressHandler.setSourceFilesProcessed(1);
         }
 
-        private void extractTar(@NonNull final Context context, File archive, String destinationPath) throws IOException {
-            ArrayList<TarArchiveEntry> archiveEntries = new ArrayList<>();
-
-            TarArchiveInputStream inputStream = createTarInputStream(archive);
-
-            TarArchiveEntry tarArchiveEntry = inputStream.getNextTarEntry();
-
-            while (tarArchiveEntry != null) {
-                archiveEntries.add(tarArchiveEntry);
-                tarArchiveEntry = inputStream.getNextTarEntry();
-            }
-
-            for (TarArchiveEntry entry : archiveEntries) {
-                totalBytes += entry.getSize();
-            }
-
-            // setting total bytes calculated from zip entries
-            progressHandler.setTotalSize(totalBytes);
-
-            setInitDataPackage(totalBytes, archiveEntries.get(0).getName(), 1);
-
-            watcherUtil = new ServiceWatcherUtil(progressHandler, totalBytes);
-            watcherUtil.watch();
-
-            inputStream = createTarInputStream(archive);
-
-            for (TarArchiveEntry entry : archiveEntries) {
-
-                if (!progressHandler.getCancelled()) {
-
-                    inputStream.getNextTarEntry();
-                    progressHandler.setFileName(entry.getName());
-                    unzipTAREntry(context, inputStream, entry, destinationPath);
+        /**
+         * Extracts any archive of {@link ArchiveCodecs} in a single pass. This thread decompresses
+         * and reads entries, while an {@link EntryWriter} writes them out. As entry sizes aren't
+         * known before reading the whole archive, progress is counted as the reader reports it.
+         *
+         * @param entryNamesList names of files to be extracted from the archive, null for all of them
+         */
+        private void extractArchive(@NonNull final Context context, File archive, ArchiveCodecs.Codec codec,
+                                    String destinationPath, String[] entryNamesList) throws IOException {
+            ArchiveReader reader = codec.open(archive, progressHandler);
+            try {
+                totalBytes = reader.getProgressTotal();
+
+                // setting total bytes to what the reader counts progress on
+                progressHandler.setTotalSize(totalBytes);
+
+                ArchiveEntry entry = reader.getNextEntry();
+
+                setInitDataPackage(totalBytes, entry != null ? entry.getName() : archive.getName(),
+                        entryNamesList != null ? entryNamesList.length : 1);
+
+                watcherUtil = new ServiceWatcherUtil(progressHandler, totalBytes);
+                watcherUtil.watch();
+
+                int processed = 0;
+                EntryWriter writer = new EntryWriter(context);
+                writer.start();
+                try {
+                    for (; entry != null && !progressHandler.getCancelled(); entry = reader.getNextEntry()) {
+                        writer.checkFailure();
+
+                        if (entryNamesList != null && !isSelected(entry.getName(), entryNamesList)) {
+                            continue;
+                        }
+
+                        File outputFile = new File(destinationPath, entry.getName());
+                        if (entry.isDirectory()) {
+                            FileUtil.mkdir(outputFile, context);
+                            continue;
+                        }
+                        if (!outputFile.getParentFile().exists()) {
+                            FileUtil.mkdir(outputFile.getParentFile(), context);
+                        }
+
+                        progressHandler.setFileName(entry.getName());
+                        writer.open(outputFile, Math.max(entry.getSize(), 0));
+
+                        byte[] buffer = writer.obtainBuffer();
+                        int len;
+                        while ((len = reader.read(buffer, 0, buffer.length)) > 0) {
+                            writer.write(buffer, len);
+                            buffer = writer.obtainBuffer();
+                        }
+                        writer.recycle(buffer);
+                        writer.close();
+
+                        if (entryNamesList != null) progressHandler.setSourceFilesProcessed(++processed);
+                    }
+                } finally {
+                    writer.finish();
                 }
+                writer.checkFailure();
+            } finally {
+                // operating finished
+                reader.close();
             }
-            progressHandler.setSourceFilesProcessed(1);
 
-            // operating finished
-            inputStream.close();
+            if (!progressHandler.getCancelled()) {
+                // trailers, and entries which weren't selected, are never counted; complete the progress
+                progressHandler.addProgress(totalBytes - progressHandler.getPosition());
+            }
+            if (entryNamesList == null) progressHandler.setSourceFilesProcessed(1);
         }
 
-        private TarArchiveInputStream createTarInputStream(File archive) throws IOException {
-            if (archive.getName().endsWith(".tar")) {
-                return new TarArchiveInputStream(new BufferedInputStream(new FileInputStream(archive)));
-            } else {
-                return new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(archive)));
+        private boolean isSelected(String entryName, String[] entryNamesList) {
+            for (String entry : entryNamesList) {
+                // header to be extracted is atleast the entry path (may be more, when it is a directory)
+                if (entryName.contains(entry)) return true;
             }
+            return false;
         }
 
         private void extractRar(@NonNull final Context context, File archive, String destinationPath) throws IOException, RarException {
@@ -575,12 +629,147 @@ public class ExtractService extends Service {
             extractService.putDataPackage(intent1);
         }
 
+        /**
+         * Writes out the files of an archive on it's own thread, as they're read by
+         * {@link #extractArchive(Context, File, ArchiveCodecs.Codec, String, String[])}. Data is passed in a fixed number of buffers,
+         * reader waits for one to be free if writer falls behind.
+         */
+        private static class EntryWriter extends Thread {
+
+            private static final int BUFFER_COUNT = 16;
+
+            private static final int OPEN = 0, WRITE = 1, CLOSE = 2, FINISH = 3;
+
+            private final Context context;
+            private final ArrayBlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(BUFFER_COUNT);
+            private final LinkedBlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+            private volatile IOException failure;
+
+            EntryWriter(Context context) {
+                super("entry_writer");
+                this.context = context;
+                for (int i = 0; i < BUFFER_COUNT; i++) {
+                    freeBuffers.add(new byte[EXTRACT_BUFFER_SIZE]);
+                }
+            }
+
+            void open(File file, long size) throws IOException {
+                put(new Chunk(OPEN, file, size, null, 0));
+            }
+
+            byte[] obtainBuffer() throws IOException {
+                try {
+                    return freeBuffers.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            void recycle(byte[] buffer) {
+                freeBuffers.offer(buffer);
+            }
+
+            void write(byte[] buffer, int length) throws IOException {
+                put(new Chunk(WRITE, null, 0, buffer, length));
+            }
+
+            void close() throws IOException {
+                put(new Chunk(CLOSE, null, 0, null, 0));
+            }
+
+            /**
+             * Waits for everything passed so far to be written
+             */
+            void finish() throws IOException {
+                put(new Chunk(FINISH, null, 0, null, 0));
+                try {
+                    join();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            void checkFailure() throws IOException {
+                if (failure != null) throw failure;
+            }
+
+            private void put(Chunk chunk) throws IOException {
+                try {
+                    chunks.put(chunk);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            @Override
+            public void run() {
+                OutputStream outputStream = null;
+                while (true) {
+                    Chunk chunk;
+                    try {
+                        chunk = chunks.take();
+                    } catch (InterruptedException e) {
+                        failure = new InterruptedIOException();
+                        break;
+                    }
+
+                    try {
+                        // after a failure, keep taking chunks so that reader is never blocked
+                        switch (chunk.type) {
+                            case OPEN:
+                                if (failure == null) {
+                                    outputStream = FileUtil.getOutputStream(chunk.file, context, chunk.size);
+                                    if (outputStream == null) {
+                                        throw new IOException("Can't write to " + chunk.file.getPath());
+                                    }
+                                }
+                                break;
+                            case WRITE:
+                                if (failure == null && outputStream != null) {
+                                    outputStream.write(chunk.buffer, 0, chunk.length);
+                                }
+                                freeBuffers.offer(chunk.buffer);
+                                break;
+                            case CLOSE:
+                            case FINISH:
+                                if (outputStream != null) {
+                                    OutputStream toClose = outputStream;
+                                    outputStream = null;
+                                    toClose.close();
+                                }
+                                break;
+                        }
+                    } catch (IOException e) {
+                        if (failure == null) failure = e;
+                    }
+
+                    if (chunk.type == FINISH) break;
+                }
+            }
+
+            private static class Chunk {
+                final int type;
+                final File file;
+                final long size;
+                final byte[] buffer;
+                final int length;
+
+                Chunk(int type, File file, long size, byte[] buffer, int length) {
+                    this.type = type;
+                    this.file = file;
+                    this.size = size;
+                    this.buffer = buffer;
+                    this.length = length;
+                }
+            }
+        }
     }
 
 
     @Override
     public void onDestroy() {
         unregisterReceiver(receiver1);
+        ServiceWatcherUtil.onServiceFinished(this, ExtractService.class);
     }
 
     /**
@@ -605,7 +794,7 @@ public class ExtractService extends Service {
      * Returns the {@link #dataPackages} list which contains
      * data to be transferred to {@link ProcessViewerFragment}
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by progress watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @return
@@ -621,7 +810,7 @@ public class ExtractService extends Service {
     /**
      * Puts a {@link CopyDataParcelable} into a list
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by progress watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @param dataPackage
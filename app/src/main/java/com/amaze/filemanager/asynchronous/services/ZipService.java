@@ -38,7 +38,9 @@ import com.amaze.filemanager.R;
 import com.amaze.filemanager.activities.MainActivity;
 import com.amaze.filemanager.filesystem.FileUtil;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.filesystem.compressed.ParallelZipCreator;
 import com.amaze.filemanager.fragments.ProcessViewerFragment;
+import com.amaze.filemanager.fragments.preference_fragments.PreferencesConstants;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.CopyDataParcelable;
 import com.amaze.filemanager.utils.PreferenceUtils;
@@ -46,16 +48,20 @@ import com.amaze.filemanager.utils.ProgressHandler;
 import com.amaze.filemanager.utils.ServiceWatcherUtil;
 import com.amaze.filemanager.utils.files.FileUtils;
 import com.amaze.filemanager.utils.files.GenericCopyUtil;
+import com.amaze.filemanager.utils.files.ProgressInputStream;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 public class ZipService extends Service {
 
@@ -73,6 +79,9 @@ public class ZipService extends Service {
     public static final String KEY_COMPRESS_FILES = "zip_files";
     public static final String KEY_COMPRESS_BROADCAST_CANCEL = "zip_cancel";
 
+    // space left free when compressed entries are kept in temporary files, besides the archive
+    private static final long SCATTER_SPACE_MARGIN = 16 * 1024 * 1024;
+
     @Override
     public void onCreate() {
         c = getApplicationContext();
@@ -116,7 +125,7 @@ public class ZipService extends Service {
         b.putInt("id", startId);
         b.putParcelableArrayList(KEY_COMPRESS_FILES, baseFiles);
         b.putString(KEY_COMPRESS_PATH, mZipPath);
-        new DoWork().execute(b);
+        new DoWork().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, b);
         // If we get killed, after returning from here, restart
         return START_STICKY;
     }
@@ -140,7 +149,7 @@ public class ZipService extends Service {
 
     public class DoWork extends AsyncTask<Bundle, Void, Integer> {
 
-        ZipOutputStream zos;
+        ZipArchiveOutputStream zos;
 
         String zipPath;
         ServiceWatcherUtil watcherUtil;
@@ -173,7 +182,10 @@ public class ZipService extends Service {
             putDataPackage(intent1);
 
             zipPath = p1[0].getString(KEY_COMPRESS_PATH);
-            execute(toFileArray(baseFiles), zipPath);
+            int compressionLevel = Integer.parseInt(PreferenceManager.getDefaultSharedPreferences(c)
+                    .getString(PreferencesConstants.PREFERENCE_ZIP_COMPRESSION_LEVEL,
+                            "" + Deflater.DEFAULT_COMPRESSION));
+            execute(toFileArray(baseFiles), zipPath, compressionLevel);
             return id;
         }
 
@@ -187,7 +199,7 @@ public class ZipService extends Service {
             stopSelf();
         }
 
-        public void execute(ArrayList<File> baseFiles, String zipPath) {
+        public void execute(ArrayList<File> baseFiles, String zipPath, int compressionLevel) {
 
             OutputStream out;
             File zipDirectory = new File(zipPath);
@@ -196,17 +208,24 @@ public class ZipService extends Service {
 
             try {
                 out = FileUtil.getOutputStream(zipDirectory, c, totalBytes);
-                zos = new ZipOutputStream(new BufferedOutputStream(out));
+                zos = new ZipArchiveOutputStream(new BufferedOutputStream(out));
+                zos.setLevel(compressionLevel);
+                File scatterDirectory = getScatterDirectory(zipDirectory);
+                ParallelZipCreator zipCreator = scatterDirectory != null
+                        ? new ParallelZipCreator(progressHandler, scatterDirectory, compressionLevel)
+                        : null;
 
                 int fileProgress = 0;
                 for (File file : baseFiles) {
-                    if (!progressHandler.getCancelled()) {
+                    if (progressHandler.getCancelled()) break;
 
-                        progressHandler.setFileName(file.getName());
-                        progressHandler.setSourceFilesProcessed(++fileProgress);
-                        compressFile(file, "");
-                    } else return;
+                    progressHandler.setFileName(file.getName());
+                    progressHandler.setSourceFilesProcessed(++fileProgress);
+                    compressFile(zipCreator, file, "");
                 }
+
+                // waits for the files still being compressed
+                if (zipCreator != null) zipCreator.writeTo(zos);
             } catch (IOException e) {
                 e.printStackTrace();
             } finally {
@@ -219,31 +238,83 @@ public class ZipService extends Service {
             }
         }
 
-        private void compressFile(File file, String path) throws IOException, NullPointerException {
+        /**
+         * Compressed entries are about as large as the files at most, and are kept until all are
+         * compressed. They're kept next to the archive, or in the external cache, whichever has room
+         * for them along with the archive; internal storage is usually too small.
+         *
+         * @return directory for the temporary files of {@link ParallelZipCreator}, or null if
+         * there's no room for them, and files have to be compressed one by one into the archive
+         */
+        private File getScatterDirectory(File zipFile) {
+            File zipDirectory = zipFile.getParentFile();
+            File[] candidates = {zipDirectory, c.getExternalCacheDir()};
+            for (File directory : candidates) {
+                if (directory == null || !directory.canWrite()) continue;
+
+                long needed = totalBytes + SCATTER_SPACE_MARGIN;
+                if (zipDirectory != null && isSameVolume(directory, zipDirectory)) {
+                    needed += totalBytes;
+                }
+                if (directory.getUsableSpace() >= needed) return directory;
+            }
+            return null;
+        }
 
-            if (!file.isDirectory()) {
-                if (progressHandler.getCancelled()) return;
+        private boolean isSameVolume(File directory1, File directory2) {
+            return directory1.getTotalSpace() == directory2.getTotalSpace()
+                    && directory1.getFreeSpace() == directory2.getFreeSpace();
+        }
 
-                byte[] buf = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-                int len;
-                BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
-                zos.putNextEntry(new ZipEntry(path + "/" + file.getName()));
-                while ((len = in.read(buf)) > 0) {
+        private void compressFile(ParallelZipCreator zipCreator, File file, String path)
+                throws IOException, NullPointerException {
+            if (progressHandler.getCancelled()) return;
 
-                    zos.write(buf, 0, len);
-                    ServiceWatcherUtil.POSITION += len;
-                }
-                in.close();
+            String name = path.isEmpty() ? file.getName() : path + "/" + file.getName();
+            if (!file.isDirectory()) {
+                if (zipCreator != null) zipCreator.addFile(file, name);
+                else writeFile(file, name);
                 return;
             }
-            if (file.list() == null) {
+
+            // directories are written straight away, so that empty ones are kept too
+            ZipArchiveEntry entry = new ZipArchiveEntry(name + "/");
+            entry.setTime(file.lastModified());
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(0);
+            entry.setCrc(0);
+            zos.putArchiveEntry(entry);
+            zos.closeArchiveEntry();
+
+            File[] children = file.listFiles();
+            if (children == null) {
                 return;
             }
-            for (File currentFile : file.listFiles()) {
+            for (File currentFile : children) {
+                compressFile(zipCreator, currentFile, name);
+            }
+        }
 
-                compressFile(currentFile, path + File.separator + file.getName());
+        /**
+         * Deflates the file straight into the archive, on this thread. Stored entries need their
+         * size and CRC before they're written, so compressed formats are deflated here too.
+         */
+        private void writeFile(File file, String name) throws IOException {
+            ZipArchiveEntry entry = new ZipArchiveEntry(name);
+            entry.setTime(file.lastModified());
+            zos.putArchiveEntry(entry);
 
+            InputStream in = new ProgressInputStream(new FileInputStream(file), progressHandler);
+            try {
+                byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+                int length;
+                while (!progressHandler.getCancelled() && (length = in.read(buffer)) > 0) {
+                    zos.write(buffer, 0, length);
+                }
+            } finally {
+                in.close();
             }
+            zos.closeArchiveEntry();
         }
     }
 
@@ -257,11 +328,13 @@ public class ZipService extends Service {
             mBuilder.setContentTitle(c.getResources().getString(title));
             mBuilder.setContentText(new File(fileName).getName() + " " +
                     Formatter.formatFileSize(c, done) + "/" + Formatter.formatFileSize(c, total));
+            mBuilder.setSubText(ProgressHandler.getTimeLeftText(c, progressHandler.getTimeLeft()));
             int id1 = Integer.parseInt("789" + id);
             mNotifyManager.notify(id1, mBuilder.build());
             if (done == total || total == 0) {
                 mBuilder.setContentTitle(getString(R.string.compression_complete));
                 mBuilder.setContentText("");
+                mBuilder.setSubText(null);
                 mBuilder.setProgress(100, 100, false);
                 mBuilder.setOngoing(false);
                 mNotifyManager.notify(id1, mBuilder.build());
@@ -312,13 +385,14 @@ public class ZipService extends Service {
     @Override
     public void onDestroy() {
         this.unregisterReceiver(receiver1);
+        ServiceWatcherUtil.onServiceFinished(this, ZipService.class);
     }
 
     /**
      * Returns the {@link #dataPackages} list which contains
      * data to be transferred to {@link ProcessViewerFragment}
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by progress watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @return
@@ -334,7 +408,7 @@ public class ZipService extends Service {
     /**
      * Puts a {@link CopyDataParcelable} into a list
      * Method call is synchronized so as to avoid modifying the list
-     * by {@link ServiceWatcherUtil#handlerThread} while {@link MainActivity#runOnUiThread(Runnable)}
+     * by progress watcher thread of {@link ServiceWatcherUtil} while {@link MainActivity#runOnUiThread(Runnable)}
      * is executing the callbacks in {@link ProcessViewerFragment}
      *
      * @param dataPackage
@@ -0,0 +1,250 @@
+package com.amaze.filemanager.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Handles the database holding an index of files on local storage, used to search file names
+ * without walking the filesystem.
+ *
+ * Every indexed directory has a row in {@link #TABLE_DIRECTORIES} with it's last modified time
+ * when it was indexed, so that it's only read again once it changes. It's children are rows in
+ * {@link #TABLE_FILES}. A directory is only marked complete once every directory under it has been
+ * indexed too, until then a search under it can't rely on the index.
+ *
+ * Paths under a directory are selected with a range on the path, "dir/" to "dir0" ('0' follows
+ * '/'), so that the primary key index is used and no escaping is needed.
+ *
+ * Try to use these functions from a background thread
+ */
+public class FileIndexHandler extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "file_index.db";
+    private static final int DATABASE_VERSION = 2;  // increment only when making change in schema
+
+    private static final String TABLE_FILES = "files";
+    private static final String TABLE_DIRECTORIES = "directories";
+
+    private static final String COLUMN_PATH = "path";
+    private static final String COLUMN_PARENT = "parent";
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_SIZE = "size";
+    private static final String COLUMN_DATE = "date";
+    private static final String COLUMN_DIRECTORY = "directory";
+    private static final String COLUMN_COMPLETE = "complete";
+
+    public FileIndexHandler(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        String queryFiles = "CREATE TABLE IF NOT EXISTS " + TABLE_FILES + " ("
+                + COLUMN_PATH + " TEXT PRIMARY KEY,"
+                + COLUMN_PARENT + " TEXT,"
+                + COLUMN_NAME + " TEXT,"
+                + COLUMN_SIZE + " INTEGER,"
+                + COLUMN_DATE + " INTEGER,"
+                + COLUMN_DIRECTORY + " INTEGER"
+                + ")";
+        String queryParentIndex = "CREATE INDEX IF NOT EXISTS " + TABLE_FILES + "_" + COLUMN_PARENT
+                + " ON " + TABLE_FILES + " (" + COLUMN_PARENT + ")";
+        String queryDirectories = "CREATE TABLE IF NOT EXISTS " + TABLE_DIRECTORIES + " ("
+                + COLUMN_PATH + " TEXT PRIMARY KEY,"
+                + COLUMN_DATE + " INTEGER,"
+                + COLUMN_COMPLETE + " INTEGER"
+                + ")";
+
+        db.execSQL(queryFiles);
+        db.execSQL(queryParentIndex);
+        db.execSQL(queryDirectories);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // it's only an index, it's rebuilt from the filesystem
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FILES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_DIRECTORIES);
+        onCreate(db);
+    }
+
+    /**
+     * @return last modified time of the directory when it was indexed, or -1 if it isn't indexed
+     */
+    public long getDirectoryDate(String path) {
+        Cursor cursor = getReadableDatabase().query(TABLE_DIRECTORIES, new String[] {COLUMN_DATE},
+                COLUMN_PATH + " = ?", new String[] {path}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public boolean isIndexed(String path) {
+        return getDirectoryDate(path) != -1;
+    }
+
+    /**
+     * @return whether the directory, and every directory under it, has been indexed completely
+     */
+    public boolean isComplete(String path) {
+        Cursor cursor = getReadableDatabase().query(TABLE_DIRECTORIES, new String[] {COLUMN_COMPLETE},
+                COLUMN_PATH + " = ? OR (" + COLUMN_PATH + " >= ? AND " + COLUMN_PATH + " < ?)",
+                new String[] {path, path + "/", path + "0"}, null, null, COLUMN_COMPLETE, "1");
+        try {
+            // an incomplete directory sorts first; no rows at all means it's never been indexed
+            return cursor.moveToFirst() && cursor.getInt(0) == 1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Marks a directory complete, to be called once every directory under it has been indexed
+     */
+    public void setComplete(String path) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(COLUMN_COMPLETE, 1);
+        getWritableDatabase().update(TABLE_DIRECTORIES, contentValues,
+                COLUMN_PATH + " = ? AND " + COLUMN_COMPLETE + " = 0", new String[] {path});
+    }
+
+    /**
+     * @return paths of the indexed child directories of a directory
+     */
+    public ArrayList<String> getChildDirectories(String path) {
+        ArrayList<String> directories = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_FILES, new String[] {COLUMN_PATH},
+                COLUMN_PARENT + " = ? AND " + COLUMN_DIRECTORY + " = 1", new String[] {path},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) directories.add(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        return directories;
+    }
+
+    /**
+     * Replaces the indexed children of a directory. Child directories which are gone are
+     * removed from the index along with everything under them. The directory is left incomplete,
+     * as new child directories aren't indexed yet.
+     *
+     * @param path     the directory
+     * @param date     last modified time of the directory, when it was listed
+     * @param children current children of the directory
+     */
+    public void setDirectory(String path, long date, File[] children) {
+        ArrayList<String> oldDirectories = getChildDirectories(path);
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String directory : oldDirectories) {
+                if (!new File(directory).isDirectory()) removeTree(db, directory);
+            }
+
+            db.delete(TABLE_FILES, COLUMN_PARENT + " = ?", new String[] {path});
+
+            SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_FILES
+                    + " VALUES (?, ?, ?, ?, ?, ?)");
+            for (File child : children) {
+                boolean isDirectory = child.isDirectory();
+                insert.bindString(1, child.getPath());
+                insert.bindString(2, path);
+                insert.bindString(3, child.getName());
+                insert.bindLong(4, isDirectory ? 0 : child.length());
+                insert.bindLong(5, child.lastModified());
+                insert.bindLong(6, isDirectory ? 1 : 0);
+                insert.executeInsert();
+            }
+            insert.close();
+
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(COLUMN_PATH, path);
+            contentValues.put(COLUMN_DATE, date);
+            contentValues.put(COLUMN_COMPLETE, 0);
+            db.insertWithOnConflict(TABLE_DIRECTORIES, null, contentValues,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Removes a directory, and everything under it, from the index
+     */
+    public void removeDirectory(String path) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            removeTree(db, path);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void removeTree(SQLiteDatabase db, String path) {
+        String[] range = new String[] {path, path + "/", path + "0"};
+        String where = COLUMN_PATH + " = ? OR (" + COLUMN_PATH + " >= ? AND " + COLUMN_PATH + " < ?)";
+        db.delete(TABLE_FILES, where, range);
+        db.delete(TABLE_DIRECTORIES, where, range);
+    }
+
+    /**
+     * Finds indexed files under a directory, whose name contains the given text
+     *
+     * @param path     the directory to search in
+     * @param nameText text the name should contain, ignoring case of ASCII letters;
+     *                 null to get every file under path
+     * @param callback called with path of each file found
+     */
+    public void query(String path, String nameText, QueryCallback callback) {
+        String selection = COLUMN_PATH + " >= ? AND " + COLUMN_PATH + " < ?";
+        String[] selectionArgs;
+        if (nameText == null) {
+            selectionArgs = new String[] {path + "/", path + "0"};
+        } else {
+            selection += " AND " + COLUMN_NAME + " LIKE ? ESCAPE '\\'";
+            selectionArgs = new String[] {path + "/", path + "0", "%" + escapeLike(nameText) + "%"};
+        }
+
+        Cursor cursor = getReadableDatabase().query(TABLE_FILES, new String[] {COLUMN_PATH, COLUMN_NAME},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (!callback.onFileFound(cursor.getString(0), cursor.getString(1))) break;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    public void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE_FILES, null, null);
+        db.delete(TABLE_DIRECTORIES, null, null);
+    }
+
+    public interface QueryCallback {
+        /**
+         * @return false to stop the query
+         */
+        boolean onFileFound(String path, String name);
+    }
+}
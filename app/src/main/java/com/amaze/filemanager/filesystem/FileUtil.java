@@ -19,6 +19,7 @@ import com.amaze.filemanager.R;
 import com.amaze.filemanager.activities.MainActivity;
 import com.amaze.filemanager.database.CloudHandler;
 import com.amaze.filemanager.exceptions.ShellNotRunningException;
+import com.amaze.filemanager.filesystem.smb.SmbListing;
 import com.amaze.filemanager.fragments.preference_fragments.PreferencesConstants;
 import com.amaze.filemanager.ui.icons.MimeTypes;
 import com.amaze.filemanager.utils.DataUtils;
@@ -211,6 +212,7 @@ public abstract class FileUtil {
                                 bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(finalFilePath));
                                 break;
                             case SMB:
+                                SmbListing.getInstance().invalidate(finalFilePath);
                                 OutputStream outputStream = new SmbFile(finalFilePath).getOutputStream();
                                 bufferedOutputStream = new BufferedOutputStream(outputStream);
                                 break;
@@ -465,6 +467,7 @@ public abstract class FileUtil {
                 try {
                     SmbFile smbFile = new SmbFile(file.getPath());
                     smbFile.mkdirs();
+                    SmbListing.getInstance().invalidate(file.getPath());
                 } catch (MalformedURLException e) {
                     e.printStackTrace();
                     isSuccessful =  false;
@@ -15,9 +15,11 @@ import com.amaze.filemanager.fragments.MainFragment;
 import com.amaze.filemanager.fragments.preference_fragments.PreferencesConstants;
 
 import com.amaze.filemanager.filesystem.ssh.SFtpClientTemplate;
+import com.amaze.filemanager.filesystem.ssh.SftpTransfer;
 import com.amaze.filemanager.filesystem.ssh.SshClientSessionTemplate;
-import com.amaze.filemanager.filesystem.ssh.SshClientTemplate;
 import com.amaze.filemanager.filesystem.ssh.SshClientUtils;
+import com.amaze.filemanager.filesystem.ssh.SshRemoteOperations;
+import com.amaze.filemanager.filesystem.smb.SmbListing;
 import com.amaze.filemanager.utils.application.AppConfig;
 
 import com.amaze.filemanager.utils.DataUtils;
@@ -27,11 +29,11 @@ import com.amaze.filemanager.utils.OpenMode;
 import com.amaze.filemanager.utils.RootUtils;
 import com.amaze.filemanager.utils.cloud.CloudUtil;
 import com.amaze.filemanager.utils.files.FileUtils;
+import com.amaze.filemanager.utils.files.FilesListCache;
 import com.amaze.filemanager.utils.provider.UtilitiesProviderInterface;
 import com.cloudrail.si.interfaces.CloudStorage;
 import com.cloudrail.si.types.SpaceAllocation;
 
-import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.common.IOUtils;
 import net.schmizz.sshj.connection.channel.direct.Session;
 import net.schmizz.sshj.sftp.FileMode;
@@ -599,23 +601,7 @@ public class HybridFile {
 
         switch (mode){
             case SFTP:
-                return SshClientUtils.execute(new SshClientSessionTemplate(path) {
-                    @Override
-                    public Long execute(Session session) throws IOException {
-                        Session.Command cmd = session.exec(String.format("du -b -s \"%s\"",
-                                SshClientUtils.extractRemotePathFrom(path)));
-
-                        String result = new String(IOUtils.readFully(cmd.getInputStream()).toByteArray());
-                        cmd.close();
-                        if(cmd.getExitStatus() == 0) {
-                            result = result.substring(0, result.indexOf('/') - 1).trim();
-                            return Long.parseLong(result);
-                        }
-                        else {
-                            return 0L;
-                        }
-                    }
-                });
+                return SshRemoteOperations.size(path);
             case SMB:
                 try {
                     size = FileUtils.folderSize(new SmbFile(path));
@@ -788,13 +774,13 @@ public class HybridFile {
             case SMB:
                 try {
                     SmbFile smbFile = new SmbFile(path);
-                    for (SmbFile smbFile1 : smbFile.listFiles()) {
-                        HybridFileParcelable baseFile=new HybridFileParcelable(smbFile1.getPath());
-                        baseFile.setName(smbFile1.getName());
+                    for (SmbListing.Entry entry : SmbListing.getInstance().list(smbFile, false)) {
+                        HybridFileParcelable baseFile=new HybridFileParcelable(entry.path);
+                        baseFile.setName(entry.name);
                         baseFile.setMode(OpenMode.SMB);
-                        baseFile.setDirectory(smbFile1.isDirectory());
-                        baseFile.setDate(smbFile1.lastModified());
-                        baseFile.setSize(baseFile.isDirectory()?0:smbFile1.length());
+                        baseFile.setDirectory(entry.isDirectory);
+                        baseFile.setDate(entry.lastModified);
+                        baseFile.setSize(entry.length);
                         onFileFound.onFileFound(baseFile);
                     }
                 } catch (MalformedURLException | SmbException e) {
@@ -858,13 +844,13 @@ public class HybridFile {
             case SMB:
                 try {
                     SmbFile smbFile = new SmbFile(path);
-                    for (SmbFile smbFile1 : smbFile.listFiles()) {
-                        HybridFileParcelable baseFile=new HybridFileParcelable(smbFile1.getPath());
-                        baseFile.setName(smbFile1.getName());
+                    for (SmbListing.Entry entry : SmbListing.getInstance().list(smbFile, false)) {
+                        HybridFileParcelable baseFile=new HybridFileParcelable(entry.path);
+                        baseFile.setName(entry.name);
                         baseFile.setMode(OpenMode.SMB);
-                        baseFile.setDirectory(smbFile1.isDirectory());
-                        baseFile.setDate(smbFile1.lastModified());
-                        baseFile.setSize(baseFile.isDirectory()?0:smbFile1.length());
+                        baseFile.setDirectory(entry.isDirectory);
+                        baseFile.setDate(entry.lastModified);
+                        baseFile.setSize(entry.length);
                         arrayList.add(baseFile);
                     }
                 } catch (MalformedURLException e) {
@@ -972,20 +958,7 @@ public class HybridFile {
                     @Override
                     public InputStream execute(final SFTPClient client) throws IOException {
                         final RemoteFile rf = client.open(SshClientUtils.extractRemotePathFrom(path));
-                        return rf. new RemoteFileInputStream(){
-                            @Override
-                            public void close() throws IOException {
-                                try
-                                {
-                                    super.close();
-                                }
-                                finally
-                                {
-                                    rf.close();
-                                    client.close();
-                                }
-                            }
-                        };
+                        return SftpTransfer.newInputStream(rf, 0, client);
                     }
                 });
                 break;
@@ -1038,33 +1011,22 @@ public class HybridFile {
     }
 
     public OutputStream getOutputStream(Context context) {
+        FilesListCache.getInstance().invalidateFile(path);
         OutputStream outputStream;
         switch (mode) {
             case SFTP:
-                return SshClientUtils.execute(new SshClientTemplate(path, false) {
+                return SshClientUtils.execute(new SFtpClientTemplate(path, false) {
                     @Override
-                    public OutputStream execute(final SSHClient ssh) throws IOException {
-                        final SFTPClient client = ssh.newSFTPClient();
+                    public OutputStream execute(final SFTPClient client) throws IOException {
                         final RemoteFile rf = client.open(SshClientUtils.extractRemotePathFrom(path),
                                 EnumSet.of(net.schmizz.sshj.sftp.OpenMode.WRITE,
-                                        net.schmizz.sshj.sftp.OpenMode.CREAT));
-                        return rf.new RemoteFileOutputStream(){
-                            @Override
-                            public void close() throws IOException {
-                                try
-                                {
-                                    super.close();
-                                }
-                                finally
-                                {
-                                    rf.close();
-                                    client.close();
-                                }
-                            }
-                        };
+                                        net.schmizz.sshj.sftp.OpenMode.CREAT,
+                                        net.schmizz.sshj.sftp.OpenMode.TRUNC));
+                        return SftpTransfer.newOutputStream(rf, client);
                     }
                 });
             case SMB:
+                SmbListing.getInstance().invalidate(path);
                 try {
                     outputStream = new SmbFile(path).getOutputStream();
                 } catch (IOException e) {
@@ -1170,6 +1132,8 @@ public class HybridFile {
         if (isSmb()) {
             try {
                 new SmbFile(path).setLastModified(date);
+                SmbListing.getInstance().invalidate(path);
+                FilesListCache.getInstance().invalidateFile(path);
                 return true;
             } catch (SmbException e) {
                 return false;
@@ -1178,6 +1142,7 @@ public class HybridFile {
             }
         }
         File f = new File(path);
+        FilesListCache.getInstance().invalidateFile(path);
         return f.setLastModified(date);
 
     }
@@ -1198,6 +1163,7 @@ public class HybridFile {
         } else if (isSmb()) {
             try {
                 new SmbFile(path).mkdirs();
+                SmbListing.getInstance().invalidate(path);
             } catch (SmbException | MalformedURLException e) {
                 e.printStackTrace();
             }
@@ -1242,24 +1208,17 @@ public class HybridFile {
             }
         } else
             FileUtil.mkdir(new File(path), context);
+        FilesListCache.getInstance().invalidateFile(path);
     }
 
     public boolean delete(Context context, boolean rootmode) throws ShellNotRunningException {
         if (isSftp()) {
-            SshClientUtils.execute(new SFtpClientTemplate(path) {
-                @Override
-                public Void execute(SFTPClient client) throws IOException {
-                    if(isDirectory(AppConfig.getInstance()))
-                        client.rmdir(SshClientUtils.extractRemotePathFrom(path));
-                    else
-                        client.rm(SshClientUtils.extractRemotePathFrom(path));
-                    return null;
-                }
-            });
-            return true;
+            // whole tree in one command on the server
+            return SshRemoteOperations.delete(path);
         } else if (isSmb()) {
             try {
                 new SmbFile(path).delete();
+                SmbListing.getInstance().invalidate(path);
             } catch (SmbException | MalformedURLException e) {
                 e.printStackTrace();
             }
@@ -1273,6 +1232,7 @@ public class HybridFile {
                 FileUtil.deleteFile(new File(path), context);
             }
         }
+        FilesListCache.getInstance().invalidateFile(path);
         return !exists();
     }
 
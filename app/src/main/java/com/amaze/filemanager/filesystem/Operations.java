@@ -7,6 +7,7 @@ import android.support.annotation.NonNull;
 import android.support.v4.provider.DocumentFile;
 
 import com.amaze.filemanager.exceptions.ShellNotRunningException;
+import com.amaze.filemanager.filesystem.smb.SmbListing;
 import com.amaze.filemanager.filesystem.ssh.SFtpClientTemplate;
 import com.amaze.filemanager.filesystem.ssh.SshClientUtils;
 import com.amaze.filemanager.utils.DataUtils;
@@ -15,6 +16,7 @@ import com.amaze.filemanager.utils.OTGUtil;
 import com.amaze.filemanager.utils.OpenMode;
 import com.amaze.filemanager.utils.RootUtils;
 import com.amaze.filemanager.utils.cloud.CloudUtil;
+import com.amaze.filemanager.utils.files.FilesListCache;
 import com.cloudrail.si.interfaces.CloudStorage;
 
 import net.schmizz.sshj.sftp.SFTPClient;
@@ -115,6 +117,7 @@ public class Operations {
                 if (file.isSmb()) {
                     try {
                         file.getSmbFile(2000).mkdirs();
+                        SmbListing.getInstance().invalidate(file.getPath());
                     } catch (SmbException e) {
                         e.printStackTrace();
                         errorCallBack.done(file, false);
@@ -199,6 +202,12 @@ public class Operations {
                 }
                 return null;
             }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                // listings of the directories are stale, whether it succeeded or not
+                FilesListCache.getInstance().invalidateFile(file.getPath());
+            }
         }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
     }
@@ -236,6 +245,7 @@ public class Operations {
                 if (file.isSmb()) {
                     try {
                         file.getSmbFile(2000).createNewFile();
+                        SmbListing.getInstance().invalidate(file.getPath());
                     } catch (SmbException e) {
                         e.printStackTrace();
                         errorCallBack.done(file, false);
@@ -337,6 +347,12 @@ public class Operations {
                 }
                 return null;
             }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                // listings of the directories are stale, whether it succeeded or not
+                FilesListCache.getInstance().invalidateFile(file.getPath());
+            }
         }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
@@ -370,6 +386,8 @@ public class Operations {
                             return null;
                         }
                         smbFile.renameTo(smbFile1);
+                        SmbListing.getInstance().invalidate(oldFile.getPath());
+                        SmbListing.getInstance().invalidate(newFile.getPath());
                         if (!smbFile.exists() && smbFile1.exists())
                             errorCallBack.done(newFile, true);
                     } catch (MalformedURLException e) {
@@ -487,6 +505,13 @@ public class Operations {
                 }
                 return null;
             }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                // listings of the directories are stale, whether it succeeded or not
+                FilesListCache.getInstance().invalidateFile(oldFile.getPath());
+                FilesListCache.getInstance().invalidateFile(newFile.getPath());
+            }
         }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
     }
@@ -29,6 +29,7 @@ import com.amaze.filemanager.utils.files.FileUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import eu.chainfire.libsuperuser.Shell;
@@ -78,6 +79,19 @@ public class RootHelper {
         MainActivity.shellInteractive.waitForIdle();
     }
 
+    /**
+     * Runs the command on the interactive root shell, passing each line of output to the listener
+     * as soon as it's read, instead of collecting the whole output first.
+     * Listener is called on the shell's handler thread, this method returns once the command is done.
+     */
+    public static void runShellCommand(String cmd, Shell.OnCommandLineListener listener)
+            throws ShellNotRunningException {
+        if (MainActivity.shellInteractive == null || !MainActivity.shellInteractive.isRunning())
+            throw new ShellNotRunningException();
+        MainActivity.shellInteractive.addCommand(cmd, 0, listener);
+        MainActivity.shellInteractive.waitForIdle();
+    }
+
     /**
      * @param cmd the command
      * @return a list of results. Null only if the command passed is a blocking call or no output is
@@ -293,64 +307,197 @@ public class RootHelper {
 
     /**
      * Get files using shell, supposing the path is not a SMB/OTG/Custom (*.apk/images)
+     * Shell is only used when the directory can't be listed by java filesystem callbacks.
      *
      * @param path
      * @param root            whether root is available or not
      * @param showHidden      to show hidden files
      * @param getModeCallBack callback to set the type of file
-     * @return TODO: Avoid parsing ls
      */
     public static void getFiles(String path, boolean root, boolean showHidden,
                                 GetModeCallBack getModeCallBack, OnFileFound fileCallback) {
         OpenMode mode = OpenMode.FILE;
-        ArrayList<HybridFileParcelable> files = new ArrayList<>();
-        if (root && !path.startsWith("/storage") && !path.startsWith("/sdcard")) {
+        if (FileUtils.canListFiles(new File(path))) {
+            // we're taking a chance to load files using basic java filesystem
+            getFilesList(path, showHidden, fileCallback);
+        } else if (root && !path.startsWith("/storage") && !path.startsWith("/sdcard")) {
             try {
                 // we're rooted and we're trying to load file with superuser
                 // we're at the root directories, superuser is required!
-                ArrayList<String> ls;
-                String cpath = getCommandLineString(path);
-                //ls = Shell.SU.run("ls -l " + cpath);
-                ls = runShellCommand("ls -l " + (showHidden ? "-a " : "") + "\"" + cpath + "\"");
-                if (ls != null) {
-                    for (int i = 0; i < ls.size(); i++) {
-                        String file = ls.get(i);
-                        if (!file.contains("Permission denied")) {
-                            HybridFileParcelable array = FileUtils.parseName(file);
-                            if (array != null) {
-                                array.setMode(OpenMode.ROOT);
-                                array.setName(array.getPath());
-                                array.setPath(path + "/" + array.getPath());
-                                if (array.getLink().trim().length() > 0) {
-                                    boolean isdirectory = isDirectory(array.getLink(), root, 0);
-                                    array.setDirectory(isdirectory);
-                                } else array.setDirectory(isDirectory(array));
-                                files.add(array);
-                                fileCallback.onFileFound(array);
-                            }
-                        }
-
-                    }
+                if (!statMissing && getFilesWithStat(path, showHidden, fileCallback)) {
+                    mode = OpenMode.ROOT;
+                } else {
+                    getFilesWithLs(path, showHidden, fileCallback);
                     mode = OpenMode.ROOT;
                 }
-
-                if (getModeCallBack != null) getModeCallBack.getMode(mode);
             } catch (ShellNotRunningException e) {
                 e.printStackTrace();
             }
         }
+        // else we couldn't load files using native java filesystem callbacks
+        // maybe the access is not allowed due to android system restrictions, we'll see later
 
-        if (FileUtils.canListFiles(new File(path))) {
-            // we're taking a chance to load files using basic java filesystem
-            getFilesList(path, showHidden, fileCallback);
-            mode = OpenMode.FILE;
-        } else {
-            // we couldn't load files using native java filesystem callbacks
-            // maybe the access is not allowed due to android system restrictions, we'll see later
-            mode = OpenMode.FILE;
+        if (getModeCallBack != null) getModeCallBack.getMode(mode);
+    }
+
+    // set once we know the device has no stat binary (toolbox before Android M), see getFilesWithStat()
+    private static volatile boolean statMissing = false;
+
+    // exit code of the shell when a command isn't found
+    private static final int EXIT_COMMAND_NOT_FOUND = 127;
+
+    /**
+     * Lists a directory with stat over the interactive root shell, run by find on as many files at
+     * once as fit in a command line. Each line is "permission size mtime ./name" where mtime is in
+     * seconds since epoch, so there's no date or column parsing involved. Files are passed to the
+     * callback as the lines arrive, except symbolic links, whose targets are resolved afterwards
+     * in a single batch.
+     *
+     * @return false if nothing could be listed, and caller needs to fall back to ls
+     */
+    private static boolean getFilesWithStat(final String path, final boolean showHidden,
+                                            final OnFileFound fileCallback)
+            throws ShellNotRunningException {
+        final String dir = path.endsWith("/") ? path : path + "/";
+        // in a subshell, so the shell's working directory is kept; names are printed relative to it
+        String cmd = "(cd " + quoteForShell(dir) + " && find . -mindepth 1 -maxdepth 1 "
+                + "-exec stat -c '%A %s %Y %n' {} +)";
+
+        final HashMap<String, HybridFileParcelable> links = new HashMap<>();
+        final int[] exitCode = {0};
+        final int[] parsedLines = {0};
+
+        runShellCommand(cmd, new Shell.OnCommandLineListener() {
+            @Override
+            public void onLine(String line) {
+                HybridFileParcelable file = parseStatLine(line, dir);
+                if (file == null) return;
+                parsedLines[0]++;
+
+                if (!showHidden && file.getName().startsWith(".")) return;
+
+                if (file.getPermission().charAt(0) == 'l') {
+                    // we can't issue another command from shell's callback, resolve it later
+                    links.put(file.getName(), file);
+                } else {
+                    file.setDirectory(file.getPermission().charAt(0) == 'd');
+                    fileCallback.onFileFound(file);
+                }
+            }
+
+            @Override
+            public void onCommandResult(int commandCode, int code) {
+                exitCode[0] = code;
+            }
+        });
+
+        // a failure on some files still lists the others, only a failure on all needs ls
+        if (exitCode[0] != 0 && parsedLines[0] == 0) {
+            if (exitCode[0] == EXIT_COMMAND_NOT_FOUND) statMissing = true;
+            return false;
         }
 
-        if (getModeCallBack != null) getModeCallBack.getMode(mode);
+        if (links.size() > 0) resolveLinks(dir, links, fileCallback);
+        return true;
+    }
+
+    /**
+     * Parses a line of stat output without splitting it, the name is last so it may contain spaces
+     *
+     * @param dir directory the name in the line is relative to, ending with a separator
+     * @return null if line isn't in the expected format, eg. an error for a file that can't be read
+     */
+    private static HybridFileParcelable parseStatLine(String line, String dir) {
+        int sizeStart = line.indexOf(' ') + 1;
+        if (sizeStart == 0) return null;
+        int timeStart = line.indexOf(' ', sizeStart) + 1;
+        if (timeStart == 0) return null;
+        int pathStart = line.indexOf(' ', timeStart) + 1;
+        if (pathStart == 0 || !line.startsWith("./", pathStart) || pathStart + 2 == line.length()) {
+            return null;
+        }
+
+        try {
+            long size = Long.parseLong(line.substring(sizeStart, timeStart - 1));
+            long time = Long.parseLong(line.substring(timeStart, pathStart - 1)) * 1000;
+            String name = line.substring(pathStart + 2);
+
+            HybridFileParcelable file = new HybridFileParcelable(dir + name, line.substring(0, sizeStart - 1),
+                    time, size, false);
+            file.setName(name);
+            file.setMode(OpenMode.ROOT);
+            file.setLink("");
+            return file;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the targets of the symbolic links in a directory, and whether they point to a
+     * directory, with one shell command for all of them. Three lines are printed per link: its
+     * name, target, and "d" or "-".
+     *
+     * @param links by name
+     */
+    private static void resolveLinks(String dir, HashMap<String, HybridFileParcelable> links,
+                                     OnFileFound fileCallback) throws ShellNotRunningException {
+        String cmd = "(cd " + quoteForShell(dir) + " && find . -mindepth 1 -maxdepth 1 -type l "
+                + "-exec sh -c 'for l; do echo \"${l#./}\"; readlink \"$l\"; "
+                + "if [ -d \"$l\" ]; then echo d; else echo -; fi; done' sh {} +)";
+
+        ArrayList<String> output = runShellCommand(cmd);
+        for (int i = 0; i + 2 < output.size(); i += 3) {
+            HybridFileParcelable link = links.remove(output.get(i));
+            if (link == null) continue;
+
+            link.setLink(output.get(i + 1));
+            link.setDirectory(output.get(i + 2).equals("d"));
+            fileCallback.onFileFound(link);
+        }
+
+        // not in the output, the links changed since listed or the shell couldn't read them
+        for (HybridFileParcelable link : links.values()) {
+            link.setDirectory(new File(link.getPath()).isDirectory());
+            fileCallback.onFileFound(link);
+        }
+    }
+
+    /**
+     * Lists a directory by parsing ls output, for devices which don't have stat
+     */
+    private static void getFilesWithLs(String path, boolean showHidden, OnFileFound fileCallback)
+            throws ShellNotRunningException {
+        String cpath = getCommandLineString(path);
+        ArrayList<String> ls = runShellCommand("ls -l " + (showHidden ? "-a " : "") + "\"" + cpath + "\"");
+        for (String file : ls) {
+            if (!file.contains("Permission denied")) {
+                HybridFileParcelable array = FileUtils.parseName(file);
+                if (array != null) {
+                    array.setMode(OpenMode.ROOT);
+                    array.setName(array.getPath());
+                    array.setPath(path + "/" + array.getPath());
+                    if (array.getLink().trim().length() > 0) {
+                        boolean isdirectory = isDirectory(array.getLink(), true, 0);
+                        array.setDirectory(isdirectory);
+                    } else array.setDirectory(isDirectory(array));
+                    fileCallback.onFileFound(array);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps a path in double quotes, escaping characters which are still special inside them
+     */
+    static String quoteForShell(String path) {
+        StringBuilder quoted = new StringBuilder(path.length() + 2).append('"');
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '"' || c == '\\' || c == '$' || c == '`') quoted.append('\\');
+            quoted.append(c);
+        }
+        return quoted.append('"').toString();
     }
 
-}
\ No newline at end of file
+}
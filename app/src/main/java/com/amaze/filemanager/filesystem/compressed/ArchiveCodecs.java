@@ -0,0 +1,273 @@
+package com.amaze.filemanager.filesystem.compressed;
+
+import com.amaze.filemanager.utils.ProgressHandler;
+import com.amaze.filemanager.utils.files.ProgressInputStream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
+import org.apache.commons.compress.archivers.sevenz.SevenZFile;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Registry of the archive formats read through commons-compress, by file name suffix. Every
+ * format is opened as an {@link ArchiveReader}, so that a single extractor in
+ * {@link com.amaze.filemanager.asynchronous.services.ExtractService} and a single browser,
+ * {@link ArchiveHelper}, handle all of them. Zip and rar have helpers of their own, which can
+ * read entries out of order.
+ *
+ * Tar based formats, and files compressed on their own (.gz, .bz2, .xz), are read as a stream
+ * from start to end, progress being the bytes read from the archive file. 7z needs random
+ * access to the file, it's progress is the size of entries read.
+ *
+ * To support another format, {@link #register(String, Codec)} it.
+ */
+public class ArchiveCodecs {
+
+    // size of buffer the archive file is read in
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final LinkedHashMap<String, Codec> codecs = new LinkedHashMap<>();
+
+    static {
+        Codec tar = (archive, progressHandler) ->
+                new StreamReader(new TarArchiveInputStream(open(archive, progressHandler)), archive);
+        Codec tarGzip = (archive, progressHandler) -> new StreamReader(new TarArchiveInputStream(
+                new GZIPInputStream(open(archive, progressHandler), BUFFER_SIZE)), archive);
+        Codec tarBzip2 = (archive, progressHandler) -> new StreamReader(new TarArchiveInputStream(
+                new BZip2CompressorInputStream(open(archive, progressHandler), true)), archive);
+        Codec tarXz = (archive, progressHandler) -> new StreamReader(new TarArchiveInputStream(
+                new XZCompressorInputStream(open(archive, progressHandler), true)), archive);
+
+        register(".tar", tar);
+        register(".tar.gz", tarGzip);
+        register(".tgz", tarGzip);
+        register(".tar.bz2", tarBzip2);
+        register(".tbz2", tarBzip2);
+        register(".tbz", tarBzip2);
+        register(".tar.xz", tarXz);
+        register(".txz", tarXz);
+        register(".7z", SevenZReader::new);
+        register(".gz", (archive, progressHandler) -> new SingleFileReader(
+                new GZIPInputStream(open(archive, progressHandler), BUFFER_SIZE), archive, ".gz"));
+        register(".bz2", (archive, progressHandler) -> new SingleFileReader(
+                new BZip2CompressorInputStream(open(archive, progressHandler), true), archive, ".bz2"));
+        register(".xz", (archive, progressHandler) -> new SingleFileReader(
+                new XZCompressorInputStream(open(archive, progressHandler), true), archive, ".xz"));
+    }
+
+    /**
+     * @param suffix lower case suffix of file names in the format, with the dot
+     */
+    public static synchronized void register(String suffix, Codec codec) {
+        codecs.put(suffix, codec);
+    }
+
+    /**
+     * @return codec for the longest suffix the path ends with, null if there is none
+     */
+    public static synchronized Codec getCodec(String path) {
+        path = path.toLowerCase();
+        String match = null;
+        for (String suffix : codecs.keySet()) {
+            if (path.endsWith(suffix) && (match == null || suffix.length() > match.length())) {
+                match = suffix;
+            }
+        }
+        return match != null ? codecs.get(match) : null;
+    }
+
+    public static synchronized boolean isSupported(String path) {
+        return getCodec(path) != null;
+    }
+
+    private static InputStream open(File archive, ProgressHandler progressHandler) throws IOException {
+        InputStream inputStream = new FileInputStream(archive);
+        if (progressHandler != null) inputStream = new ProgressInputStream(inputStream, progressHandler);
+        return new BufferedInputStream(inputStream, BUFFER_SIZE);
+    }
+
+    public interface Codec {
+        /**
+         * @param progressHandler progress is added to it as the archive is read, may be null
+         */
+        ArchiveReader open(File archive, ProgressHandler progressHandler) throws IOException;
+    }
+
+    /**
+     * Reads an archive format commons-compress has an {@link ArchiveInputStream} for
+     */
+    private static class StreamReader implements ArchiveReader {
+
+        private final ArchiveInputStream inputStream;
+        private final long total;
+
+        StreamReader(ArchiveInputStream inputStream, File archive) {
+            this.inputStream = inputStream;
+            total = archive.length();
+        }
+
+        @Override
+        public ArchiveEntry getNextEntry() throws IOException {
+            return inputStream.getNextEntry();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return inputStream.read(buffer, offset, length);
+        }
+
+        @Override
+        public long getProgressTotal() {
+            return total;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads a single compressed file as an archive with one entry, named as the file without
+     * the suffix of the compression format
+     */
+    private static class SingleFileReader implements ArchiveReader {
+
+        private final InputStream inputStream;
+        private final SingleFileEntry entry;
+        private final long total;
+        private boolean entryRead = false;
+
+        SingleFileReader(InputStream inputStream, File archive, String suffix) {
+            this.inputStream = inputStream;
+            String name = archive.getName();
+            if (name.toLowerCase().endsWith(suffix)) name = name.substring(0, name.length() - suffix.length());
+            entry = new SingleFileEntry(name, archive.lastModified());
+            total = archive.length();
+        }
+
+        @Override
+        public ArchiveEntry getNextEntry() {
+            if (entryRead) return null;
+            entryRead = true;
+            return entry;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return inputStream.read(buffer, offset, length);
+        }
+
+        @Override
+        public long getProgressTotal() {
+            return total;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
+    private static class SingleFileEntry implements ArchiveEntry {
+
+        private final String name;
+        private final long date;
+
+        SingleFileEntry(String name, long date) {
+            this.name = name;
+            this.date = date;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getSize() {
+            // gzip only keeps it modulo 2^32, and others not at all
+            return SIZE_UNKNOWN;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public Date getLastModifiedDate() {
+            return new Date(date);
+        }
+    }
+
+    /**
+     * Reads a 7z archive. Headers are at the end of the file, so it's opened twice when progress
+     * is needed: once to add up the size of entries, then to read them.
+     */
+    private static class SevenZReader implements ArchiveReader {
+
+        private final File archive;
+        private final SevenZFile sevenZFile;
+        private final ProgressHandler progressHandler;
+        private long total = 0;
+
+        SevenZReader(File archive, ProgressHandler progressHandler) throws IOException {
+            this.archive = archive;
+            this.progressHandler = progressHandler;
+
+            if (progressHandler != null) {
+                SevenZFile headers = new SevenZFile(archive);
+                try {
+                    for (SevenZArchiveEntry entry = headers.getNextEntry(); entry != null;
+                         entry = headers.getNextEntry()) {
+                        if (entry.hasStream()) total += entry.getSize();
+                    }
+                } finally {
+                    headers.close();
+                }
+            }
+
+            sevenZFile = new SevenZFile(archive);
+        }
+
+        @Override
+        public ArchiveEntry getNextEntry() throws IOException {
+            SevenZArchiveEntry entry = sevenZFile.getNextEntry();
+            if (entry != null && !entry.getHasLastModifiedDate()) {
+                // asking for a date which isn't there throws
+                entry.setLastModifiedDate(new Date(archive.lastModified()));
+            }
+            return entry;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = sevenZFile.read(buffer, offset, length);
+            if (read > 0 && progressHandler != null) progressHandler.addProgress(read);
+            return read;
+        }
+
+        @Override
+        public long getProgressTotal() {
+            return total;
+        }
+
+        @Override
+        public void close() throws IOException {
+            sevenZFile.close();
+        }
+    }
+}
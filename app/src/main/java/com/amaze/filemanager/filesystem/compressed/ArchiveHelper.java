@@ -0,0 +1,55 @@
+package com.amaze.filemanager.filesystem.compressed;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.amaze.filemanager.asynchronous.asynctasks.ArchiveHelperTask;
+import com.amaze.filemanager.asynchronous.services.ExtractService;
+import com.amaze.filemanager.adapters.data.CompressedObjectParcelable;
+import com.amaze.filemanager.utils.OnAsyncTaskFinished;
+import com.amaze.filemanager.utils.ServiceWatcherUtil;
+
+import java.util.ArrayList;
+
+/**
+ * Browses and extracts the archive formats of {@link ArchiveCodecs}
+ */
+
+public class ArchiveHelper implements CompressedInterface {
+    private String filePath;
+    private Context context;
+
+    public ArchiveHelper(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void setFilePath(String path) {
+        filePath = path;
+    }
+
+    @Override
+    public void changePath(String path, boolean addGoBackItem,
+                           OnAsyncTaskFinished<ArrayList<CompressedObjectParcelable>> onFinish) {
+        new ArchiveHelperTask(filePath, path, addGoBackItem, onFinish).execute();
+    }
+
+    @Override
+    public void decompress(String whereToDecompress) {
+        Intent intent = new Intent(context, ExtractService.class);
+        intent.putExtra(ExtractService.KEY_PATH_ZIP, filePath);
+        intent.putExtra(ExtractService.KEY_ENTRIES_ZIP, new String[0]);
+        intent.putExtra(ExtractService.KEY_PATH_EXTRACT, whereToDecompress);
+        ServiceWatcherUtil.runService(context, intent);
+    }
+
+    @Override
+    public void decompress(String whereToDecompress, String[] subDirectories) {
+        Intent intent = new Intent(context, ExtractService.class);
+        intent.putExtra(ExtractService.KEY_PATH_ZIP, filePath);
+        intent.putExtra(ExtractService.KEY_ENTRIES_ZIP, subDirectories);
+        intent.putExtra(ExtractService.KEY_PATH_EXTRACT, whereToDecompress);
+        ServiceWatcherUtil.runService(context, intent);
+    }
+
+}
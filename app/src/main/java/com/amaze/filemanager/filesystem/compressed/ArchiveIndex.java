@@ -0,0 +1,114 @@
+package com.amaze.filemanager.filesystem.compressed;
+
+import android.util.LruCache;
+
+import com.amaze.filemanager.adapters.data.CompressedObjectParcelable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Directory tree of the entries of an archive, built once when the archive is opened, so that
+ * listing a directory inside it only takes as long as it has children.
+ *
+ * Entry names use '/' as separator, and names of directories are kept with a trailing '/', as
+ * expected by {@link com.amaze.filemanager.fragments.CompressedExplorerFragment}. Parent
+ * directories which have no entry of their own in the archive are added as they're found.
+ *
+ * Indexes of recently opened archives are kept, keyed by path and last modified time of the archive.
+ */
+public class ArchiveIndex {
+
+    // number of archives whose index is kept
+    private static final int CACHE_SIZE = 4;
+
+    private static final LruCache<String, ArchiveIndex> cache = new LruCache<>(CACHE_SIZE);
+
+    // children of each directory, by path without trailing separator, "" being the root
+    private final HashMap<String, ArrayList<CompressedObjectParcelable>> directories = new HashMap<>();
+    private final HashSet<String> names = new HashSet<>();
+
+    public ArchiveIndex() {
+        directories.put("", new ArrayList<>());
+    }
+
+    public static ArchiveIndex get(String path, long lastModified) {
+        synchronized (cache) {
+            return cache.get(path + "\u0000" + lastModified);
+        }
+    }
+
+    public static void put(String path, long lastModified, ArchiveIndex index) {
+        synchronized (cache) {
+            cache.put(path + "\u0000" + lastModified, index);
+        }
+    }
+
+    /**
+     * @param name path of the entry inside the archive, separated by '/'
+     */
+    public void addEntry(String name, long date, long size, boolean directory) {
+        if (name.startsWith("/")) name = name.substring(1);
+        if (name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+            directory = true;
+        }
+        if (name.length() == 0) return;
+
+        // archives may have the same entry twice
+        if (!names.add(name)) return;
+
+        int separator = name.lastIndexOf('/');
+        String parent = separator == -1 ? "" : name.substring(0, separator);
+
+        ArrayList<CompressedObjectParcelable> siblings = directories.get(parent);
+        if (siblings == null) {
+            // entries of a directory can come before the directory itself, or it may have none
+            addEntry(parent, date, 0, true);
+            siblings = directories.get(parent);
+            if (siblings == null) {
+                // parent was already there as a file
+                siblings = new ArrayList<>();
+                directories.put(parent, siblings);
+            }
+        }
+
+        if (directory) {
+            directories.put(name, new ArrayList<>());
+            siblings.add(new CompressedObjectParcelable(name + "/", date, size, true));
+        } else {
+            siblings.add(new CompressedObjectParcelable(name, date, size, false));
+        }
+    }
+
+    /**
+     * Sorts the children of every directory, call once all entries are added
+     */
+    public void finish() {
+        CompressedObjectParcelable.Sorter sorter = new CompressedObjectParcelable.Sorter();
+        for (ArrayList<CompressedObjectParcelable> children : directories.values()) {
+            Collections.sort(children, sorter);
+        }
+    }
+
+    /**
+     * @param directory path of the directory without trailing separator, "" or null for the root
+     * @param addGoBackItem whether to add the item to go to parent directory, at the top
+     * @return a new list with children of the directory, sorted; empty if there's no such directory
+     */
+    public ArrayList<CompressedObjectParcelable> getChildren(String directory, boolean addGoBackItem) {
+        if (directory == null) directory = "";
+        if (directory.startsWith("/")) directory = directory.substring(1);
+        if (directory.endsWith("/")) directory = directory.substring(0, directory.length() - 1);
+
+        ArrayList<CompressedObjectParcelable> children = directories.get(directory);
+        ArrayList<CompressedObjectParcelable> elements =
+                new ArrayList<>((children != null ? children.size() : 0) + 1);
+
+        if (addGoBackItem) elements.add(new CompressedObjectParcelable());
+        if (children != null) elements.addAll(children);
+        return elements;
+    }
+}
@@ -0,0 +1,34 @@
+package com.amaze.filemanager.filesystem.compressed;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the entries of an archive one after another, in a single pass, as opened by a
+ * {@link ArchiveCodecs.Codec}. Data of the current entry is read with {@link #read(byte[], int, int)},
+ * whatever isn't read is skipped when moving to the next entry.
+ *
+ * Entry names are separated by '/', directories may or may not end with it.
+ */
+public interface ArchiveReader extends Closeable {
+
+    /**
+     * @return next entry, or null once there are no more
+     */
+    ArchiveEntry getNextEntry() throws IOException;
+
+    /**
+     * Reads data of the current entry
+     *
+     * @return number of bytes read, or -1 at the end of the entry
+     */
+    int read(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * @return what progress reported while reading the whole archive adds up to, it's not
+     * necessarily the size of the entries
+     */
+    long getProgressTotal();
+}
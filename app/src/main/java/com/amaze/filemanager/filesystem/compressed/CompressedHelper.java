@@ -18,14 +18,13 @@ public class CompressedHelper {
         CompressedInterface compressedInterface;
 
         String path = file.getPath().toLowerCase();
-        boolean isZip = path.endsWith(".zip") || path.endsWith(".jar") || path.endsWith(".apk");
-        boolean isTar = path.endsWith(".tar") || path.endsWith(".tar.gz");
-        boolean isRar = path.endsWith(".rar");
 
-        if (isZip || isTar) {
+        if (isZip(path)) {
             compressedInterface = new ZipHelper(context);
-        } else if (isRar) {
+        } else if (isRar(path)) {
             compressedInterface = new RarHelper(context);
+        } else if (ArchiveCodecs.isSupported(path)) {
+            compressedInterface = new ArchiveHelper(context);
         } else {
             return null;
         }
@@ -34,4 +33,21 @@ public class CompressedHelper {
         return compressedInterface;
     }
 
+    /**
+     * Whether the file is an archive we can browse and extract
+     */
+    public static boolean isFileExtractable(String path) {
+        path = path.toLowerCase();
+        return isZip(path) || isRar(path) || ArchiveCodecs.isSupported(path);
+    }
+
+    public static boolean isZip(String path) {
+        path = path.toLowerCase();
+        return path.endsWith(".zip") || path.endsWith(".jar") || path.endsWith(".apk");
+    }
+
+    public static boolean isRar(String path) {
+        return path.toLowerCase().endsWith(".rar");
+    }
+
 }
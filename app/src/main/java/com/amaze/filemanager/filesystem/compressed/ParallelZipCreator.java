@@ -0,0 +1,154 @@
+package com.amaze.filemanager.filesystem.compressed;
+
+import com.amaze.filemanager.ui.icons.MimeTypes;
+import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.ProgressHandler;
+import com.amaze.filemanager.utils.files.CopyScheduler;
+import com.amaze.filemanager.utils.files.ProgressInputStream;
+
+import org.apache.commons.compress.archivers.zip.ScatterZipOutputStream;
+import org.apache.commons.compress.archivers.zip.StreamCompressor;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntryRequest;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore;
+import org.apache.commons.compress.parallel.ScatterGatherBackingStore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Creates a zip archive compressing entries in parallel, the way commons-compress'
+ * ParallelScatterZipCreator does: every worker thread deflates the entries it's given into a
+ * temporary file of it's own, and once all are done the already compressed entries are copied
+ * as they are into the archive, one worker's file after another.
+ *
+ * Files whose format is compressed already (see {@link MimeTypes#isCompressed(File)}) are stored
+ * as they are, deflating them again costs time and gains close to nothing.
+ *
+ * Entries are added from a single thread, see {@link #addFile(File, String)}; directory entries
+ * can be written by that thread directly to the archive, which isn't touched by the workers.
+ */
+public class ParallelZipCreator {
+
+    private final ProgressHandler progressHandler;
+    private final File tempDirectory;
+    private final int compressionLevel;
+    private final CopyScheduler scheduler;
+
+    // scatter streams of every worker, along with the temporary files they're backed by
+    private final ArrayList<ScatterZipOutputStream> streams = new ArrayList<>();
+    private final ArrayList<File> tempFiles = new ArrayList<>();
+    private final ThreadLocal<ScatterZipOutputStream> threadStream = new ThreadLocal<>();
+
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    /**
+     * @param progressHandler bytes read from source files are added to it's progress
+     * @param tempDirectory where compressed entries are kept until they're written to the archive,
+     *                      needs room for about as much as the files' size
+     * @param compressionLevel level entries are deflated with, from {@link Deflater#NO_COMPRESSION}
+     *                         to {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public ParallelZipCreator(ProgressHandler progressHandler, File tempDirectory, int compressionLevel) {
+        this.progressHandler = progressHandler;
+        this.tempDirectory = tempDirectory;
+        this.compressionLevel = compressionLevel;
+        scheduler = new CopyScheduler(progressHandler);
+    }
+
+    /**
+     * Queues a file to be compressed on a worker thread. Blocks while all workers are busy.
+     *
+     * @param name name of the entry, separated by '/'
+     */
+    public void addFile(final File file, String name) {
+        final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setTime(file.lastModified());
+        entry.setMethod(compressionLevel == Deflater.NO_COMPRESSION || MimeTypes.isCompressed(file)
+                ? ZipEntry.STORED : ZipEntry.DEFLATED);
+
+        scheduler.submit(OpenMode.FILE, OpenMode.FILE, new CopyScheduler.CopyTask() {
+            @Override
+            public void run() throws Exception {
+                if (failure.get() != null) return;
+
+                final InputStream inputStream = new ProgressInputStream(new FileInputStream(file),
+                        progressHandler);
+                // stream is closed by the scatter stream once the entry is compressed
+                getThreadStream().addArchiveEntry(ZipArchiveEntryRequest
+                        .createZipArchiveEntryRequest(entry, () -> inputStream));
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+    }
+
+    /**
+     * Waits for all queued files to be compressed, then writes them to the archive, and removes
+     * the temporary files. The archive is left open.
+     *
+     * @throws IOException if compressing any of the files failed
+     */
+    public void writeTo(ZipArchiveOutputStream outputStream) throws IOException {
+        scheduler.awaitCompletion();
+
+        try {
+            Exception e = failure.get();
+            if (e instanceof IOException) throw (IOException) e;
+            if (e != null) throw new IOException(e);
+
+            if (progressHandler.getCancelled()) return;
+
+            for (ScatterZipOutputStream stream : streams) {
+                stream.writeTo(outputStream);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private ScatterZipOutputStream getThreadStream() throws IOException {
+        ScatterZipOutputStream stream = threadStream.get();
+        if (stream == null) {
+            File tempFile = File.createTempFile(".zip_scatter", null, tempDirectory);
+            ScatterGatherBackingStore backingStore = new FileBasedScatterGatherBackingStore(tempFile);
+            // ParallelScatterZipCreator of commons-compress 1.12 always uses the default level
+            stream = new ScatterZipOutputStream(backingStore,
+                    StreamCompressor.create(compressionLevel, backingStore));
+            threadStream.set(stream);
+
+            synchronized (streams) {
+                streams.add(stream);
+                tempFiles.add(tempFile);
+            }
+        }
+        return stream;
+    }
+
+    private void close() {
+        synchronized (streams) {
+            for (ScatterZipOutputStream stream : streams) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (File tempFile : tempFiles) {
+                tempFile.delete();
+            }
+            streams.clear();
+            tempFiles.clear();
+        }
+    }
+}
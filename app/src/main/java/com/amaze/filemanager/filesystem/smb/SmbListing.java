@@ -0,0 +1,187 @@
+package com.amaze.filemanager.filesystem.smb;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jcifs.smb.SmbException;
+import jcifs.smb.SmbFile;
+
+/**
+ * Listings of SMB directories, with the attributes of each entry read from the FIND responses
+ * of the listing itself. jcifs only keeps those for a few seconds, after which every
+ * {@link SmbFile#isDirectory()}, {@link SmbFile#lastModified()} or {@link SmbFile#length()}
+ * of an entry is a query of it's own; so they're copied into an {@link Entry} as each
+ * response is read.
+ *
+ * Listings are cached for a time to live, which can be set for each server, so sorting or
+ * going back to a directory doesn't list it again. SMB directories are only cached here, not in
+ * {@link com.amaze.filemanager.utils.files.FilesListCache}. Changes made through the app drop the
+ * listings they affect, see {@link #invalidate(String)}; those made by others show up once
+ * the listing expires.
+ */
+public class SmbListing {
+
+    // time in millis a listing is used for, unless set for the server
+    public static final long DEFAULT_TTL = 30 * 1000;
+
+    // directories kept listed, least recently used are dropped
+    private static final int MAX_LISTINGS = 32;
+
+    private static SmbListing instance;
+
+    // by path of the directory, least recently used first
+    private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<>(16, 0.75f, true);
+
+    // time to live of listings, by server
+    private final Map<String, Long> ttls = new HashMap<>();
+
+    public static synchronized SmbListing getInstance() {
+        if (instance == null) instance = new SmbListing();
+        return instance;
+    }
+
+    private SmbListing() {}
+
+    /**
+     * Set how long listings of a server are used before listing again, 0 to always list.
+     *
+     * @param url of the server, or any file on it
+     * @param ttl in milliseconds
+     */
+    public synchronized void setTtl(@NonNull String url, long ttl) {
+        ttls.put(getServer(url), ttl);
+    }
+
+    /**
+     * @param useCache whether a listing cached within the time to live may be returned,
+     *                 otherwise the directory is listed and the cache updated
+     * @return entries of the directory, to be read from as is
+     */
+    public List<Entry> list(@NonNull SmbFile directory, boolean useCache) throws SmbException {
+        return list(directory, useCache, null);
+    }
+
+    /**
+     * @param useCache whether a listing cached within the time to live may be returned,
+     *                 otherwise the directory is listed and the cache updated
+     * @param callback called with each entry as it's read, before the whole listing is,
+     *                 may be null
+     * @return entries of the directory, to be read from as is
+     */
+    public List<Entry> list(@NonNull SmbFile directory, boolean useCache, EntryCallback callback)
+            throws SmbException {
+        String path = toDirectoryPath(directory.getPath());
+        if (useCache) {
+            Listing listing;
+            synchronized (this) {
+                listing = listings.get(path);
+            }
+            if (listing != null && listing.expires > System.currentTimeMillis()) {
+                if (callback != null) {
+                    for (Entry entry : listing.entries) callback.onEntry(entry);
+                }
+                return listing.entries;
+            }
+        }
+
+        long listed = System.currentTimeMillis();
+        final List<Entry> found = new ArrayList<>();
+        // called for each file as the FIND response it's in is read, while it's attributes are
+        // held; by the time listFiles() returns, those of the first files may have expired
+        directory.listFiles(file -> {
+            boolean isDirectory = file.isDirectory();
+            Entry entry = new Entry(file.getPath(), file.getName(), isDirectory, file.lastModified(),
+                    isDirectory ? 0 : file.length());
+            found.add(entry);
+            if (callback != null) callback.onEntry(entry);
+            // only the entries are kept
+            return false;
+        });
+        List<Entry> entries = Collections.unmodifiableList(found);
+
+        synchronized (this) {
+            Long ttl = ttls.get(getServer(path));
+            listings.put(path, new Listing(entries, listed + (ttl != null ? ttl : DEFAULT_TTL)));
+
+            Iterator<Listing> iterator = listings.values().iterator();
+            while (listings.size() > MAX_LISTINGS && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Drop listings of the directory the file is in, and of the file and all under it if it's
+     * a directory. Must be called once the app has changed it.
+     */
+    public synchronized void invalidate(@NonNull String path) {
+        String directoryPath = toDirectoryPath(path);
+        String parentPath = directoryPath.substring(0,
+                directoryPath.lastIndexOf('/', directoryPath.length() - 2) + 1);
+
+        listings.remove(parentPath);
+        Iterator<String> iterator = listings.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(directoryPath)) iterator.remove();
+        }
+    }
+
+    private static String toDirectoryPath(String path) {
+        return path.endsWith("/") ? path : path + "/";
+    }
+
+    /**
+     * @return smb://[credentials@]server/ of the url
+     */
+    private static String getServer(String url) {
+        int end = url.indexOf('/', "smb://".length());
+        return end < 0 ? url : url.substring(0, end + 1);
+    }
+
+    private static class Listing {
+        final List<Entry> entries;
+        final long expires;
+
+        Listing(List<Entry> entries, long expires) {
+            this.entries = entries;
+            this.expires = expires;
+        }
+    }
+
+    public interface EntryCallback {
+        /**
+         * Called on the listing thread, for each entry in the order they're read
+         */
+        void onEntry(Entry entry);
+    }
+
+    /**
+     * Entry of a listing, with it's attributes as they were when listed.
+     */
+    public static class Entry {
+        public final String path;
+        // directories end with '/', as in SmbFile
+        public final String name;
+        public final boolean isDirectory;
+        public final long lastModified;
+        // 0 for directories
+        public final long length;
+
+        Entry(String path, String name, boolean isDirectory, long lastModified, long length) {
+            this.path = path;
+            this.name = name;
+            this.isDirectory = isDirectory;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
@@ -34,7 +34,7 @@ public abstract class SFtpClientTemplate
 {
     public final String url;
 
-    public final boolean closeClientOnFinish;
+    public final boolean useSharedClient;
 
     public SFtpClientTemplate(@NonNull String url)
     {
@@ -42,16 +42,18 @@ public abstract class SFtpClientTemplate
     }
 
     /**
-     * If closeClientOnFinish is set to true, calling code needs to handle closing of {@link SFTPClient}
-     * session.
+     * If useSharedClient is set to true, the {@link SFTPClient} shared through
+     * {@link SshConnectionPool} is used, and left open for other templates. Otherwise it's a
+     * client of its own, which calling code needs to close once execute returned it's result;
+     * if execute failed, it's closed for it.
      *
      * @param url SSH connection URL, in the form of <code>ssh://&lt;username&gt;:&lt;password&gt;@&lt;host&gt;:&lt;port&gt;</code> or <code>ssh://&lt;username&gt;@&lt;host&gt;:&lt;port&gt;</code>
-     * @param closeClientOnFinish
+     * @param useSharedClient false for a client of its own, eg. to keep a stream open on it
      */
-    public SFtpClientTemplate(@NonNull String url, boolean closeClientOnFinish)
+    public SFtpClientTemplate(@NonNull String url, boolean useSharedClient)
     {
         this.url = url;
-        this.closeClientOnFinish = closeClientOnFinish;
+        this.useSharedClient = useSharedClient;
     }
 
     /**
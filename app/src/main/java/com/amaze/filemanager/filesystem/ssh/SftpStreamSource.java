@@ -0,0 +1,64 @@
+/*
+ * SftpStreamSource.java
+ *
+ * This file is part of AmazeFileManager.
+ *
+ * AmazeFileManager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AmazeFileManager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AmazeFileManager. If not, see <http ://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.ssh;
+
+import android.support.annotation.NonNull;
+
+import com.amaze.filemanager.utils.SmbStreamer.StreamSource;
+
+import net.schmizz.sshj.sftp.RemoteFile;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams a file of a SSH server. Each input is a {@link SFTPClient} of it's own, on the
+ * connection of {@link SshConnectionPool}, reading the {@link RemoteFile} from the position
+ * asked for, so seeking doesn't need the file read up to there. Reads are requested ahead,
+ * see {@link SftpTransfer}.
+ */
+public class SftpStreamSource extends StreamSource {
+
+    private final String path;
+
+    /**
+     * @param path SSH URL of the file
+     * @param lastModified time of the file, 0 if not known
+     */
+    public SftpStreamSource(@NonNull String path, @NonNull String name, long length, long lastModified) {
+        super(name, length, path, lastModified);
+        this.path = path;
+    }
+
+    @Override
+    protected InputStream openInput(final long position) throws IOException {
+        InputStream inputStream = SshClientUtils.execute(new SFtpClientTemplate(path, false) {
+            @Override
+            public InputStream execute(@NonNull final SFTPClient client) throws IOException {
+                final RemoteFile rf = client.open(SshClientUtils.extractRemotePathFrom(path));
+                return SftpTransfer.newInputStream(rf, position, client);
+            }
+        });
+
+        if (inputStream == null) throw new IOException("Unable to open " + name);
+        return inputStream;
+    }
+}
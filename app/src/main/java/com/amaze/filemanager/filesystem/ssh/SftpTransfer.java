@@ -0,0 +1,98 @@
+/*
+ * SftpTransfer.java
+ *
+ * This file is part of AmazeFileManager.
+ *
+ * AmazeFileManager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AmazeFileManager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AmazeFileManager. If not, see <http ://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.ssh;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import net.schmizz.sshj.sftp.RemoteFile;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Streams for transferring {@link RemoteFile}s, which keep several SFTP requests in flight
+ * instead of waiting a round trip for each, so copies over high latency links are bound by
+ * bandwidth rather than latency.
+ *
+ * Each read or write of the streams is a request of it's own, callers should read and write
+ * in chunks of {@link #BUFFER_SIZE}.
+ */
+public class SftpTransfer
+{
+    // size of a request, which all servers handle in full
+    public static final int BUFFER_SIZE = 32 * 1024;
+
+    // requests sent ahead of being answered, so up to 512KB is on the way at once
+    private static final int MAX_UNCONFIRMED_READS = 16;
+
+    private static final int MAX_UNCONFIRMED_WRITES = 16;
+
+    private SftpTransfer() {}
+
+    /**
+     * @param client closed along with the stream, null if it's shared and must stay open
+     * @return stream reading the file from position, requesting data ahead of the reader
+     */
+    public static InputStream newInputStream(@NonNull final RemoteFile rf, long position,
+                                             @Nullable final SFTPClient client) {
+        return rf.new ReadAheadRemoteFileInputStream(MAX_UNCONFIRMED_READS, position) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    closeFile(rf, client);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param client closed along with the stream, null if it's shared and must stay open
+     * @return stream writing the file from it's start, which only waits for writes to be
+     * confirmed once too many are unconfirmed, or when flushed or closed
+     */
+    public static OutputStream newOutputStream(@NonNull final RemoteFile rf,
+                                               @Nullable final SFTPClient client) {
+        return rf.new RemoteFileOutputStream(0, MAX_UNCONFIRMED_WRITES) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    // waits for the writes still unconfirmed, failing if any did
+                    super.close();
+                } finally {
+                    closeFile(rf, client);
+                }
+            }
+        };
+    }
+
+    private static void closeFile(RemoteFile rf, SFTPClient client) throws IOException {
+        try {
+            rf.close();
+        } finally {
+            if(client != null)
+                client.close();
+        }
+    }
+}
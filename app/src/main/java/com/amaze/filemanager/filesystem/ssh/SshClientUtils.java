@@ -37,7 +37,7 @@ import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.ui.icons.MimeTypes;
 import com.amaze.filemanager.utils.application.AppConfig;
 import com.amaze.filemanager.utils.SmbUtil;
-import com.amaze.filemanager.utils.cloud.CloudStreamer;
+import com.amaze.filemanager.utils.SmbStreamer.Streamer;
 
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.connection.channel.direct.Session;
@@ -65,10 +65,11 @@ public abstract class SshClientUtils
      * @return Template execution results
      */
     public static final <T> T execute(@NonNull SshClientTemplate template) {
+        SshConnectionPool.Connection connection = SshConnectionPool.getInstance().acquire(template.url);
         SSHClient client = null;
         T retval = null;
         try {
-            client = SshConnectionPool.getInstance().getConnection(template.url);
+            client = connection.getClient();
             if(client != null)
                 retval = template.execute(client);
             else
@@ -79,6 +80,7 @@ public abstract class SshClientUtils
             if(client != null && template.closeClientOnFinish) {
                 tryDisconnect(client);
             }
+            connection.release();
         }
         return retval;
     }
@@ -123,28 +125,32 @@ public abstract class SshClientUtils
      * @return Template execution results
      */
     public static final <T> T execute(@NonNull final SFtpClientTemplate template) {
-        return execute(new SshClientTemplate(template.url, false) {
-            @Override
-            public T execute(SSHClient client) throws IOException {
-                SFTPClient sftpClient = null;
-                T retval = null;
+        SshConnectionPool.Connection connection = SshConnectionPool.getInstance().acquire(template.url);
+        SFTPClient sftpClient = null;
+        T retval = null;
+        try {
+            // the pool's client is shared, and stays open for the next template
+            sftpClient = template.useSharedClient ? connection.getSftpClient()
+                    : connection.newSftpClient();
+            if(sftpClient != null)
+                retval = template.execute(sftpClient);
+            else
+                throw new RuntimeException("Unable to execute template");
+        } catch(IOException e) {
+            Log.e(TAG, "Error executing template method", e);
+        } finally {
+            if(retval == null && sftpClient != null && !template.useSharedClient) {
+                // calling code never got what it would have closed it with, whatever was thrown;
+                // closing also returns it's lease of the connection
                 try {
-                    sftpClient = client.newSFTPClient();
-                    retval = template.execute(sftpClient);
+                    sftpClient.close();
                 } catch(IOException e) {
-                    Log.e(TAG, "Error executing template method", e);
-                } finally {
-                    if(sftpClient != null && template.closeClientOnFinish) {
-                        try {
-                            sftpClient.close();
-                        } catch(IOException e) {
-                            Log.w(TAG, "Error closing SFTP client", e);
-                        }
-                    }
+                    Log.w(TAG, "Error closing SFTP client", e);
                 }
-                return retval;
             }
-        });
+            connection.release();
+        }
+        return retval;
     }
 
     /**
@@ -234,15 +240,27 @@ public abstract class SshClientUtils
     }
 
     public static void launchSftp(final HybridFileParcelable baseFile, final MainActivity activity) {
-        final CloudStreamer streamer = CloudStreamer.getInstance();
+        final Streamer streamer = Streamer.getInstance();
 
         new Thread(() -> {
             try {
-                streamer.setStreamSrc(baseFile.getInputStream(activity), baseFile.getName(), baseFile.length(activity));
+                // the file is read from where the player asks, so it starts playing right away
+                final String path = baseFile.getPath(), name = baseFile.getName();
+                final long length = baseFile.length(activity);
+                // as it is now, the listing may be older than the file's content
+                Long mtime = execute(new SFtpClientTemplate(path) {
+                    @Override
+                    public Long execute(@NonNull SFTPClient client) throws IOException {
+                        return client.mtime(extractRemotePathFrom(path));
+                    }
+                });
+                final long lastModified = mtime != null ? mtime * 1000 : 0;
+                streamer.setStreamSrc(name, () -> new SftpStreamSource(path, name, length, lastModified),
+                        null);
                 activity.runOnUiThread(() -> {
                     try {
                         File file = new File(SshClientUtils.extractRemotePathFrom(baseFile.getPath()));
-                        Uri uri = Uri.parse(CloudStreamer.URL + Uri.fromFile(file).getEncodedPath());
+                        Uri uri = Uri.parse(Streamer.URL + Uri.fromFile(file).getEncodedPath());
                         Intent i = new Intent(Intent.ACTION_VIEW);
                         i.setDataAndType(uri, MimeTypes.getMimeType(file));
                         PackageManager packageManager = activity.getPackageManager();
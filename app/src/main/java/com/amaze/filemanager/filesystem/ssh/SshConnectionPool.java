@@ -22,7 +22,10 @@
 package com.amaze.filemanager.filesystem.ssh;
 
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.amaze.filemanager.activities.MainActivity;
@@ -33,21 +36,43 @@ import com.amaze.filemanager.filesystem.ssh.tasks.SshAuthenticationTask;
 import com.amaze.filemanager.utils.application.AppConfig;
 
 import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.sftp.SFTPEngine;
 
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InterruptedIOException;
 import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Poor man's implementation of SSH connection pool.
+ * Pool of SSH connections, one for each host, which all code that uses {@link SSHClient} leases
+ * from with {@link #acquire(String)}.
  *
- * It uses a {@link ConcurrentHashMap} to hold the opened SSH connections; all code that uses
- * {@link SSHClient} can ask for connection here with <code>getConnection(url)</code>.
+ * A host is connected once, by the first caller asking for it; others asking at the same time
+ * wait for that connection rather than opening their own. Channels of all callers are
+ * multiplexed on it, and a {@link SFTPClient} is shared by those which don't keep one
+ * of their own. Connections send keep-alives while open, and are closed once they have
+ * been unused for the idle timeout, or to keep the number of them under the maximum.
+ *
+ * Connecting and authenticating run on the pool's own threads, several hosts at once, rather
+ * than on the executor shared by all {@link android.os.AsyncTask}s; callers only wait for the
+ * handshake of the host they asked for. Keys are parsed once for each connection URL.
  */
 public class SshConnectionPool
 {
@@ -57,15 +82,52 @@ public class SshConnectionPool
 
     public static final int SSH_CONNECT_TIMEOUT = 30000;
 
+    // seconds between keep-alives, so servers and routers don't drop a connection kept idle
+    public static final int SSH_KEEP_ALIVE_INTERVAL = 30;
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+    private static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+
+    // how long a connect waits for the passphrase of an encrypted key to be entered, in seconds
+    private static final long PASSPHRASE_TIMEOUT = 120;
+
     private static final String TAG = "SshConnectionPool";
 
     private static SshConnectionPool sInstance = null;
 
-    private final Map<String, SSHClient> mConnections;
+    // connections by base URL, least recently used first
+    private final LinkedHashMap<String, Connection> mConnections;
+
+    private int mMaxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    private long mIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    // connects and authenticates, a thread for each host being connected to
+    private final ExecutorService mConnectExecutor;
+
+    // parsed keys by connection URL, with the PEM they were parsed from
+    private final Map<String, ParsedKey> mKeyPairs = new ConcurrentHashMap<>();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     private SshConnectionPool()
     {
-        mConnections = new ConcurrentHashMap<String, SSHClient>();
+        mConnections = new LinkedHashMap<>(16, 0.75f, true);
+
+        mConnectExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "ssh_connect");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ssh_pool_evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdleConnections, 1, 1, TimeUnit.MINUTES);
     }
 
     /**
@@ -73,7 +135,7 @@ public class SshConnectionPool
      *
      * @return {@link SshConnectionPool} instance
      */
-    public static final SshConnectionPool getInstance() {
+    public static final synchronized SshConnectionPool getInstance() {
         if(sInstance == null)
             sInstance = new SshConnectionPool();
 
@@ -81,34 +143,48 @@ public class SshConnectionPool
     }
 
     /**
-     * Obtain a {@link SSHClient} connection from the underlying connection pool.
+     * Set the number of hosts kept connected. Idle connections are closed, least recently used
+     * first, to stay under it; connections in use are never closed, so it may be exceeded while
+     * they are.
+     */
+    public synchronized void setMaxConnections(int maxConnections) {
+        mMaxConnections = maxConnections;
+    }
+
+    /**
+     * Set how long a connection is kept open once nothing uses it.
      *
-     * Beneath it will return the connection if it exists; otherwise it will create a new one and
-     * put it into the connection pool.
+     * @param idleTimeout in milliseconds
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        mIdleTimeout = idleTimeout;
+    }
+
+    /**
+     * Lease the connection to the host of the given URL, which must be released with
+     * {@link Connection#release()} once done. It's connected when first used.
      *
      * @param url SSH connection URL, in the form of <code>ssh://&lt;username&gt;:&lt;password&gt;@&lt;host&gt;:&lt;port&gt;</code> or <code>ssh://&lt;username&gt;@&lt;host&gt;:&lt;port&gt;</code>
-     * @return {@link SSHClient} connection, already opened and authenticated
-     * @throws IOException IOExceptions that occur during connection setup
+     * @return {@link Connection} to the host
      */
-    public SSHClient getConnection(@NonNull String url) throws IOException {
+    public Connection acquire(@NonNull String url) {
         url = SshClientUtils.extractBaseUriFrom(url);
 
-        SSHClient client = mConnections.get(url);
-        if(client == null) {
-            client = create(url);
-            if(client != null)
-                mConnections.put(url, client);
-        } else {
-            if(!validate(client)) {
-                Log.d(TAG, "Connection no longer usable. Reconnecting...");
-                expire(client);
-                mConnections.remove(url);
-                client = create(url);
-                if(client != null)
-                    mConnections.put(url, client);
+        Connection connection;
+        List<Connection> evicted = new ArrayList<>();
+        synchronized (this) {
+            connection = mConnections.get(url);
+            if(connection == null) {
+                trimConnections(mMaxConnections - 1, evicted);
+                connection = new Connection(url);
+                mConnections.put(url, connection);
             }
+            // under the pool's lock, so it can't be evicted before being leased
+            connection.mLeases++;
         }
-        return client;
+
+        closeAll(evicted);
+        return connection;
     }
 
     /**
@@ -118,14 +194,46 @@ public class SshConnectionPool
      * @see MainActivity#exit()
      */
     public void expungeAllConnections() {
-        AppConfig.runInBackground(() -> {
-            if(!mConnections.isEmpty()) {
-                for (SSHClient connection : mConnections.values()) {
-                    SshClientUtils.tryDisconnect(connection);
+        List<Connection> connections;
+        synchronized (this) {
+            connections = new ArrayList<>(mConnections.values());
+            mConnections.clear();
+        }
+        AppConfig.runInBackground(() -> closeAll(connections));
+    }
+
+    private void evictIdleConnections() {
+        List<Connection> evicted = new ArrayList<>();
+        synchronized (this) {
+            long idleSince = System.currentTimeMillis() - mIdleTimeout;
+            Iterator<Connection> iterator = mConnections.values().iterator();
+            while(iterator.hasNext()) {
+                Connection connection = iterator.next();
+                if(connection.mLeases == 0 && connection.mLastUsed < idleSince) {
+                    iterator.remove();
+                    evicted.add(connection);
                 }
-                mConnections.clear();
             }
-        });
+        }
+        closeAll(evicted);
+    }
+
+    // must hold the pool's lock
+    private void trimConnections(int maxConnections, List<Connection> evicted) {
+        Iterator<Connection> iterator = mConnections.values().iterator();
+        while(mConnections.size() > maxConnections && iterator.hasNext()) {
+            Connection connection = iterator.next();
+            if(connection.mLeases == 0) {
+                iterator.remove();
+                evicted.add(connection);
+            }
+        }
+    }
+
+    private void closeAll(List<Connection> connections) {
+        for (Connection connection : connections) {
+            connection.close();
+        }
     }
 
     private SSHClient create(@NonNull String url) throws IOException {
@@ -133,7 +241,7 @@ public class SshConnectionPool
     }
 
     // Logic for creating SSH connection. Depends on password existence in given Uri password or
-    // key-based authentication
+    // key-based authentication. Runs on the connect executor.
     private SSHClient create(@NonNull Uri uri) throws IOException {
         String host = uri.getHost();
         int port = uri.getPort();
@@ -146,32 +254,63 @@ public class SshConnectionPool
             port = SSH_DEFAULT_PORT;
 
         UtilsHandler utilsHandler = AppConfig.getInstance().getUtilsHandler();
-        try {
-            String pem = utilsHandler.getSshAuthPrivateKey(uri.toString());
-            AtomicReference<KeyPair> keyPair = new AtomicReference<>(null);
-            if(pem != null && !"".equals(pem)) {
-                CountDownLatch latch = new CountDownLatch(1);
-                new PemToKeyPairTask(pem, result -> {
-                    if(result.result != null){
-                        keyPair.set(result.result);
-                        latch.countDown();
-                    }
-                }).execute();
-                latch.await();
-            }
-            AsyncTaskResult<SSHClient> taskResult = new SshAuthenticationTask(host, port,
-                    utilsHandler.getSshHostKey(uri.toString()),
-                    username, password, keyPair.get()).execute().get();
+        String pem = utilsHandler.getSshAuthPrivateKey(uri.toString());
+        KeyPair keyPair = null;
+        if(pem != null && !"".equals(pem))
+            keyPair = getKeyPair(uri.toString(), pem);
 
-            SSHClient client = taskResult.result;
-            return client;
+        SshAuthenticationTask task = new SshAuthenticationTask(host, port,
+                utilsHandler.getSshHostKey(uri.toString()),
+                username, password, keyPair);
+        AsyncTaskResult<SSHClient> result = task.authenticate();
+        if(result.exception != null)
+            mMainHandler.post(() -> task.notifyFailure(result));
+
+        return result.result;
+    }
+
+    /**
+     * @return {@link KeyPair} parsed from the PEM, cached for the connection URL until the PEM
+     * stored for it changes. Asks for the passphrase of an encrypted key until it's right, and
+     * waits for it; the key is parsed on the calling connect thread.
+     */
+    private KeyPair getKeyPair(@NonNull String url, @NonNull String pem) throws IOException {
+        ParsedKey parsed = mKeyPairs.get(url);
+        if(parsed != null && parsed.pem.equals(pem))
+            return parsed.keyPair;
+
+        KeyPair keyPair = new PemToKeyPairTask(pem, null).convert().result;
+        while(keyPair == null) {
+            String passphrase = promptPassphrase();
+            if(passphrase == null)
+                throw new IOException("No usable key for " + Uri.parse(url).getHost());
+            keyPair = new PemToKeyPairTask(pem.getBytes(), null, passphrase).convert().result;
+        }
+
+        mKeyPairs.put(url, new ParsedKey(pem, keyPair));
+        return keyPair;
+    }
+
+    /**
+     * @return passphrase the user entered, or null if the prompt was cancelled or not answered
+     * within {@link #PASSPHRASE_TIMEOUT}
+     */
+    private @Nullable String promptPassphrase() throws IOException {
+        // the prompt needs the main thread
+        AtomicReference<String> passphrase = new AtomicReference<>(null);
+        CountDownLatch latch = new CountDownLatch(1);
+        mMainHandler.post(() -> PemToKeyPairTask.promptPassphrase(entered -> {
+            passphrase.set(entered);
+            latch.countDown();
+        }));
+
+        try {
+            if(!latch.await(PASSPHRASE_TIMEOUT, TimeUnit.SECONDS))
+                return null;
         } catch(InterruptedException e) {
-            //FIXME: proper handling
-            throw new RuntimeException(e);
-        } catch(ExecutionException e) {
-            //FIXME: proper handling
-            throw new RuntimeException(e);
+            throw new InterruptedIOException("Interrupted while waiting for key passphrase");
         }
+        return passphrase.get();
     }
 
     private boolean validate(@NonNull SSHClient client) {
@@ -181,4 +320,156 @@ public class SshConnectionPool
     private void expire(@NonNull SSHClient client) {
         SshClientUtils.tryDisconnect(client);
     }
+
+    /**
+     * Connection to a host, leased from the pool by {@link #acquire(String)}.
+     */
+    public class Connection
+    {
+        private final String mUrl;
+
+        private SSHClient mClient;
+
+        private SFTPClient mSftpClient;
+
+        // connect in progress, callers asking for the client meanwhile wait for it
+        private Future<SSHClient> mConnecting;
+
+        private boolean mClosed = false;
+
+        // guarded by the pool's lock
+        private int mLeases = 0;
+
+        private long mLastUsed = System.currentTimeMillis();
+
+        private Connection(@NonNull String url) {
+            mUrl = url;
+        }
+
+        /**
+         * @return {@link SSHClient} connection, already opened and authenticated, or null if
+         * authentication failed
+         * @throws IOException IOExceptions that occur during connection setup
+         */
+        public @Nullable SSHClient getClient() throws IOException {
+            Future<SSHClient> connecting;
+            synchronized (this) {
+                if(mClient != null && validate(mClient))
+                    return mClient;
+
+                if(mConnecting == null) {
+                    if(mClient != null) {
+                        Log.d(TAG, "Connection no longer usable. Reconnecting...");
+                        expire(mClient);
+                        mClient = null;
+                        mSftpClient = null;
+                    }
+                    mConnecting = mConnectExecutor.submit(this::connect);
+                }
+                connecting = mConnecting;
+            }
+
+            // not holding the lock, so the connect can hand over the client when done
+            try {
+                return connecting.get();
+            } catch(InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while connecting to " + mUrl);
+            } catch(ExecutionException e) {
+                if(e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+        }
+
+        private SSHClient connect() throws IOException {
+            SSHClient client = null;
+            try {
+                client = create(mUrl);
+            } finally {
+                synchronized (this) {
+                    mConnecting = null;
+                    if(mClosed && client != null) {
+                        // expunged while connecting
+                        expire(client);
+                        client = null;
+                    }
+                    mClient = client;
+                }
+            }
+            return client;
+        }
+
+        /**
+         * @return {@link SFTPClient} shared by everyone using the connection, it must not be
+         * closed; or null if authentication failed
+         */
+        public @Nullable SFTPClient getSftpClient() throws IOException {
+            SSHClient client = getClient();
+            if(client == null)
+                return null;
+
+            synchronized (this) {
+                if(mSftpClient == null || !mSftpClient.getSFTPEngine().getSubsystem().isOpen())
+                    mSftpClient = client.newSFTPClient();
+                return mSftpClient;
+            }
+        }
+
+        /**
+         * @return {@link SFTPClient} of the caller's own, which keeps the connection leased
+         * until closed; or null if authentication failed
+         */
+        public @Nullable SFTPClient newSftpClient() throws IOException {
+            SSHClient client = getClient();
+            if(client == null)
+                return null;
+
+            SFTPEngine engine = new SFTPEngine(client).init();
+            synchronized (SshConnectionPool.this) {
+                mLeases++;
+            }
+            final AtomicBoolean closed = new AtomicBoolean(false);
+            return new SFTPClient(engine) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if(closed.compareAndSet(false, true))
+                            release();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Return the lease, the connection is kept open for the next one.
+         */
+        public void release() {
+            synchronized (SshConnectionPool.this) {
+                mLeases--;
+                mLastUsed = System.currentTimeMillis();
+            }
+        }
+
+        private synchronized void close() {
+            mClosed = true;
+            if(mClient != null)
+                expire(mClient);
+            mClient = null;
+            mSftpClient = null;
+        }
+    }
+
+    private static class ParsedKey
+    {
+        private final String pem;
+
+        private final KeyPair keyPair;
+
+        private ParsedKey(@NonNull String pem, @NonNull KeyPair keyPair) {
+            this.pem = pem;
+            this.keyPair = keyPair;
+        }
+    }
 }
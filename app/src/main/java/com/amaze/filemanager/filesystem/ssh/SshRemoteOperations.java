@@ -0,0 +1,286 @@
+/*
+ * SshRemoteOperations.java
+ *
+ * This file is part of AmazeFileManager.
+ *
+ * AmazeFileManager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AmazeFileManager is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AmazeFileManager. If not, see <http ://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.ssh;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import net.schmizz.sshj.common.IOUtils;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.FileMode;
+import net.schmizz.sshj.sftp.RemoteResourceInfo;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Operations on whole trees of a SSH server, run as a command on the server, so they take a
+ * single round trip rather than one SFTP request for each file in the tree.
+ *
+ * Tools on the server are detected once for each connection. Where they're missing, or the
+ * account can't run commands, operations fall back to the SFTP protocol or tell the caller
+ * to, as documented by each.
+ */
+public class SshRemoteOperations
+{
+    private static final String TAG = "SshRemoteOperations";
+
+    // prints the name of each tool the server has, one on a line
+    private static final String DETECT_COMMAND = "for tool in cp mv rm du md5sum sha256sum; do "
+            + "command -v $tool >/dev/null 2>&1 && echo $tool; done; true";
+
+    // time in millis before tools are detected again on a server where that failed
+    private static final long DETECT_RETRY_INTERVAL = 5 * 60 * 1000;
+
+    // tools available by base URL of the connection
+    private static final Map<String, Set<String>> sTools = new ConcurrentHashMap<>();
+
+    // time detection last failed, by base URL of the connection
+    private static final Map<String, Long> sDetectFailures = new ConcurrentHashMap<>();
+
+    private SshRemoteOperations() {}
+
+    /**
+     * @return true if both are on the same server, logged in as the same user, so a command
+     * there can operate on both
+     */
+    public static boolean isSameHost(@NonNull String url1, @NonNull String url2) {
+        return SshClientUtils.extractBaseUriFrom(url1).equals(SshClientUtils.extractBaseUriFrom(url2));
+    }
+
+    /**
+     * Delete the file, or the directory with all it's contents. Falls back to deleting each
+     * file over SFTP.
+     *
+     * @return true if deleted
+     */
+    public static boolean delete(@NonNull String url) {
+        if(hasTools(url, "rm")) {
+            if(exec(url, "rm -rf -- " + quote(SshClientUtils.extractRemotePathFrom(url))) != null)
+                return true;
+        }
+
+        Boolean deleted = SshClientUtils.execute(new SFtpClientTemplate(url) {
+            @Override
+            public Boolean execute(@NonNull SFTPClient client) throws IOException {
+                deleteRecursively(client, SshClientUtils.extractRemotePathFrom(url));
+                return true;
+            }
+        });
+        return deleted != null && deleted;
+    }
+
+    /**
+     * Copy a file or directory to another path on the same host, see {@link #isSameHost(String, String)}.
+     * Contents of a directory are merged into the target if it exists. There's no fallback, the
+     * caller has to copy the files itself if this fails.
+     *
+     * @return true if copied
+     */
+    public static boolean copy(@NonNull String sourceUrl, @NonNull String targetUrl, boolean directory) {
+        if(!isSameHost(sourceUrl, targetUrl) || !hasTools(sourceUrl, "cp"))
+            return false;
+
+        String source = SshClientUtils.extractRemotePathFrom(sourceUrl);
+        String target = quote(SshClientUtils.extractRemotePathFrom(targetUrl));
+        String command = directory
+                ? "mkdir -p -- " + target + " && cp -a -- " + quote(source + "/.") + " " + target
+                : "cp -a -- " + quote(source) + " " + target;
+        return exec(sourceUrl, command) != null;
+    }
+
+    /**
+     * Move a file or directory to another path on the same host, see {@link #isSameHost(String, String)}.
+     * Falls back to a SFTP rename, which servers may refuse across file systems.
+     *
+     * @return true if moved
+     */
+    public static boolean move(@NonNull String sourceUrl, @NonNull String targetUrl) {
+        if(!isSameHost(sourceUrl, targetUrl))
+            return false;
+
+        final String source = SshClientUtils.extractRemotePathFrom(sourceUrl);
+        final String target = SshClientUtils.extractRemotePathFrom(targetUrl);
+        if(hasTools(sourceUrl, "mv")) {
+            if(exec(sourceUrl, "mv -- " + quote(source) + " " + quote(target)) != null)
+                return true;
+        }
+
+        Boolean moved = SshClientUtils.execute(new SFtpClientTemplate(sourceUrl) {
+            @Override
+            public Boolean execute(@NonNull SFTPClient client) throws IOException {
+                client.rename(source, target);
+                return true;
+            }
+        });
+        return moved != null && moved;
+    }
+
+    /**
+     * Size of the file, or of all files in the directory. Falls back to adding up the sizes
+     * listed over SFTP.
+     *
+     * @return size in bytes, 0 if it couldn't be found
+     */
+    public static long size(@NonNull String url) {
+        if(hasTools(url, "du")) {
+            String result = exec(url, "du -b -s -- " + quote(SshClientUtils.extractRemotePathFrom(url)));
+            if(result != null) {
+                try {
+                    // size, followed by a tab and the path
+                    return Long.parseLong(result.split("\\s", 2)[0]);
+                } catch(NumberFormatException e) {
+                    Log.w(TAG, "Unexpected output of du: " + result);
+                }
+            }
+        }
+
+        Long size = SshClientUtils.execute(new SFtpClientTemplate(url) {
+            @Override
+            public Long execute(@NonNull SFTPClient client) throws IOException {
+                return sizeRecursively(client, SshClientUtils.extractRemotePathFrom(url));
+            }
+        });
+        return size != null ? size : 0L;
+    }
+
+    /**
+     * MD5 and SHA-256 sums of the file, in one round trip. There's no fallback, the caller has
+     * to read the file to hash it if this fails.
+     *
+     * @return both sums in hex, or null if the server can't compute them
+     */
+    public static @Nullable String[] hashes(@NonNull String url) {
+        if(!hasTools(url, "md5sum", "sha256sum"))
+            return null;
+
+        // read from stdin, so the name isn't printed; GNU tools escape the line of a name
+        // with a backslash or newline in it, shifting the sum
+        String path = quote(SshClientUtils.extractRemotePathFrom(url));
+        String result = exec(url, "md5sum -b < " + path + " && sha256sum -b < " + path);
+        if(result == null)
+            return null;
+
+        // each line is the sum, followed by whitespace and "-" or "*-"
+        String[] lines = result.trim().split("\n");
+        if(lines.length != 2)
+            return null;
+        return new String[] {lines[0].trim().split("\\s+", 2)[0], lines[1].trim().split("\\s+", 2)[0]};
+    }
+
+    private static boolean hasTools(@NonNull String url, String... tools) {
+        String baseUrl = SshClientUtils.extractBaseUriFrom(url);
+        Set<String> available = sTools.get(baseUrl);
+        if(available == null) {
+            Long failed = sDetectFailures.get(baseUrl);
+            if(failed != null && System.currentTimeMillis() - failed < DETECT_RETRY_INTERVAL)
+                return false;
+
+            String result = exec(url, DETECT_COMMAND);
+            if(result == null) {
+                // connection failed, or the account can't run commands; SFTP is used meanwhile
+                sDetectFailures.put(baseUrl, System.currentTimeMillis());
+                return false;
+            }
+            sDetectFailures.remove(baseUrl);
+
+            available = new HashSet<>();
+            for(String tool : result.split("\n")) {
+                if(tool.trim().length() > 0)
+                    available.add(tool.trim());
+            }
+            available = Collections.unmodifiableSet(available);
+            sTools.put(baseUrl, available);
+        }
+
+        for(String tool : tools) {
+            if(!available.contains(tool))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return output of the command, or null if it failed
+     */
+    private static @Nullable String exec(@NonNull String url, @NonNull final String command) {
+        return SshClientUtils.execute(new SshClientSessionTemplate(url) {
+            @Override
+            public String execute(@NonNull Session session) throws IOException {
+                // errors are discarded, nothing reads them and they'd fill the channel's window
+                Session.Command cmd = session.exec("{ " + command + "\n} 2>/dev/null");
+                // nothing is sent to it; servers forcing a SFTP subsystem would wait for it forever
+                cmd.getOutputStream().close();
+                String result = new String(IOUtils.readFully(cmd.getInputStream()).toByteArray());
+                cmd.close();
+
+                Integer exitStatus = cmd.getExitStatus();
+                if(exitStatus == null || exitStatus != 0) {
+                    Log.w(TAG, "Command failed with status " + exitStatus + ": " + command);
+                    return null;
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Quote the path as a single argument of a POSIX shell, whatever characters it has.
+     */
+    private static String quote(@NonNull String path) {
+        return "'" + path.replace("'", "'\\''") + "'";
+    }
+
+    // links are deleted, not what they link to
+    private static void deleteRecursively(SFTPClient client, String path) throws IOException {
+        if(client.lstat(path).getType() != FileMode.Type.DIRECTORY) {
+            client.rm(path);
+            return;
+        }
+
+        for(RemoteResourceInfo info : client.ls(path)) {
+            if(info.isDirectory())
+                deleteRecursively(client, info.getPath());
+            else
+                client.rm(info.getPath());
+        }
+        client.rmdir(path);
+    }
+
+    private static long sizeRecursively(SFTPClient client, String path) throws IOException {
+        FileAttributes attributes = client.lstat(path);
+        if(attributes.getType() != FileMode.Type.DIRECTORY)
+            return attributes.getSize();
+
+        long size = 0;
+        for(RemoteResourceInfo info : client.ls(path)) {
+            size += info.isDirectory() ? sizeRecursively(client, info.getPath())
+                    : info.getAttributes().getSize();
+        }
+        return size;
+    }
+}
@@ -51,6 +51,7 @@ import java.io.StringReader;
 import java.security.KeyPair;
 import java.security.Provider;
 import java.security.Security;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * {@link AsyncTask} to convert given {@link InputStream} into {@link KeyPair} which is requird by
@@ -110,6 +111,15 @@ public class PemToKeyPairTask extends AsyncTask<Void, Void, AsyncTaskResult<KeyP
 
     @Override
     protected AsyncTaskResult<KeyPair> doInBackground(Void... voids) {
+        return convert();
+    }
+
+    /**
+     * Convert the key on the calling thread, without prompting for a passphrase if it's needed.
+     *
+     * @return result holding the {@link KeyPair}, or the exception if no converter could parse it
+     */
+    public AsyncTaskResult<KeyPair> convert() {
         AsyncTaskResult<KeyPair> retval = null;
         for(Provider provider : Security.getProviders())
             Log.d(TAG, "Provider: " + provider.getName());
@@ -140,33 +150,55 @@ public class PemToKeyPairTask extends AsyncTask<Void, Void, AsyncTaskResult<KeyP
     @Override
     protected void onPostExecute(AsyncTaskResult<KeyPair> result) {
         if(result.exception != null) {
-            MaterialDialog.Builder builder = new MaterialDialog.Builder(AppConfig.getInstance().getActivityContext());
-            EditText textfield = new EditText(builder.getContext());
-            textfield.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
-            builder.customView(textfield, false).title(R.string.ssh_key_prompt_passphrase)
-                    .positiveText(R.string.ok)
-                    .onPositive(((dialog, which) -> {
-                        new PemToKeyPairTask(mPemFile, mCallback, textfield.getText().toString()).execute();
-                        dialog.dismiss();
-                })).negativeText(R.string.cancel)
-                    .onNegative(((dialog, which) -> {
-                        dialog.dismiss();
-                        toastOnParseError(result);
-            }));
-
-            builder.show();
+            promptPassphrase(passphrase -> {
+                if(passphrase != null)
+                    new PemToKeyPairTask(mPemFile, mCallback, passphrase).execute();
+                else
+                    toastOnParseError(result);
+            });
         }
         if(mCallback != null) {
             mCallback.onResult(result);
         }
     }
 
+    /**
+     * Ask the user for the passphrase of a key. Must be called on the main thread.
+     *
+     * @param listener called once on the main thread, with null if the prompt was cancelled or
+     *                 dismissed
+     */
+    public static void promptPassphrase(@NonNull PassphraseListener listener) {
+        AtomicBoolean answered = new AtomicBoolean(false);
+        MaterialDialog.Builder builder = new MaterialDialog.Builder(AppConfig.getInstance().getActivityContext());
+        EditText textfield = new EditText(builder.getContext());
+        textfield.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
+        builder.customView(textfield, false).title(R.string.ssh_key_prompt_passphrase)
+                .positiveText(R.string.ok)
+                .onPositive(((dialog, which) -> {
+                    if(answered.compareAndSet(false, true))
+                        listener.onPassphrase(textfield.getText().toString());
+                    dialog.dismiss();
+            })).negativeText(R.string.cancel)
+                .onNegative(((dialog, which) -> dialog.dismiss()))
+                .dismissListener(dialog -> {
+                    if(answered.compareAndSet(false, true))
+                        listener.onPassphrase(null);
+                });
+
+        builder.show();
+    }
+
     private void toastOnParseError(AsyncTaskResult<KeyPair> result){
         Toast.makeText(AppConfig.getInstance().getActivityContext(),
                 String.format(AppConfig.getInstance().getResources().getString(R.string.ssh_pem_key_parse_error),
                         result.exception.getLocalizedMessage()), Toast.LENGTH_LONG).show();
     }
 
+    public interface PassphraseListener {
+        void onPassphrase(String passphrase);
+    }
+
     private interface PemToKeyPairConverter {
         KeyPair convert(String source);
     }
@@ -47,6 +47,7 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 
 import static com.amaze.filemanager.filesystem.ssh.SshConnectionPool.SSH_CONNECT_TIMEOUT;
+import static com.amaze.filemanager.filesystem.ssh.SshConnectionPool.SSH_KEEP_ALIVE_INTERVAL;
 
 /**
  * {@link AsyncTask} for authenticating with SSH server to verify if parameters are correct.
@@ -96,10 +97,21 @@ public class SshAuthenticationTask extends AsyncTask<Void, Void, AsyncTaskResult
 
     @Override
     protected AsyncTaskResult<SSHClient> doInBackground(Void... voids) {
+        return authenticate();
+    }
+
+    /**
+     * Connect and authenticate on the calling thread.
+     *
+     * @return result holding the authenticated {@link SSHClient}, or the exception it failed with
+     */
+    public AsyncTaskResult<SSHClient> authenticate() {
 
         final SSHClient sshClient = new SSHClient(new CustomSshJConfig());
         sshClient.addHostKeyVerifier(mHostKey);
         sshClient.setConnectTimeout(SSH_CONNECT_TIMEOUT);
+        // has to be set before connecting, for the keep-alive thread to start
+        sshClient.getConnection().getKeepAlive().setKeepAliveInterval(SSH_KEEP_ALIVE_INTERVAL);
 
         try {
             sshClient.connect(mHostname, mPort);
@@ -140,10 +152,15 @@ public class SshAuthenticationTask extends AsyncTask<Void, Void, AsyncTaskResult
         }
     }
 
-    //If authentication failed, use Toast to notify user.
     @Override
     protected void onPostExecute(AsyncTaskResult<SSHClient> result) {
+        notifyFailure(result);
+    }
 
+    /**
+     * If authentication failed, use Toast to notify user. Must be called on the main thread.
+     */
+    public void notifyFailure(AsyncTaskResult<SSHClient> result) {
         if(result.exception != null) {
             if(SocketException.class.isAssignableFrom(result.exception.getClass())
                     || SocketTimeoutException.class.isAssignableFrom(result.exception.getClass())) {
@@ -83,6 +83,7 @@ import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.filesystem.MediaStoreHack;
 import com.amaze.filemanager.filesystem.PasteHelper;
+import com.amaze.filemanager.filesystem.smb.SmbListing;
 import com.amaze.filemanager.filesystem.ssh.SshClientUtils;
 import com.amaze.filemanager.fragments.preference_fragments.PreferencesConstants;
 import com.amaze.filemanager.ui.dialogs.GeneralDialogCreation;
@@ -103,6 +104,7 @@ import com.amaze.filemanager.utils.files.CryptUtil;
 import com.amaze.filemanager.utils.files.EncryptDecryptUtils;
 import com.amaze.filemanager.utils.files.FileListSorter;
 import com.amaze.filemanager.utils.files.FileUtils;
+import com.amaze.filemanager.utils.files.FilesListCache;
 import com.amaze.filemanager.utils.provider.UtilitiesProviderInterface;
 import com.amaze.filemanager.utils.theme.AppTheme;
 
@@ -113,7 +115,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
-import jcifs.smb.SmbException;
 import jcifs.smb.SmbFile;
 
 public class MainFragment extends android.support.v4.app.Fragment implements BottomBarButtonPath {
@@ -252,7 +253,12 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
 
         mSwipeRefreshLayout = (SwipeRefreshLayout) rootView.findViewById(R.id.activity_main_swipe_refresh_layout);
 
-        mSwipeRefreshLayout.setOnRefreshListener(() -> loadlist((CURRENT_PATH), false, openMode));
+        mSwipeRefreshLayout.setOnRefreshListener(() -> {
+            filesListCache.invalidate(CURRENT_PATH);
+            // asked to list again, not to sort what was listed
+            if (openMode == OpenMode.SMB) SmbListing.getInstance().invalidate(CURRENT_PATH);
+            loadlist((CURRENT_PATH), false, openMode);
+        });
 
         SHOW_THUMBS = sharedPref.getBoolean(PreferencesConstants.PREFERENCE_SHOW_THUMB, true);
         //String itemsstring = res.getString(R.string.items);// TODO: 23/5/2017 use or delete
@@ -651,6 +657,15 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
                             utilsProvider.getAppTheme());
                     mode.finish();
                     return true;
+                case R.id.hashes:
+                    ArrayList<HybridFileParcelable> hashedFiles = new ArrayList<>();
+                    for (LayoutElementParcelable e : checkedItems) {
+                        hashedFiles.add(e.generateBaseFile());
+                    }
+                    GeneralDialogCreation.showHashesDialog(hashedFiles, (ThemedActivity) getActivity(),
+                            utilsProvider.getAppTheme());
+                    mode.finish();
+                    return true;
                 case R.id.delete:
                     GeneralDialogCreation.deleteFilesDialog(getContext(), LIST_ELEMENTS,
                             getMainActivity(), checkedItems, utilsProvider.getAppTheme());
@@ -772,6 +787,10 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
 
         @Override
         public void onReceive(Context context, Intent intent) {
+            // the changed directory may not be the one shown, and is listed again once opened
+            String changedPath = intent.getStringExtra(MainActivity.KEY_INTENT_LOAD_LIST_FILE);
+            if (changedPath != null) filesListCache.invalidateFile(changedPath);
+
             // load the list on a load broadcast
             switch (openMode) {
                 case ROOT:
@@ -890,12 +909,15 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
                     loadlist(path, false, openMode);
                 } else if (e.desc.endsWith(CryptUtil.CRYPT_EXTENSION)) {
                     // decrypt the file
-                    isEncryptOpen = true;
-
-                    encryptBaseFile = new HybridFileParcelable(getActivity().getExternalCacheDir().getPath()
-                            + "/"
-                            + e.generateBaseFile().getName().replace(CryptUtil.CRYPT_EXTENSION, ""));
-                    encryptBaseFiles.add(encryptBaseFile);
+                    if (!EncryptDecryptUtils.canOpenDecrypted(openMode, e.desc)) {
+                        // it's decrypted to cache, and opened from there once done
+                        isEncryptOpen = true;
+
+                        encryptBaseFile = new HybridFileParcelable(getActivity().getExternalCacheDir().getPath()
+                                + "/"
+                                + e.generateBaseFile().getName().replace(CryptUtil.CRYPT_EXTENSION, ""));
+                        encryptBaseFiles.add(encryptBaseFile);
+                    }
 
                     EncryptDecryptUtils.decryptFile(getContext(), getMainActivity(), ma, openMode,
                             e.generateBaseFile(), getActivity().getExternalCacheDir().getPath(),
@@ -1007,6 +1029,10 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
     }
 
     LoadFilesListTask loadFilesListTask;
+    private FilesListCache filesListCache = FilesListCache.getInstance();
+
+    // whether part of the directory being loaded is already shown, while the rest is still being read
+    private boolean isListPartiallyLoaded = false;
 
     /**
      * This loads a path into the MainFragment.
@@ -1023,11 +1049,30 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
             loadFilesListTask.cancel(true);
         }
 
+        isListPartiallyLoaded = false;
+
+        FilesListCache.Entry cached = filesListCache.get(openMode, path, SHOW_HIDDEN, dsort, sortby, asc);
+        if (cached != null) {
+            // visited recently and nothing changed since, no need to read it again
+            folder_count = cached.folderCount;
+            file_count = cached.fileCount;
+            setListElements(cached.elements, back, path, cached.openMode, false, checkPathIsGrid(path));
+            mSwipeRefreshLayout.setRefreshing(false);
+            return;
+        }
+
         loadFilesListTask = new LoadFilesListTask(ma.getActivity(), path, ma, openMode, (data) -> {
+            // show the first entries of a large directory while the rest are still being read
+            setListElements(data.second, false, path, data.first, false, checkPathIsGrid(path));
+            isListPartiallyLoaded = true;
+        }, (data) -> {
             if (data != null && data.second != null) {
+                filesListCache.put(data.first, path, SHOW_HIDDEN, dsort, sortby, asc, data.second,
+                        folder_count, file_count);
                 setListElements(data.second, back, path, data.first, false, checkPathIsGrid(path));
                 mSwipeRefreshLayout.setRefreshing(false);
             }
+            isListPartiallyLoaded = false;
         });
         loadFilesListTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
@@ -1037,6 +1082,8 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
         nofilesview = (SwipeRefreshLayout) rootView.findViewById(R.id.nofilelayout);
         nofilesview.setColorSchemeColors(accentColor);
         nofilesview.setOnRefreshListener(() -> {
+            filesListCache.invalidate(CURRENT_PATH);
+            if (openMode == OpenMode.SMB) SmbListing.getInstance().invalidate(CURRENT_PATH);
             loadlist((CURRENT_PATH), false, openMode);
             nofilesview.setRefreshing(false);
         });
@@ -1145,11 +1192,16 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
 
             stopAnims = true;
 
-            if (openMode != OpenMode.CUSTOM) {
+            if (openMode != OpenMode.CUSTOM && !isListPartiallyLoaded) {
                 dataUtils.addHistoryFile(CURRENT_PATH);
             }
 
-            listView.setAdapter(adapter);
+            if (isListPartiallyLoaded && listView.getAdapter() == adapter) {
+                // more of the same directory was loaded, don't lose where user has scrolled to
+                adapter.notifyDataSetChanged();
+            } else {
+                listView.setAdapter(adapter);
+            }
 
             if (!addheader) {
                 listView.removeItemDecoration(dividerItemDecoration);
@@ -1418,6 +1470,7 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
 
     public void updateList() {
         computeScroll();
+        filesListCache.invalidate(CURRENT_PATH);
         loadlist((CURRENT_PATH), true, openMode);
     }
 
@@ -1482,43 +1535,43 @@ public class MainFragment extends android.support.v4.app.Fragment implements Bot
         }
     }
 
-    public ArrayList<LayoutElementParcelable> addToSmb(SmbFile[] mFile, String path) throws SmbException {
-        ArrayList<LayoutElementParcelable> a = new ArrayList<>();
+    /**
+     * @return element of an entry of an SMB listing, null if it isn't shown
+     */
+    public LayoutElementParcelable addToSmb(SmbListing.Entry aMFile, String path) {
         if (searchHelper.size() > 500) searchHelper.clear();
-        for (SmbFile aMFile : mFile) {
-            if (dataUtils.isFileHidden(aMFile.getPath()))
-                continue;
-            String name = aMFile.getName();
-            name = (aMFile.isDirectory() && name.endsWith("/")) ? name.substring(0, name.length() - 1) : name;
-            if (path.equals(smbPath)) {
-                if (name.endsWith("$")) continue;
-            }
-            if (aMFile.isDirectory()) {
-                folder_count++;
+        if (dataUtils.isFileHidden(aMFile.path))
+            return null;
+        String name = aMFile.name;
+        name = (aMFile.isDirectory && name.endsWith("/")) ? name.substring(0, name.length() - 1) : name;
+        if (path.equals(smbPath)) {
+            if (name.endsWith("$")) return null;
+        }
+        if (aMFile.isDirectory) {
+            folder_count++;
 
-                LayoutElementParcelable layoutElement = new LayoutElementParcelable(name, aMFile.getPath(),
-                        "", "", "", 0, false,
-                        aMFile.lastModified() + "", true, SHOW_THUMBS);
+            LayoutElementParcelable layoutElement = new LayoutElementParcelable(name, aMFile.path,
+                    "", "", "", 0, false,
+                    aMFile.lastModified + "", true, SHOW_THUMBS);
 
+            layoutElement.setMode(OpenMode.SMB);
+            searchHelper.add(layoutElement.generateBaseFile());
+            return layoutElement;
+        } else {
+            file_count++;
+            try {
+                LayoutElementParcelable layoutElement = new LayoutElementParcelable(name,
+                        aMFile.path, "", "", Formatter.formatFileSize(getContext(),
+                        aMFile.length), aMFile.length, false, aMFile.lastModified + "",
+                        false, SHOW_THUMBS);
                 layoutElement.setMode(OpenMode.SMB);
                 searchHelper.add(layoutElement.generateBaseFile());
-                a.add(layoutElement);
-            } else {
-                file_count++;
-                try {
-                    LayoutElementParcelable layoutElement = new LayoutElementParcelable(name,
-                            aMFile.getPath(), "", "", Formatter.formatFileSize(getContext(),
-                            aMFile.length()), aMFile.length(), false, aMFile.lastModified() + "",
-                            false, SHOW_THUMBS);
-                    layoutElement.setMode(OpenMode.SMB);
-                    searchHelper.add(layoutElement.generateBaseFile());
-                    a.add(layoutElement);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                return layoutElement;
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
             }
         }
-        return a;
     }
 
     // method to add search result entry to the LIST_ELEMENT arrayList
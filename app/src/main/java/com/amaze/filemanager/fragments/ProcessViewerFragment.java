@@ -49,6 +49,7 @@ import com.amaze.filemanager.asynchronous.services.EncryptService;
 import com.amaze.filemanager.asynchronous.services.ExtractService;
 import com.amaze.filemanager.asynchronous.services.ZipService;
 import com.amaze.filemanager.utils.CopyDataParcelable;
+import com.amaze.filemanager.utils.ProgressHandler;
 import com.amaze.filemanager.utils.Utils;
 import com.amaze.filemanager.utils.color.ColorUsage;
 import com.amaze.filemanager.utils.files.FileUtils;
@@ -361,7 +362,7 @@ public class ProcessViewerFragment extends Fragment {
             Spanned speedSpan = Html.fromHtml(getResources().getString(R.string.current_speed)
                     + ": <font color='" + accentColor + "'><i>"
                     + Formatter.formatFileSize(getContext(), dataPackage.speedRaw)
-                    + "/s</font></i>");
+                    + "/s</font></i>" + getTimeLeftText(dataPackage));
             mProgressSpeedText.setText(speedSpan);
 
             Spanned timerSpan = Html.fromHtml(getResources().getString(R.string.service_timer)
@@ -373,6 +374,15 @@ public class ProcessViewerFragment extends Fragment {
         }
     }
 
+    /**
+     * @return time left for the operation at it's current speed, to follow the speed
+     */
+    private String getTimeLeftText(CopyDataParcelable dataPackage) {
+        String timeLeft = ProgressHandler.getTimeLeftText(getContext(), ProgressHandler.getTimeLeft(
+                dataPackage.totalSize, dataPackage.byteProgress, dataPackage.speedRaw));
+        return timeLeft != null ? ", " + timeLeft : "";
+    }
+
     /**
      * Formats input to plain mm:ss format
      * @param timer
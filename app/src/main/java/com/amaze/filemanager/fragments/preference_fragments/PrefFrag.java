@@ -53,6 +53,7 @@ import com.amaze.filemanager.utils.theme.AppTheme;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.List;
+import java.util.zip.Deflater;
 
 import static com.amaze.filemanager.R.string.feedback;
 
@@ -63,7 +64,7 @@ public class PrefFrag extends PreferenceFragment implements Preference.OnPrefere
             PreferencesConstants.PREFERENCE_SHOW_HIDDENFILES, PreferencesConstants.FRAGMENT_FEEDBACK,
             PreferencesConstants.FRAGMENT_ABOUT, PreferencesConstants.FRAGMENT_COLORS,
             PreferencesConstants.FRAGMENT_FOLDERS, PreferencesConstants.FRAGMENT_QUICKACCESSES,
-            PreferencesConstants.FRAGMENT_ADVANCED_SEARCH};
+            PreferencesConstants.FRAGMENT_ADVANCED_SEARCH, PreferencesConstants.PREFERENCE_ZIP_COMPRESSION_LEVEL};
 
     private UtilitiesProviderInterface utilsProvider;
     private SharedPreferences sharedPref;
@@ -171,6 +172,24 @@ public class PrefFrag extends PreferenceFragment implements Preference.OnPrefere
                 });
                 builder.build().show();
                 return true;
+            case PreferencesConstants.PREFERENCE_ZIP_COMPRESSION_LEVEL:
+                final int[] levels = getResources().getIntArray(R.array.compression_level_values);
+                int level = Integer.parseInt(sharedPref.getString(PreferencesConstants.PREFERENCE_ZIP_COMPRESSION_LEVEL,
+                        "" + Deflater.DEFAULT_COMPRESSION));
+                current = 0;
+                for (int i = 0; i < levels.length; i++) {
+                    if (levels[i] == level) current = i;
+                }
+                builder = new MaterialDialog.Builder(getActivity());
+                builder.theme(utilsProvider.getAppTheme().getMaterialDialogTheme());
+                builder.title(R.string.zip_compression_level);
+                builder.items(R.array.compression_levels).itemsCallbackSingleChoice(current, (dialog, view, which, text) -> {
+                    sharedPref.edit().putString(PreferencesConstants.PREFERENCE_ZIP_COMPRESSION_LEVEL, "" + levels[which]).apply();
+                    dialog.dismiss();
+                    return true;
+                });
+                builder.build().show();
+                return true;
             case PreferencesConstants.FRAGMENT_THEME:
                 sort = getResources().getStringArray(R.array.theme);
                 current = Integer.parseInt(sharedPref.getString(PreferencesConstants.FRAGMENT_THEME, "0"));
@@ -34,6 +34,7 @@ public class PreferencesConstants {
     public static final String PREFERENCE_CHANGEPATHS = "typeablepaths";
     public static final String PREFERENCE_GRID_COLUMNS = "columns";
     public static final String PREFERENCE_SHOW_THUMB = "showThumbs";
+    public static final String PREFERENCE_ZIP_COMPRESSION_LEVEL = "zip_compression_level";
 
     public static final String PREFERENCE_CRYPT_MASTER_PASSWORD = "crypt_password";
     public static final String PREFERENCE_CRYPT_FINGERPRINT = "crypt_fingerprint";
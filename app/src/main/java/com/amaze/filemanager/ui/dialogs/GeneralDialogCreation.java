@@ -34,12 +34,14 @@ import com.amaze.filemanager.activities.superclasses.ThemedActivity;
 import com.amaze.filemanager.adapters.HiddenAdapter;
 import com.amaze.filemanager.adapters.data.LayoutElementParcelable;
 import com.amaze.filemanager.asynchronous.asynctasks.CountItemsOrAndSizeTask;
+import com.amaze.filemanager.asynchronous.asynctasks.GenerateBatchHashesTask;
 import com.amaze.filemanager.asynchronous.asynctasks.GenerateHashesTask;
 import com.amaze.filemanager.asynchronous.asynctasks.LoadFolderSpaceDataTask;
 import com.amaze.filemanager.exceptions.ShellNotRunningException;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.filesystem.RootHelper;
+import com.amaze.filemanager.filesystem.compressed.CompressedHelper;
 import com.amaze.filemanager.fragments.AppsListFragment;
 import com.amaze.filemanager.fragments.MainFragment;
 import com.amaze.filemanager.fragments.preference_fragments.PreferencesConstants;
@@ -311,6 +313,37 @@ public class GeneralDialogCreation {
         showPropertiesDialog(f, null, activity, false, appTheme, false, true);
     }
 
+    /**
+     * Shows the checksums of several files, as they are computed
+     */
+    public static void showHashesDialog(final List<HybridFileParcelable> files, ThemedActivity activity,
+                                        AppTheme appTheme) {
+        final Context c = activity.getApplicationContext();
+        int accentColor = activity.getColorPreference().getColor(ColorUsage.ACCENT);
+        final GenerateBatchHashesTask[] task = new GenerateBatchHashesTask[1];
+
+        MaterialDialog dialog = new MaterialDialog.Builder(activity)
+                .title(R.string.checksums)
+                .theme(appTheme.getMaterialDialogTheme())
+                .content(R.string.calculating)
+                .positiveText(R.string.copy)
+                .negativeText(R.string.cancel)
+                .positiveColor(accentColor)
+                .negativeColor(accentColor)
+                .onPositive((materialDialog, dialogAction) -> {
+                    FileUtils.copyToClipboard(c, materialDialog.getContentView().getText().toString());
+                    Toast.makeText(c, c.getString(R.string.checksums) + " " +
+                            c.getString(R.string.properties_copied_clipboard), Toast.LENGTH_SHORT).show();
+                })
+                .dismissListener(dialogInterface -> task[0].cancel(true))
+                .build();
+        dialog.getActionButton(DialogAction.POSITIVE).setEnabled(false);
+        dialog.show();
+
+        task[0] = new GenerateBatchHashesTask(c, files, dialog);
+        task[0].executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
     private static void showPropertiesDialog(final HybridFileParcelable baseFile, final String permissions,
                                              ThemedActivity base, boolean isRoot, AppTheme appTheme,
                                              boolean showPermissions, boolean forStorage) {
@@ -748,7 +781,7 @@ public class GeneralDialogCreation {
         if (m.getAppTheme().equals(AppTheme.DARK) || m.getAppTheme().equals(AppTheme.BLACK)) mat.theme(Theme.DARK);
         MaterialDialog b = mat.build();
 
-        if (!f.getName().toLowerCase().endsWith(".rar") && !f.getName().toLowerCase().endsWith(".jar") && !f.getName().toLowerCase().endsWith(".apk") && !f.getName().toLowerCase().endsWith(".zip"))
+        if (!CompressedHelper.isFileExtractable(f.getPath()))
             b.getActionButton(DialogAction.NEGATIVE).setEnabled(false);
         b.show();
     }
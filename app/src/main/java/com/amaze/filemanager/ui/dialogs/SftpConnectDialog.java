@@ -321,6 +321,8 @@ public class SftpConnectDialog extends DialogFragment {
                         hostKeyFingerprint, username, password, selectedParsedKeyPair).execute().get();
                 SSHClient result = taskResult.result;
                 if(result != null) {
+                    // only checking the setup, browsing connects through SshConnectionPool
+                    SshClientUtils.tryDisconnect(result);
 
                     if(DataUtils.getInstance().containsServer(path) == -1) {
                         DataUtils.getInstance().addServer(new String[]{connectionName, path});
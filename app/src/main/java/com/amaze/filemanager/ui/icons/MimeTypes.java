@@ -40,7 +40,9 @@ package com.amaze.filemanager.ui.icons;
 import android.webkit.MimeTypeMap;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.regex.Pattern;
 
@@ -51,6 +53,14 @@ public final class MimeTypes {
     // construct a with an approximation of the capacity
     private static final HashMap<String, String> MIME_TYPES = new HashMap<>(1 + (int)(66 / 0.75));
 
+    // formats which compress their content themselves
+    private static final HashSet<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "zip", "apk", "jar", "rar", "7z", "gz", "tgz", "bz2", "tbz", "xz", "txz", "lzma",
+            "jpg", "jpeg", "png", "gif", "webp", "heic",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac", "wma", "amr",
+            "mp4", "m4v", "mkv", "webm", "3gp", "avi", "mov", "wmv", "flv",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp", "epub"));
+
     static {
 
 
@@ -164,6 +174,17 @@ public final class MimeTypes {
         return type;
     }
 
+    /**
+     * Whether the format of a file already compresses it's content, so that compressing it
+     * again would gain close to nothing
+     */
+    public static boolean isCompressed(File file) {
+        if (COMPRESSED_EXTENSIONS.contains(getExtension(file.getName()))) return true;
+
+        String type = getMimeType(file);
+        return type != null && type.startsWith("video/");
+    }
+
     public static boolean mimeTypeMatch(String mime, String input) {
         return Pattern.matches(mime.replace("*", ".*"), input);
     }
@@ -2,6 +2,7 @@ package com.amaze.filemanager.utils;
 
 import com.amaze.filemanager.adapters.data.DrawerItem;
 import com.amaze.filemanager.utils.application.AppConfig;
+import com.amaze.filemanager.utils.files.FilesListCache;
 import com.cloudrail.si.interfaces.CloudStorage;
 import com.cloudrail.si.services.Box;
 import com.cloudrail.si.services.Dropbox;
@@ -232,6 +233,8 @@ public class DataUtils {
 
             hiddenfiles.put(i, VoidValue.SINGLETON);
         }
+        // cached listings may still show the file
+        FilesListCache.getInstance().clear();
         if (dataChangeListener != null) {
             AppConfig.runInBackground(() -> dataChangeListener.onHiddenFileAdded(i));
         }
@@ -243,6 +246,7 @@ public class DataUtils {
 
             hiddenfiles.remove(i);
         }
+        FilesListCache.getInstance().clear();
         if (dataChangeListener != null) {
             AppConfig.runInBackground(() -> dataChangeListener.onHiddenFileRemoved(i));
         }
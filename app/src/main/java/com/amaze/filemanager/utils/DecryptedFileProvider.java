@@ -0,0 +1,275 @@
+package com.amaze.filemanager.utils;
+
+import android.annotation.TargetApi;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.os.ProxyFileDescriptorCallback;
+import android.os.storage.StorageManager;
+import android.provider.OpenableColumns;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.util.Log;
+
+import com.amaze.filemanager.ui.icons.MimeTypes;
+import com.amaze.filemanager.utils.files.CryptFormat;
+import com.amaze.filemanager.utils.files.CryptUtil;
+import com.amaze.filemanager.utils.files.GenericCopyUtil;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * Serves the plain content of encrypted files on local storage to the app viewing them, so that
+ * opening an encrypted file doesn't need a decrypted copy in cache.
+ *
+ * Files in the chunked format of {@link CryptFormat} are served through a proxy file descriptor
+ * on Android O and later, only the chunks the viewer reads are decrypted, and it can seek.
+ * Otherwise the file is decrypted as a stream into a pipe, which viewers can only read in order.
+ *
+ * Provider isn't exported, viewers only get to read the files they're granted a uri of, see
+ * {@link #getUri(String)}. Password of the file is checked by the caller before that.
+ */
+public class DecryptedFileProvider extends ContentProvider {
+
+    public static final String PROVIDER_NAME = "com.amaze.filemanager.DECRYPT_PROVIDER";
+
+    private static final String TAG = "DecryptedFileProvider";
+
+    private static final String[] COLUMNS = {OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+
+    // proxy file descriptor callbacks are run on this thread
+    private static Handler proxyHandler;
+
+    /**
+     * @param path path of an encrypted file on local storage
+     * @return uri to read the plain content of the file from
+     */
+    public static Uri getUri(String path) {
+        return new Uri.Builder().scheme("content").authority(PROVIDER_NAME).path(path).build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        String type = MimeTypes.getMimeType(new File(getPlainName(uri)));
+        return type != null ? type : MimeTypes.ALL_MIME_TYPES;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        if (projection == null) projection = COLUMNS;
+
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                values[i] = getPlainName(uri);
+            } else if (OpenableColumns.SIZE.equals(projection[i])) {
+                // only known without decrypting for chunked files
+                values[i] = getPlainLength(getFile(uri));
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) throw new FileNotFoundException("Encrypted files are read only");
+
+        File file = getFile(uri);
+        if (!file.isFile()) throw new FileNotFoundException(file.getPath());
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            ParcelFileDescriptor descriptor = openProxy(file);
+            if (descriptor != null) return descriptor;
+        }
+        return openPipe(file);
+    }
+
+    /**
+     * @return descriptor reading decrypted chunks on demand, or null if the file isn't chunked
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    private ParcelFileDescriptor openProxy(File file) throws FileNotFoundException {
+        final FileInputStream inputStream = new FileInputStream(file);
+        final CryptFormat.ChunkReader reader;
+        try {
+            reader = new CryptFormat.ChunkReader(inputStream.getChannel(),
+                    CryptUtil.getChunkCipherFactory(getContext()));
+        } catch (IOException | GeneralSecurityException e) {
+            // a file of version 1, or one we can't decrypt; the pipe will tell
+            closeQuietly(inputStream);
+            return null;
+        }
+
+        StorageManager storageManager = (StorageManager) getContext().getSystemService(Context.STORAGE_SERVICE);
+        try {
+            return storageManager.openProxyFileDescriptor(ParcelFileDescriptor.MODE_READ_ONLY,
+                    new ProxyFileDescriptorCallback() {
+                        @Override
+                        public long onGetSize() {
+                            return reader.getLength();
+                        }
+
+                        @Override
+                        public int onRead(long offset, int size, byte[] data) throws ErrnoException {
+                            try {
+                                return Math.max(reader.read(offset, data, 0, size), 0);
+                            } catch (IOException | GeneralSecurityException e) {
+                                Log.e(TAG, "Failed to decrypt " + file.getPath(), e);
+                                throw new ErrnoException("onRead", OsConstants.EIO);
+                            }
+                        }
+
+                        @Override
+                        public void onRelease() {
+                            closeQuietly(inputStream);
+                        }
+                    }, getProxyHandler());
+        } catch (IOException e) {
+            closeQuietly(inputStream);
+            throw new FileNotFoundException(e.getMessage());
+        }
+    }
+
+    /**
+     * @return read end of a pipe, into which the file is decrypted from start to end. Where the
+     * pipe is reliable a failure reaches the reader as an error instead of a clean end of file
+     */
+    private ParcelFileDescriptor openPipe(final File file) throws FileNotFoundException {
+        final boolean reliable = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = reliable ? ParcelFileDescriptor.createReliablePipe() : ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException(e.getMessage());
+        }
+
+        final Context context = getContext();
+        new Thread(() -> {
+            // decrypt() closes the stream it's given, even when failing, so the descriptor
+            // is kept open under it and closed here once the outcome is known
+            OutputStream outputStream = new FileOutputStream(pipe[1].getFileDescriptor()) {
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            BufferedInputStream inputStream = null;
+            try {
+                inputStream = new BufferedInputStream(new FileInputStream(file),
+                        GenericCopyUtil.DEFAULT_BUFFER_SIZE);
+                CryptUtil.decrypt(context, inputStream, outputStream, null);
+                pipe[1].close();
+            } catch (IOException | GeneralSecurityException e) {
+                // viewer closing the pipe early ends up here too
+                Log.w(TAG, "Stopped decrypting " + file.getPath(), e);
+                // the header is read before decrypt() takes care of closing the input
+                closeQuietly(inputStream);
+                closeWithError(pipe[1], reliable, e);
+            }
+        }, "decrypt_pipe").start();
+
+        return pipe[0];
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void closeWithError(ParcelFileDescriptor descriptor, boolean reliable, Exception e) {
+        try {
+            if (reliable) {
+                descriptor.closeWithError(e.getMessage() != null ? e.getMessage() : e.toString());
+            } else {
+                descriptor.close();
+            }
+        } catch (IOException ignored) {
+            // the reader is gone already
+        }
+    }
+
+    private static synchronized Handler getProxyHandler() {
+        if (proxyHandler == null) {
+            HandlerThread thread = new HandlerThread("decrypt_proxy");
+            thread.start();
+            proxyHandler = new Handler(thread.getLooper());
+        }
+        return proxyHandler;
+    }
+
+    private static File getFile(Uri uri) {
+        return new File(uri.getPath());
+    }
+
+    private static String getPlainName(Uri uri) {
+        String name = uri.getLastPathSegment();
+        if (name == null) return "";
+        return name.endsWith(CryptUtil.CRYPT_EXTENSION)
+                ? name.substring(0, name.length() - CryptUtil.CRYPT_EXTENSION.length()) : name;
+    }
+
+    private Long getPlainLength(File file) {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            return new CryptFormat.ChunkReader(inputStream.getChannel(), (mode, nonce) -> {
+                throw new GeneralSecurityException("Not decrypting");
+            }).getLength();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing to do about it
+        }
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("Encrypted files are read only");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Encrypted files are read only");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Encrypted files are read only");
+    }
+}
@@ -1,7 +1,13 @@
 package com.amaze.filemanager.utils;
 
+import android.content.Context;
+import android.text.format.DateUtils;
+
+import com.amaze.filemanager.R;
 import com.amaze.filemanager.fragments.ProcessViewerFragment;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Created by arpitkh96 on 18/8/16.
  *
@@ -16,9 +22,21 @@ public class ProgressHandler {
     // total number of bytes to be processed
     long totalSize = 0L;
 
-    // total bytes written in process so far
+    // total bytes written in process so far, as last published
     long writtenSize = 0L;
 
+    // bytes processed by worker threads of this operation, published periodically by ServiceWatcherUtil
+    private final AtomicLong position = new AtomicLong(0L);
+
+    // number of recent publishes over which the speed is averaged
+    private static final int SPEED_WINDOW = 5;
+
+    // positions and times of recent publishes, a ring buffer of SPEED_WINDOW samples
+    private final long[] windowPositions = new long[SPEED_WINDOW];
+    private final long[] windowTimes = new long[SPEED_WINDOW];
+    private int windowIndex = 0;
+    private int windowCount = 0;
+
     // total number of source files to be processed
     int sourceFiles = 0;
 
@@ -28,7 +46,7 @@ public class ProgressHandler {
     // file name currently being processed
     String fileName;
 
-    // current processing speed (bytes processed in 1000ms time)
+    // current processing speed (bytes processed per second, averaged over recent publishes)
     int speedRaw = 0;
 
     // boolean manages the lifecycle of service and whether it should be canceled
@@ -46,6 +64,23 @@ public class ProgressHandler {
         this.totalSize = totalSize;
     }
 
+    /**
+     * Adds bytes processed by a worker to this operation's position.
+     * Safe to be called from any number of threads at once
+     *
+     * @param bytes number of bytes just processed
+     */
+    public void addProgress(long bytes) {
+        position.addAndGet(bytes);
+    }
+
+    /**
+     * @return bytes processed so far, including the ones not yet published
+     */
+    public long getPosition() {
+        return position.get();
+    }
+
     /**
      * publish progress after calculating the write length
      *
@@ -53,13 +88,49 @@ public class ProgressHandler {
      */
     public synchronized void addWrittenLength(long newPosition) {
 
-        this.speedRaw = (int) (newPosition - writtenSize);
+        long now = System.currentTimeMillis();
+        int oldest = windowCount < SPEED_WINDOW ? 0 : windowIndex;
+        if (windowCount > 0 && now > windowTimes[oldest]) {
+            this.speedRaw = (int) ((newPosition - windowPositions[oldest]) * 1000
+                    / (now - windowTimes[oldest]));
+        } else {
+            this.speedRaw = (int) (newPosition - writtenSize);
+        }
+
+        windowPositions[windowIndex] = newPosition;
+        windowTimes[windowIndex] = now;
+        windowIndex = (windowIndex + 1) % SPEED_WINDOW;
+        if (windowCount < SPEED_WINDOW) windowCount++;
+
         this.writtenSize = newPosition;
 
         progressListener.onProgressed(fileName, sourceFiles, sourceFilesProcessed,
                 totalSize, writtenSize, speedRaw);
     }
 
+    /**
+     * @return estimated seconds left for the operation at current speed, -1 if unknown
+     */
+    public synchronized long getTimeLeft() {
+        return getTimeLeft(totalSize, writtenSize, speedRaw);
+    }
+
+    /**
+     * @return estimated seconds left to process totalSize bytes at speed, -1 if unknown
+     */
+    public static long getTimeLeft(long totalSize, long writtenSize, long speed) {
+        if (speed <= 0) return -1;
+        return Math.max(0, totalSize - writtenSize) / speed;
+    }
+
+    /**
+     * @return time left as shown along the progress, or null if it's unknown
+     */
+    public static String getTimeLeftText(Context context, long timeLeft) {
+        if (timeLeft < 0) return null;
+        return context.getString(R.string.time_left, DateUtils.formatElapsedTime(timeLeft));
+    }
+
     public synchronized void setFileName(String fileName) {
         this.fileName = fileName;
     }
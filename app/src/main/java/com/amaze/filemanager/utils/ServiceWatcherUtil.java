@@ -4,53 +4,86 @@ package com.amaze.filemanager.utils;
  * Created by vishal on 4/1/17.
  *
  * Helper class providing helper methods to manage Service startup and it's progress
- * Be advised - this class can only handle progress with one object at a time. Hence, class also provides
- * convenience methods to serialize the service startup.
+ * Each instance watches over progress of one operation, which is kept by it's {@link ProgressHandler},
+ * so several services can publish their progress at once.
+ * Class also provides convenience methods to queue the service startup, so that a service
+ * runs one operation at a time, and a storage device isn't worked on by two operations at once.
  */
 
 import android.app.NotificationManager;
+import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.support.annotation.NonNull;
 import android.support.v4.app.NotificationCompat;
+import android.util.Log;
 
 import com.amaze.filemanager.R;
+import com.amaze.filemanager.asynchronous.services.CopyService;
+import com.amaze.filemanager.asynchronous.services.EncryptService;
+import com.amaze.filemanager.asynchronous.services.ExtractService;
+import com.amaze.filemanager.asynchronous.services.ZipService;
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 
 public class ServiceWatcherUtil {
 
+    private static final String TAG = "ServiceWatcherUtil";
+
     private Handler handler;
-    private static HandlerThread handlerThread;
+    private HandlerThread watcherThread;
     private ProgressHandler progressHandler;
     long totalSize;
     private Runnable runnable;
+    private long publishInterval;
 
-    private static ArrayList<Intent> pendingIntents = new ArrayList<>();
+    // operations waiting for their service or device to be free, and the ones started
+    private static final ArrayList<Operation> pendingOperations = new ArrayList<>();
+    private static final ArrayList<Operation> runningOperations = new ArrayList<>();
+    private static long operationCounter = 0;
 
-    // position of byte in total byte size to be copied
-    public static long POSITION = 0L;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 1;
 
-    private static int HAULT_COUNTER = -1;
+    private int haultCounter = -1;
 
     public static final int ID_NOTIFICATION_WAIT =  9248;
 
+    // default delay between two progress publishes, in millis
+    public static final long DEFAULT_PUBLISH_INTERVAL = 1000;
+
+    // time without progress after which the watcher gives up, in millis
+    private static final long HAULT_TIMEOUT = 10 * DEFAULT_PUBLISH_INTERVAL;
+
     /**
      *
      * @param progressHandler to publish progress after certain delay
      * @param totalSize total size of files to be performed, so we know when to halt the watcher
      */
     public ServiceWatcherUtil(ProgressHandler progressHandler, long totalSize) {
+        this(progressHandler, totalSize, DEFAULT_PUBLISH_INTERVAL);
+    }
+
+    /**
+     * @param progressHandler to publish progress after certain delay
+     * @param totalSize total size of files to be performed, so we know when to halt the watcher
+     * @param publishInterval delay in millis between two progress publishes
+     */
+    public ServiceWatcherUtil(ProgressHandler progressHandler, long totalSize, long publishInterval) {
         this.progressHandler = progressHandler;
         this.totalSize = totalSize;
-        POSITION = 0L;
-        HAULT_COUNTER = -1;
+        this.publishInterval = publishInterval;
 
-        handlerThread = new HandlerThread("service_progress_watcher");
-        handlerThread.start();
-        handler = new Handler(handlerThread.getLooper());
+        watcherThread = new HandlerThread("service_progress_watcher");
+        watcherThread.start();
+        handler = new Handler(watcherThread.getLooper());
     }
 
     /**
@@ -63,22 +96,24 @@ public class ServiceWatcherUtil {
             public void run() {
 
                 // we don't have a file name yet, wait for service to set
-                if (progressHandler.getFileName()==null) handler.postDelayed(this, 1000);
+                if (progressHandler.getFileName()==null) handler.postDelayed(this, publishInterval);
 
-                progressHandler.addWrittenLength(POSITION);
+                long position = progressHandler.getPosition();
+                boolean haulted = position == progressHandler.getWrittenSize();
+                progressHandler.addWrittenLength(position);
 
-                if (POSITION == totalSize || progressHandler.getCancelled()) {
+                if (position == totalSize || progressHandler.getCancelled()) {
                     // process complete, free up resources
                     // we've finished the work or process cancelled
                     handler.removeCallbacks(this);
-                    handlerThread.quit();
+                    watcherThread.quit();
                     return;
                 }
 
-                if (POSITION == progressHandler.getWrittenSize()) {
-                    HAULT_COUNTER++;
+                if (haulted) {
+                    haultCounter++;
 
-                    if (HAULT_COUNTER>10) {
+                    if (haultCounter * publishInterval > HAULT_TIMEOUT) {
                         // we suspect the progress has been haulted for some reason, stop the watcher
 
                         // workaround for decryption when we have a length retreived by
@@ -86,15 +121,17 @@ public class ServiceWatcherUtil {
                         // we passed at the beginning is never reached
                         progressHandler.addWrittenLength(totalSize);
                         handler.removeCallbacks(this);
-                        handlerThread.quit();
+                        watcherThread.quit();
                         return;
                     }
+                } else {
+                    haultCounter = -1;
                 }
-                handler.postDelayed(this, 1000);
+                handler.postDelayed(this, publishInterval);
             }
         };
 
-        handler.postDelayed(runnable, 1000);
+        handler.postDelayed(runnable, publishInterval);
     }
 
     /**
@@ -103,93 +140,170 @@ public class ServiceWatcherUtil {
      * Thus avoids posting any callback after service has stopped.
      */
     public void stopWatch() {
-        if (handlerThread.isAlive()) handler.post(runnable);
+        if (watcherThread.isAlive()) handler.post(runnable);
     }
 
     /**
-     * Convenience method to check whether another service is working in background
-     * If a service is found working (by checking {@link #handlerThread} for it's state)
-     * then we wait for an interval of 5 secs, before checking on it again.
-     *
-     * Be advised - this method is not sure to start a new service, especially when app has been closed
-     * as there are higher chances for android system to GC the thread when it is running low on memory
+     * Convenience method to queue an operation to be run by a service.
+     * Operations are started right away, unless the same service is already busy with another
+     * operation, or another operation is working on the same storage device. Such operations wait
+     * in queue, and are started as soon as the operation blocking them calls
+     * {@link #onServiceFinished(Context, Class)}
      *
      * @param context
      * @param intent
      */
-    public static synchronized void runService(final Context context, final Intent intent) {
-
-        /*if (handlerThread==null || !handlerThread.isAlive()) {
-            // we're not bound, no need to proceed further and waste up resources
-            // start the service directly
-
-            *//**
-             * We can actually end up racing at this point with the {@link HandlerThread} started
-             * in {@link #init(Context)}. If older service has returned, we already have the runnable
-             * waiting to execute in #init, and user is in app, and starts another service, and
-             * as this block executes the {@link android.app.Service#onStartCommand(Intent, int, int)}
-             * we end up with a context switch to 'service_startup_watcher' in #init, it also starts
-             * a new service (as {@link #progressHandler} is not alive yet).
-             * Though chances are very slim, but even if this condition occurs, only the progress will
-             * be flawed, but the actual operation will go fine, due to android's native serial service
-             * execution. #nough' said!
-             *//*
-            context.startService(intent);
-            return;
-        }*/
-
-        if (pendingIntents.size()==0) {
-            init(context);
-        }
-        pendingIntents.add(intent);
+    public static void runService(final Context context, final Intent intent) {
+        runService(context, intent, PRIORITY_NORMAL);
+    }
+
+    /**
+     * @param priority operations with higher priority leave the queue first,
+     *                 eg. {@link #PRIORITY_HIGH} for an operation user is waiting on to open a file
+     * @see #runService(Context, Intent)
+     */
+    public static synchronized void runService(final Context context, final Intent intent, int priority) {
 
+        pendingOperations.add(new Operation(intent, priority, operationCounter++));
+        startPendingOperations(context.getApplicationContext());
     }
 
     /**
-     * Helper method to {@link #runService(Context, Intent)}
-     * Starts the wait watcher thread if not already started.
-     * Halting condition depends on the state of {@link #handlerThread}
-     * @param context
+     * Hands off to the queued operations which were waiting on the given service, or on the
+     * storage device it was working on. Services call this once their operation is over.
+     *
+     * @param service the service which finished it's operation
      */
-    private static synchronized void init(final Context context) {
+    public static synchronized void onServiceFinished(final Context context,
+                                                      final Class<? extends Service> service) {
 
-        final HandlerThread waitingThread = new HandlerThread("service_startup_watcher");
-        waitingThread.start();
-        final Handler handler = new Handler(waitingThread.getLooper());
-        final NotificationManager notificationManager = (NotificationManager)
-                context.getSystemService(Context.NOTIFICATION_SERVICE);
-        final NotificationCompat.Builder mBuilder=new NotificationCompat.Builder(context, NotificationConstants.CHANNEL_NORMAL_ID)
-                .setContentTitle(context.getString(R.string.waiting_title))
-                .setContentText(context.getString(R.string.waiting_content))
-                .setAutoCancel(false)
-                .setSmallIcon(R.drawable.ic_all_inclusive_white_36dp)
-                .setProgress(0, 0, true);
+        for (int i = 0; i < runningOperations.size(); i++) {
+            if (runningOperations.get(i).service.equals(service.getName())) {
+                runningOperations.remove(i);
+                break;
+            }
+        }
+        startPendingOperations(context.getApplicationContext());
+    }
+
+    /**
+     * Starts every queued operation, in the order of priority, whose service and device are free
+     */
+    private static void startPendingOperations(final Context context) {
 
-        NotificationConstants.setMetadata(context, mBuilder);
+        Collections.sort(pendingOperations);
 
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                if (handlerThread==null || !handlerThread.isAlive()) {
-                    // service is been finished, let's start this one
-                    // pop recent intent from pendingIntents
-                    context.startService(pendingIntents.remove(pendingIntents.size()-1));
-
-                    if (pendingIntents.size()==0) {
-                        // we've done all the work, free up resources (if not already killed by system)
-                        notificationManager.cancel(ID_NOTIFICATION_WAIT);
-                        handler.removeCallbacks(this);
-                        waitingThread.quit();
-                        return;
-                    } else {
+        Iterator<Operation> iterator = pendingOperations.iterator();
+        while (iterator.hasNext()) {
+            Operation operation = iterator.next();
 
-                        notificationManager.notify(ID_NOTIFICATION_WAIT, mBuilder.build());
-                    }
+            boolean blocked = false;
+            for (Operation running : runningOperations) {
+                if (running.service.equals(operation.service) || running.device.equals(operation.device)) {
+                    blocked = true;
+                    break;
                 }
-                handler.postDelayed(this, 5000);
             }
-        };
 
-        handler.postDelayed(runnable, 0);
+            if (!blocked) {
+                try {
+                    // from the background on O and above this is refused, the operation then
+                    // stays queued until the next one finishes or is queued
+                    if (context.startService(operation.intent) == null) continue;
+                } catch (IllegalStateException | SecurityException e) {
+                    Log.w(TAG, "Couldn't start " + operation.service, e);
+                    continue;
+                }
+                iterator.remove();
+                runningOperations.add(operation);
+            }
+        }
+
+        NotificationManager notificationManager = (NotificationManager)
+                context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (pendingOperations.size() == 0) {
+            // we've done all the work, nothing's waiting
+            notificationManager.cancel(ID_NOTIFICATION_WAIT);
+        } else {
+            NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(context, NotificationConstants.CHANNEL_NORMAL_ID)
+                    .setContentTitle(context.getString(R.string.waiting_title))
+                    .setContentText(context.getString(R.string.waiting_content))
+                    .setAutoCancel(false)
+                    .setSmallIcon(R.drawable.ic_all_inclusive_white_36dp)
+                    .setProgress(0, 0, true);
+
+            NotificationConstants.setMetadata(context, mBuilder);
+            notificationManager.notify(ID_NOTIFICATION_WAIT, mBuilder.build());
+        }
+    }
+
+    /**
+     * Finds the path an operation is going to write to, from the extras of it's intent
+     */
+    private static String getTargetPath(Intent intent) {
+
+        if (intent.hasExtra(CopyService.TAG_COPY_TARGET)) {
+            return intent.getStringExtra(CopyService.TAG_COPY_TARGET);
+        } else if (intent.hasExtra(ExtractService.KEY_PATH_EXTRACT)) {
+            return intent.getStringExtra(ExtractService.KEY_PATH_EXTRACT);
+        } else if (intent.hasExtra(ZipService.KEY_COMPRESS_PATH)) {
+            return intent.getStringExtra(ZipService.KEY_COMPRESS_PATH);
+        } else if (intent.hasExtra(EncryptService.TAG_DECRYPT_PATH)) {
+            return intent.getStringExtra(EncryptService.TAG_DECRYPT_PATH);
+        } else if (intent.hasExtra(EncryptService.TAG_SOURCE)) {
+            HybridFileParcelable sourceFile = intent.getParcelableExtra(EncryptService.TAG_SOURCE);
+            return sourceFile.getPath();
+        }
+        return null;
+    }
+
+    /**
+     * Reduces a path to the storage device it is on, so that operations on different devices
+     * can run side by side. eg. /storage/emulated/0/DCIM gives /storage/emulated,
+     * smb://user@host/share gives smb://host
+     */
+    static String getDevice(String path) {
+
+        if (path == null) return "";
+
+        if (path.contains("://")) {
+            Uri uri = Uri.parse(path);
+            return uri.getScheme() + "://" + uri.getHost();
+        }
+
+        String[] segments = path.split("/");
+        if (segments.length > 2 && (path.startsWith("/storage/") || path.startsWith("/mnt/"))) {
+            // removable volumes are mounted one level deeper, eg. /storage/1234-ABCD
+            return "/" + segments[1] + "/" + segments[2];
+        } else if (segments.length > 1) {
+            return "/" + segments[1];
+        }
+        return path;
+    }
+
+    /**
+     * An operation queued by {@link #runService(Context, Intent, int)}
+     */
+    private static class Operation implements Comparable<Operation> {
+
+        final Intent intent;
+        final String service;
+        final String device;
+        final int priority;
+        final long sequence;
+
+        Operation(Intent intent, int priority, long sequence) {
+            this.intent = intent;
+            this.service = intent.getComponent().getClassName();
+            this.device = getDevice(getTargetPath(intent));
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(@NonNull Operation another) {
+            if (priority != another.priority) return another.priority > priority ? 1 : -1;
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
     }
 }
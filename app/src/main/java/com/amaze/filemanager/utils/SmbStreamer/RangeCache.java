@@ -0,0 +1,218 @@
+package com.amaze.filemanager.utils.SmbStreamer;
+
+import android.util.Log;
+
+import com.amaze.filemanager.utils.application.AppConfig;
+import com.amaze.filemanager.utils.cloud.CloudUtil;
+import com.amaze.filemanager.utils.files.FileHasher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded disk cache of what's been streamed from remote files, in blocks of
+ * {@link #BLOCK_SIZE} aligned to it. A player seeking back, or asking again for the
+ * ranges it probed at the start, is served from it instead of the network. Least recently
+ * used blocks are deleted once the cache grows past {@link #MAX_SIZE}.
+ *
+ * Blocks only live as long as the app, the cache is emptied the first time it's used.
+ */
+public class RangeCache {
+
+    public static final int BLOCK_SIZE = 1024 * 1024;
+    private static final long MAX_SIZE = 64 * 1024 * 1024;
+
+    private static RangeCache instance;
+
+    private final File directory;
+    // block file names to their size, in order of use
+    private final LinkedHashMap<String, Integer> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    // tells apart streams of files whose last modified time isn't known
+    private final AtomicLong uncheckedStreams = new AtomicLong();
+
+    public static synchronized RangeCache getInstance() {
+        if (instance == null) {
+            instance = new RangeCache(new File(AppConfig.getInstance().getCacheDir(), "stream"));
+        }
+        return instance;
+    }
+
+    private RangeCache(File directory) {
+        this.directory = directory;
+
+        // left over by a previous run, nothing tells which file they're of
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.mkdirs();
+    }
+
+    /**
+     * @param key tells the file apart from others streamed, like it's path
+     * @param lastModified time of the file as it is now, so blocks of what it was before it was
+     *                     changed aren't served; 0 if not known, then blocks are only read by the
+     *                     stream they were cached for
+     * @param length of the file
+     * @return entry for a stream of the file to read and write cached blocks through
+     */
+    public Entry open(String key, long lastModified, long length) {
+        String version = lastModified != 0 ? String.valueOf(lastModified)
+                : "unchecked" + uncheckedStreams.incrementAndGet();
+        return new Entry(digest(key + "\u0000" + version + "\u0000" + length), length);
+    }
+
+    /**
+     * @return SHA-1 of the key in hex, so that no two files share block names
+     */
+    private static String digest(String key) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+            return FileHasher.toHex(messageDigest.digest(key.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // every platform has both
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return size of the block, 0 if it isn't cached
+     */
+    private synchronized int touch(String blockName) {
+        Integer blockSize = blocks.get(blockName);
+        return blockSize != null ? blockSize : 0;
+    }
+
+    private synchronized void put(String blockName, int blockSize) {
+        blocks.put(blockName, blockSize);
+        size += blockSize;
+
+        Iterator<Map.Entry<String, Integer>> iterator = blocks.entrySet().iterator();
+        while (size > MAX_SIZE && iterator.hasNext()) {
+            Map.Entry<String, Integer> eldest = iterator.next();
+            if (eldest.getKey().equals(blockName)) continue;
+
+            new File(directory, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Cached blocks of a file, as seen by one stream of it. Blocks are written as data is read
+     * from the network in order, those only partially read are never cached.
+     */
+    public class Entry {
+
+        private final String name;
+        private final long length;
+
+        // block being read from the network, cached once full
+        private byte[] pending;
+        private long pendingStart = -1;
+        private int pendingLength = 0;
+
+        private Entry(String name, long length) {
+            this.name = name;
+            this.length = length;
+        }
+
+        /**
+         * @return bytes read from the cache, 0 if the block of the position isn't cached
+         */
+        public synchronized int read(long position, byte[] buffer, int offset, int count) {
+            long block = position / BLOCK_SIZE;
+            String blockName = getBlockName(block);
+            int blockSize = touch(blockName);
+            int blockOffset = (int) (position - block * BLOCK_SIZE);
+            if (blockOffset >= blockSize) return 0;
+
+            try {
+                RandomAccessFile file = new RandomAccessFile(new File(directory, blockName), "r");
+                try {
+                    file.seek(blockOffset);
+                    int read = file.read(buffer, offset, Math.min(count, blockSize - blockOffset));
+                    return Math.max(read, 0);
+                } finally {
+                    file.close();
+                }
+            } catch (IOException e) {
+                // deleted while reading, it's read from the network instead
+                return 0;
+            }
+        }
+
+        /**
+         * Caches data read from the network at the position
+         */
+        public synchronized void write(long position, byte[] buffer, int offset, int count) {
+            while (count > 0) {
+                if (pendingStart < 0 || position != pendingStart + pendingLength) {
+                    // not following what's pending, start over at the next block
+                    if (position % BLOCK_SIZE != 0) {
+                        long skip = BLOCK_SIZE - position % BLOCK_SIZE;
+                        if (skip >= count) {
+                            pendingStart = -1;
+                            return;
+                        }
+                        position += skip;
+                        offset += skip;
+                        count -= skip;
+                    }
+                    pendingStart = position;
+                    pendingLength = 0;
+                    if (pending == null) pending = new byte[BLOCK_SIZE];
+                }
+
+                int copied = Math.min(count, BLOCK_SIZE - pendingLength);
+                System.arraycopy(buffer, offset, pending, pendingLength, copied);
+                pendingLength += copied;
+                position += copied;
+                offset += copied;
+                count -= copied;
+
+                if (pendingLength == BLOCK_SIZE || pendingStart + pendingLength == length) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() {
+            String blockName = getBlockName(pendingStart / BLOCK_SIZE);
+            // another stream of the file may be caching the same block
+            synchronized (RangeCache.this) {
+                if (touch(blockName) == 0) {
+                    try {
+                        FileOutputStream outputStream = new FileOutputStream(new File(directory, blockName));
+                        try {
+                            outputStream.write(pending, 0, pendingLength);
+                        } finally {
+                            outputStream.close();
+                        }
+                        put(blockName, pendingLength);
+                    } catch (IOException e) {
+                        Log.w(CloudUtil.TAG, "Failed to cache " + blockName, e);
+                    }
+                }
+            }
+
+            pendingStart += pendingLength;
+            pendingLength = 0;
+        }
+
+        private String getBlockName(long block) {
+            return name + "_" + block;
+        }
+    }
+}
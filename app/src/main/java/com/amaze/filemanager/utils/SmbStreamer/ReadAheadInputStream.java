@@ -0,0 +1,196 @@
+package com.amaze.filemanager.utils.SmbStreamer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Reads a stream ahead of it's reader, on a thread of it's own, into a bounded ring buffer.
+ * The server sending data to the player reads from the buffer, so a stall of the network
+ * the stream comes from only stalls playback once the buffer runs dry.
+ *
+ * Skipping drops what's buffered, whatever is left to skip is skipped on the upstream by
+ * the reading thread, before it goes on filling the buffer.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    public static final int DEFAULT_CAPACITY = 2 * 1024 * 1024;
+
+    // most read from upstream at once
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream upstream;
+    private final byte[] ring;
+
+    // ring[readIndex] is the next byte to be read, followed by buffered - 1 more
+    private int readIndex = 0;
+    private int buffered = 0;
+    // position in the stream of the next byte to be read
+    private long position = 0;
+    // bytes the reading thread is to drop from upstream before buffering
+    private long pendingSkip = 0;
+
+    private boolean endOfStream = false;
+    private boolean closed = false;
+    private IOException error;
+
+    /**
+     * @param position of upstream in the file, positions told by {@link #getPosition()} start there
+     * @param name of the thread reading ahead
+     */
+    public ReadAheadInputStream(InputStream upstream, long position, int capacity, String name) {
+        this.upstream = upstream;
+        this.position = position;
+        ring = new byte[capacity];
+
+        Thread thread = new Thread(this::fill, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void fill() {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try {
+            while (true) {
+                long skip;
+                int space;
+                synchronized (this) {
+                    while (!closed && pendingSkip == 0 && buffered == ring.length) wait();
+                    if (closed) return;
+
+                    skip = pendingSkip;
+                    pendingSkip = 0;
+                    space = Math.min(ring.length - buffered, chunk.length);
+                }
+
+                if (skip > 0) {
+                    if (!skipUpstream(skip)) break;
+                    continue;
+                }
+
+                // blocks on the network, so not holding the lock
+                int read = upstream.read(chunk, 0, space);
+                if (read < 0) break;
+
+                synchronized (this) {
+                    // bytes read before the reader skipped past them
+                    int dropped = (int) Math.min(read, pendingSkip);
+                    pendingSkip -= dropped;
+                    append(chunk, dropped, read - dropped);
+                    notifyAll();
+                }
+            }
+
+            synchronized (this) {
+                endOfStream = true;
+                notifyAll();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                error = e;
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            // closing
+        } finally {
+            try {
+                upstream.close();
+            } catch (IOException e) {
+                // nothing to do about it
+            }
+        }
+    }
+
+    /**
+     * @return false if the end of upstream was reached
+     */
+    private boolean skipUpstream(long count) throws IOException {
+        while (count > 0) {
+            long skipped = upstream.skip(count);
+            if (skipped <= 0) {
+                // some streams only tell the end by reading
+                if (upstream.read() < 0) return false;
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+        return true;
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        int writeIndex = (readIndex + buffered) % ring.length;
+        int first = Math.min(length, ring.length - writeIndex);
+        System.arraycopy(bytes, offset, ring, writeIndex, first);
+        System.arraycopy(bytes, offset + first, ring, 0, length - first);
+        buffered += length;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+
+        try {
+            while (!closed && buffered == 0 && !endOfStream && error == null) wait();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+
+        if (closed) throw new IOException("Stream closed");
+        if (buffered == 0) {
+            if (error != null) throw error;
+            return -1;
+        }
+
+        int count = Math.min(len, buffered);
+        int first = Math.min(count, ring.length - readIndex);
+        System.arraycopy(ring, readIndex, b, off, first);
+        System.arraycopy(ring, 0, b, off + first, count - first);
+        readIndex = (readIndex + count) % ring.length;
+        buffered -= count;
+        position += count;
+
+        // there's room for the reading thread again
+        notifyAll();
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public synchronized long skip(long n) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        if (n <= 0) return 0;
+
+        int dropped = (int) Math.min(n, buffered);
+        readIndex = (readIndex + dropped) % ring.length;
+        buffered -= dropped;
+        pendingSkip += n - dropped;
+        position += n;
+
+        notifyAll();
+        return n;
+    }
+
+    /**
+     * @return position in the stream of the next byte read
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    @Override
+    public synchronized int available() {
+        return buffered;
+    }
+
+    @Override
+    public synchronized void close() {
+        // upstream is closed by the reading thread, which may be blocked on it
+        closed = true;
+        notifyAll();
+    }
+}
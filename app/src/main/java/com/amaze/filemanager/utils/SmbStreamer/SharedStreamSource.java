@@ -0,0 +1,45 @@
+package com.amaze.filemanager.utils.SmbStreamer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the single stream a file which can't be opened again is read through, like a cloud
+ * download. {@link Streamer} shares it between the responses. It can only go forward, ranges
+ * before it are served from the cache of what's been streamed already.
+ */
+public class SharedStreamSource extends StreamSource {
+
+    public SharedStreamSource(String fileName, long length, ReadAheadInputStream inputStream,
+                              RangeCache.Entry cache) {
+        super(fileName, length, null, 0);
+        this.input = inputStream;
+        this.cache = cache;
+    }
+
+    @Override
+    protected InputStream openInput(long position) throws IOException {
+        throw new IOException("Can't open " + name + " again");
+    }
+
+    @Override
+    protected void seekInput() throws IOException {
+        long position = input.getPosition();
+        if (fp < position)
+            throw new IOException("Can't seek back to " + fp + " in stream of " + name + ", it's at " + position);
+        input.skip(fp - position);
+    }
+
+    @Override
+    public int read(byte[] bytes, int start, int offs) throws IOException {
+        // the stream is shared, moving it and reading from it go together
+        synchronized (input) {
+            return super.read(bytes, start, offs);
+        }
+    }
+
+    @Override
+    public void close() {
+        // the stream is closed by Streamer, once another file is streamed
+    }
+}
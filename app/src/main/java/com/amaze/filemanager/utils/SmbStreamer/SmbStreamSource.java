@@ -0,0 +1,57 @@
+package com.amaze.filemanager.utils.SmbStreamer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import jcifs.smb.SmbFile;
+
+/**
+ * Streams a file of a SMB share. The smb input skips without reading, so the input of a
+ * response is kept going for any range after it, and opened again for one before.
+ */
+public class SmbStreamSource extends StreamSource {
+
+    private final SmbFile file;
+
+    public SmbStreamSource(SmbFile file, long length, long lastModified) {
+        super(file.getName(), length, file.getPath(), lastModified);
+        this.file = file;
+    }
+
+    /*
+     * You may notice a strange name for the smb input stream.
+     * I made some modifications to the original one in the jcifs library for my needs,
+     * but streaming required returning to the original one so I renamed it to "old".
+     * However, I needed to specify a buffer size in the constructor. It looks now like this:
+     *
+     *
+     public SmbFileInputStreamOld( SmbFile file, int readBuffer, int openFlags) throws SmbException, MalformedURLException, UnknownHostException {
+         this.file = file;
+         this.openFlags = SmbFile.O_RDONLY & 0xFFFF;
+         this.access = (openFlags >>> 16) & 0xFFFF;
+         if (file.type != SmbFile.TYPE_NAMED_PIPE) {
+            file.open( openFlags, access, SmbFile.ATTR_NORMAL, 0 );
+            this.openFlags &= ~(SmbFile.O_CREAT | SmbFile.O_TRUNC);
+         } else {
+             file.connect0();
+         }
+         readSize = readBuffer;
+         fs = file.length();
+     }
+     *
+     * Setting buffer size by properties didn't work for me so I created this constructor.
+     * In the libs folder there is a library modified by me. If you want to use a stock one, you
+     * have to set somehow the buffer size to be equal with http server's buffer size which is 8192.
+     */
+    @Override
+    protected InputStream openInput(long position) throws IOException {
+        try {
+            InputStream inputStream = file.getInputStream();//new SmbFileInputStream(file, bufferSize, 1);
+            if (position > 0)
+                inputStream.skip(position);
+            return inputStream;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -9,25 +9,26 @@ import android.util.Log;
 
 import com.amaze.filemanager.utils.cloud.CloudUtil;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Locale;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
-import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A simple, tiny, nicely embeddable HTTP 1.0 (partially 1.1) server in Java
@@ -48,7 +49,9 @@ import java.util.Vector;
  *    <li> Supports partial content (streaming)</li>
  *    <li> Supports ETags</li>
  *    <li> Never caches anything </li>
- *    <li> Doesn't limit bandwidth, request time or simultaneous connections </li>
+ *    <li> Doesn't limit bandwidth or request time </li>
+ *    <li> Serves a bounded number of connections at once, from a pool of worker threads </li>
+ *    <li> Keeps connections alive between requests, so a player seeking doesn't reconnect </li>
  *    <li> Default code serves files and shows all HTTP parameters and headers</li>
  *    <li> File server supports directory listing, index.html and index.htm</li>
  *    <li> File server supports partial content (streaming)</li>
@@ -127,6 +130,12 @@ public abstract class StreamServer {
          */
         public StreamSource data;
 
+        /**
+         * Number of bytes of data to send, as Content-Length. When it's -1 data is
+         * sent till it's end, and the connection closed after.
+         */
+        public long length = -1;
+
         /**
          * Headers for the HTTP response. Use addHeader()
          * to add lines.
@@ -145,6 +154,7 @@ public abstract class StreamServer {
             HTTP_FORBIDDEN = "403 Forbidden",
             HTTP_NOTFOUND = "404 Not Found",
             HTTP_BADREQUEST = "400 Bad Request",
+            HTTP_ENTITYTOOLARGE = "413 Request Entity Too Large",
             HTTP_INTERNALERROR = "500 Internal Server Error",
             HTTP_NOTIMPLEMENTED = "501 Not Implemented";
 
@@ -161,21 +171,55 @@ public abstract class StreamServer {
     // Socket & server code
     // ==================================================
 
+    // connections served at once, players open a few of them at most
+    private static final int MAX_SESSIONS = 8;
+    // connections waiting for a free worker, more than that are dropped
+    private static final int MAX_QUEUED_SESSIONS = 16;
+    // idle time after which a kept alive connection is closed
+    private static final int KEEP_ALIVE_TIMEOUT = 15 * 1000;
+    // Apache's default header limit is 8KB
+    private static final int MAX_HEADER_SIZE = 8192;
+    // a body is never needed, bigger ones are refused rather than skipped
+    private static final int MAX_BODY_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // each worker writes responses out of it's own direct buffer, so the socket doesn't copy them
+    private static final ThreadLocal<ByteBuffer> sendBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
     /**
      * Starts a HTTP server to given port.<p>
      * Throws an IOException if the socket is already in use
      */
-
-    //private HTTPSession session;
     public StreamServer( int port, File wwwroot ) throws IOException {
         myTcpPort = port;
         this.myRootDir = wwwroot;
-        myServerSocket = new ServerSocket( myTcpPort );
+        myServerChannel = ServerSocketChannel.open();
+        myServerChannel.socket().setReuseAddress(true);
+        myServerChannel.socket().bind(new InetSocketAddress(myTcpPort));
+
+        mySessionExecutor = new ThreadPoolExecutor(MAX_SESSIONS, MAX_SESSIONS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_SESSIONS), runnable -> {
+                    Thread thread = new Thread(runnable, "stream_session");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        mySessionExecutor.allowCoreThreadTimeOut(true);
+
         myThread = new Thread(() -> {
             try {
                 while (true) {
-                    Socket accept = myServerSocket.accept();
-                    new HTTPSession(accept);
+                    SocketChannel accept = myServerChannel.accept();
+                    try {
+                        mySessionExecutor.execute(new HTTPSession(accept));
+                    } catch (RejectedExecutionException e) {
+                        Log.w(CloudUtil.TAG, "Too many connections, dropping one");
+                        closeQuietly(accept);
+                    }
                 }
             } catch (IOException ioe) {
             }
@@ -190,367 +234,217 @@ public abstract class StreamServer {
      */
     public void stop() {
         try {
-            myServerSocket.close();
+            myServerChannel.close();
             myThread.join();
         } catch (IOException | InterruptedException e) {
         }
+        mySessionExecutor.shutdownNow();
+    }
+
+    /**
+     * Called once the data of a response is sent, or sending it failed. The source is closed
+     * by default, override to keep it open for a following request.
+     */
+    protected void releaseSource(StreamSource source) {
+        source.close();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing to do about it
+        }
     }
 
     /**
-     * Handles one session, i.e. parses the HTTP request
-     * and returns the response.
+     * Handles one connection, i.e. parses the HTTP requests coming through it
+     * and returns the responses. The connection is kept open between requests
+     * when the client allows it.
      */
     private class HTTPSession implements Runnable {
+        private final SocketChannel channel;
         private InputStream is;
-        private final Socket socket;
-
-        public HTTPSession(Socket s) {
-            socket = s;
-            //mySocket = s;
-            Thread t = new Thread(this);
-            t.setDaemon(true);
-            t.start();
+
+        // request bytes read but not parsed yet, the header always fits in
+        private final byte[] buf = new byte[MAX_HEADER_SIZE];
+        private int buflen = 0;
+
+        public HTTPSession(SocketChannel channel) {
+            this.channel = channel;
         }
 
         public void run() {
             try {
-                //openInputStream();
-                handleResponse(socket);
-            } finally {
-                if (is != null) {
-                    try {
-                        is.close();
-                        socket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                Socket socket = channel.socket();
+                socket.setTcpNoDelay(true);
+                // blocking reads through the socket's stream time out, reads of the channel wouldn't
+                socket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+                is = socket.getInputStream();
+
+                while (handleRequest()) {
+                    // served, wait for the next request on this connection
                 }
+            } catch (IOException ioe) {
+                // client went away, or kept the connection idle for too long
+            } catch (InterruptedException ie) {
+                // Thrown by sendError, ignore and close the connection.
+            } finally {
+                closeQuietly(channel);
             }
         }
 
-        private void handleResponse(Socket socket) {
-            try {
-                is = socket.getInputStream();
-                if (is == null) return;
-
-                // Read the first 8192 bytes.
-                // The full header should fit in here.
-                // Apache's default header limit is 8KB.
-                int bufsize = 8192;
-                byte[] buf = new byte[bufsize];
-                int rlen = is.read(buf, 0, bufsize);
-                if (rlen <= 0) return;
-
-                // Create a BufferedReader for parsing the header.
-                ByteArrayInputStream hbis = new ByteArrayInputStream(buf, 0, rlen);
-                BufferedReader hin = new BufferedReader(new InputStreamReader(hbis, "utf-8"));
-                Properties pre = new Properties();
-                Properties parms = new Properties();
-                Properties header = new Properties();
-                Properties files = new Properties();
-
-                // Decode the header into parms and header java properties
-                decodeHeader(hin, pre, parms, header);
-                Log.d(CloudUtil.TAG, pre.toString());
-                Log.d(CloudUtil.TAG, "Params: " + parms.toString());
-                Log.d(CloudUtil.TAG, "Header: " + header.toString());
-                String method = pre.getProperty("method");
-                String uri = pre.getProperty("uri");
-
-                long size = 0x7FFFFFFFFFFFFFFFL;
-                String contentLength = header.getProperty("content-length");
-                if (contentLength != null) {
-                    try {
-                        size = Integer.parseInt(contentLength);
-                    } catch (NumberFormatException ex) {
-                    }
-                }
-
-                // We are looking for the byte separating header from body.
-                // It must be the last byte of the first two sequential new lines.
-                int splitbyte = 0;
-                boolean sbfound = false;
-                while (splitbyte < rlen) {
-                    if (buf[splitbyte] == '\r' && buf[++splitbyte] == '\n' && buf[++splitbyte] == '\r' && buf[++splitbyte] == '\n') {
-                        sbfound = true;
-                        break;
-                    }
-                    splitbyte++;
-                }
-                splitbyte++;
-
-                // Write the part of body already read to ByteArrayOutputStream f
-                ByteArrayOutputStream f = new ByteArrayOutputStream();
-                if (splitbyte < rlen) f.write(buf, splitbyte, rlen - splitbyte);
-
-                // While Firefox sends on the first read all the data fitting
-                // our buffer, Chrome and Opera sends only the headers even if
-                // there is data for the body. So we do some magic here to find
-                // out whether we have already consumed part of body, if we
-                // have reached the end of the data to be sent or we should
-                // expect the first byte of the body at the next read.
-                if (splitbyte < rlen)
-                    size -= rlen - splitbyte + 1;
-                else if (!sbfound || size == 0x7FFFFFFFFFFFFFFFL)
-                    size = 0;
-
-                // Now read all the body and write it to f
-                buf = new byte[512];
-                while (rlen >= 0 && size > 0) {
-                    rlen = is.read(buf, 0, 512);
-                    size -= rlen;
-                    if (rlen > 0)
-                        f.write(buf, 0, rlen);
+        /**
+         * @return whether the connection is kept open for another request
+         */
+        private boolean handleRequest() throws IOException, InterruptedException {
+            int headerEnd = readHeader();
+            if (headerEnd < 0) return false;
+
+            Properties pre = new Properties();
+            Properties parms = new Properties();
+            Properties header = new Properties();
+            Properties files = new Properties();
+
+            // Decode the header into parms and header java properties
+            decodeHeader(new String(buf, 0, headerEnd, "ISO-8859-1"), pre, parms, header);
+            consume(headerEnd);
+            Log.d(CloudUtil.TAG, pre.toString());
+            Log.d(CloudUtil.TAG, "Params: " + parms.toString());
+            Log.d(CloudUtil.TAG, "Header: " + header.toString());
+            String method = pre.getProperty("method");
+            String uri = pre.getProperty("uri");
+
+            long size = 0;
+            String contentLength = header.getProperty("content-length");
+            if (contentLength != null) {
+                try {
+                    size = Long.parseLong(contentLength);
+                } catch (NumberFormatException ex) {
+                    sendError(HTTP_BADREQUEST, "BAD REQUEST: Content-Length is not a number.");
                 }
+            }
 
-                // Get the raw body as a byte []
-                byte[] fbuf = f.toByteArray();
-
-                // Create a BufferedReader for easily reading it as string.
-                ByteArrayInputStream bin = new ByteArrayInputStream(fbuf);
-                BufferedReader in = new BufferedReader(new InputStreamReader(bin));
-
-                // If the method is POST, there may be parameters
-                // in data section, too, read it:
-                if (method.equalsIgnoreCase("POST")) {
-                    String contentType = "";
-                    String contentTypeHeader = header.getProperty("content-type");
-                    StringTokenizer st = new StringTokenizer(contentTypeHeader, "; ");
-                    if (st.hasMoreTokens()) {
-                        contentType = st.nextToken();
-                    }
-
-                    if (contentType.equalsIgnoreCase("multipart/form-data")) {
-                        // Handle multipart/form-data
-                        if (!st.hasMoreTokens())
-                            sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
-                        String boundaryExp = st.nextToken();
-                        st = new StringTokenizer(boundaryExp, "=");
-                        if (st.countTokens() != 2)
-                            sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary syntax error. Usage: GET /example/file.html");
-                        st.nextToken();
-                        String boundary = st.nextToken();
-
-                        decodeMultipartData(boundary, fbuf, in, parms, files);
-                    } else {
-                        // Handle application/x-www-form-urlencoded
-                        String postLine = "";
-                        char pbuf[] = new char[512];
-                        int read = in.read(pbuf);
-                        while (read >= 0 && !postLine.endsWith("\r\n")) {
-                            postLine += String.valueOf(pbuf, 0, read);
-                            read = in.read(pbuf);
-                            if (Thread.interrupted()) {
-                                throw new InterruptedException();
-                            }
-                        }
-                        postLine = postLine.trim();
-                        decodeParms(postLine, parms);
-                    }
-                }
+            // nothing served needs a body, but it has to be read for the next request to be found
+            discardBody(size);
 
-                // Ok, now do the serve()
-                Response r = serve(uri, method, header, parms, files);
-                if (r == null)
-                    sendError(socket, HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response.");
-                else
-                    sendResponse(socket, r.status, r.mimeType, r.header, r.data);
+            boolean keepAlive = isKeepAlive(pre.getProperty("version"), header.getProperty("connection"));
 
-                in.close();
-            } catch (IOException ioe) {
-                try {
-                    sendError(socket, HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
-                } catch (Throwable t) {
-                }
-            } catch (InterruptedException ie) {
-                // Thrown by sendError, ignore and exit the thread.
+            // Ok, now do the serve()
+            Response r = serve(uri, method, header, parms, files);
+            if (r == null) {
+                sendError(HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response.");
+                return false;
             }
 
+            // without a length the end of data is told by closing the connection
+            if (r.data != null && r.length < 0) keepAlive = false;
+            if (r.data != null && method.equalsIgnoreCase("HEAD")) {
+                // only the header is wanted, telling the length of data
+                releaseSource(r.data);
+                r.data = null;
+            }
+            return sendResponse(r.status, r.mimeType, r.header, r.data, r.length, keepAlive);
         }
 
         /**
-         * Decodes the sent headers and loads the data into
-         * java Properties' key - value pairs
-         **/
-        private void decodeHeader(BufferedReader in, Properties pre, Properties parms, Properties header)
-                throws InterruptedException {
-            try {
-                // Read the request line
-                String inLine = in.readLine();
-                if (inLine == null) return;
-                StringTokenizer st = new StringTokenizer(inLine);
-                if (!st.hasMoreTokens())
-                    sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Syntax error. Usage: GET /example/file.html");
-
-                String method = st.nextToken();
-                pre.put("method", method);
-
-                if (!st.hasMoreTokens())
-                    sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Missing URI. Usage: GET /example/file.html");
-
-                String uri = st.nextToken();
-
-                // Decode parameters from the URI
-                int qmi = uri.indexOf('?');
-                if (qmi >= 0) {
-                    decodeParms(uri.substring(qmi + 1), parms);
-                    uri = decodePercent(uri.substring(0, qmi));
-                } else uri = Uri.decode(uri);//decodePercent(uri);
-
-                // If there's another token, it's protocol version,
-                // followed by HTTP headers. Ignore version but parse headers.
-                // NOTE: this now forces header names lowercase since they are
-                // case insensitive and vary by client.
-                if (st.hasMoreTokens()) {
-                    String line = in.readLine();
-                    while (line != null && line.trim().length() > 0) {
-                        int p = line.indexOf(':');
-                        if (p >= 0)
-                            header.put(line.substring(0, p).trim().toLowerCase(), line.substring(p + 1).trim());
-                        line = in.readLine();
+         * Reads till the blank line ending the request header
+         *
+         * @return length of the header in {@link #buf}, -1 if the client closed the connection
+         */
+        private int readHeader() throws IOException, InterruptedException {
+            int scanned = 0;
+            while (true) {
+                for (int i = Math.max(scanned - 3, 0); i + 3 < buflen; i++) {
+                    if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+                        return i + 4;
                     }
                 }
+                scanned = buflen;
 
-                pre.put("uri", uri);
-            } catch (IOException ioe) {
-                sendError(socket, HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
+                if (buflen == buf.length) sendError(HTTP_BADREQUEST, "BAD REQUEST: Header too large.");
+                int read = is.read(buf, buflen, buf.length - buflen);
+                if (read < 0) return -1;
+                buflen += read;
             }
         }
 
         /**
-         * Decodes the Multipart Body data and put it
-         * into java Properties' key - value pairs.
-         **/
-        private void decodeMultipartData(String boundary, byte[] fbuf, BufferedReader in, Properties parms, Properties files)
-                throws InterruptedException {
-            try {
-                int[] bpositions = getBoundaryPositions(fbuf, boundary.getBytes());
-                int boundarycount = 1;
-                String mpline = in.readLine();
-                while (mpline != null) {
-                    if (mpline.indexOf(boundary) == -1)
-                        sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but next chunk does not start with boundary. Usage: GET /example/file.html");
-                    boundarycount++;
-                    Properties item = new Properties();
-                    mpline = in.readLine();
-                    while (mpline != null && mpline.trim().length() > 0) {
-                        int p = mpline.indexOf(':');
-                        if (p != -1)
-                            item.put(mpline.substring(0, p).trim().toLowerCase(), mpline.substring(p + 1).trim());
-                        mpline = in.readLine();
-                    }
-                    if (mpline != null) {
-                        String contentDisposition = item.getProperty("content-disposition");
-                        if (contentDisposition == null) {
-                            sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Content type is multipart/form-data but no content-disposition info found. Usage: GET /example/file.html");
-                        }
-                        StringTokenizer st = new StringTokenizer(contentDisposition, "; ");
-                        Properties disposition = new Properties();
-                        while (st.hasMoreTokens()) {
-                            String token = st.nextToken();
-                            int p = token.indexOf('=');
-                            if (p != -1)
-                                disposition.put(token.substring(0, p).trim().toLowerCase(), token.substring(p + 1).trim());
-                        }
-                        String pname = disposition.getProperty("name");
-                        pname = pname.substring(1, pname.length() - 1);
-
-                        String value = "";
-                        if (item.getProperty("content-type") == null) {
-                            while (mpline != null && mpline.indexOf(boundary) == -1) {
-                                mpline = in.readLine();
-                                if (mpline != null) {
-                                    int d = mpline.indexOf(boundary);
-                                    if (d == -1)
-                                        value += mpline;
-                                    else
-                                        value += mpline.substring(0, d - 2);
-                                }
-                            }
-                        } else {
-                            if (boundarycount > bpositions.length)
-                                sendError(socket, HTTP_INTERNALERROR, "Error processing request");
-                            int offset = stripMultipartHeaders(fbuf, bpositions[boundarycount - 2]);
-                            String path = saveTmpFile(fbuf, offset, bpositions[boundarycount - 1] - offset - 4);
-                            files.put(pname, path);
-                            value = disposition.getProperty("filename");
-                            value = value.substring(1, value.length() - 1);
-                            do {
-                                mpline = in.readLine();
-                            } while (mpline != null && mpline.indexOf(boundary) == -1);
-                        }
-                        parms.put(pname, value);
-                    }
-                }
-            } catch (IOException ioe) {
-                sendError(socket, HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
-            }
+         * Drops the first bytes of {@link #buf}, once parsed
+         */
+        private void consume(int length) {
+            System.arraycopy(buf, length, buf, 0, buflen - length);
+            buflen -= length;
         }
 
         /**
-         * Find the byte positions where multipart boundaries start.
-         **/
-        public int[] getBoundaryPositions(byte[] b, byte[] boundary) {
-            int matchcount = 0;
-            int matchbyte = -1;
-            Vector matchbytes = new Vector();
-            for (int i = 0; i < b.length; i++) {
-                if (b[i] == boundary[matchcount]) {
-                    if (matchcount == 0)
-                        matchbyte = i;
-                    matchcount++;
-                    if (matchcount == boundary.length) {
-                        matchbytes.addElement(matchbyte);
-                        matchcount = 0;
-                        matchbyte = -1;
-                    }
-                } else {
-                    i -= matchcount;
-                    matchcount = 0;
-                    matchbyte = -1;
-                }
-            }
-            int[] ret = new int[matchbytes.size()];
-            for (int i = 0; i < ret.length; i++) {
-                ret[i] = (Integer) matchbytes.elementAt(i);
+         * Skips the request body, reading it through {@link #buf} a chunk at a time
+         * so a client can't make the server allocate whatever its Content-Length says
+         */
+        private void discardBody(long size) throws IOException, InterruptedException {
+            if (size < 0) sendError(HTTP_BADREQUEST, "BAD REQUEST: Bad Content-Length.");
+            if (size > MAX_BODY_SIZE) sendError(HTTP_ENTITYTOOLARGE, "REQUEST ENTITY TOO LARGE: A body isn't expected.");
+
+            // part of the body may have come with the header
+            int buffered = (int) Math.min(buflen, size);
+            consume(buffered);
+
+            for (long left = size - buffered; left > 0; ) {
+                int read = is.read(buf, buflen, (int) Math.min(buf.length - buflen, left));
+                if (read < 0) throw new IOException("Connection closed while reading body");
+                left -= read;
             }
-            return ret;
         }
 
-        /**
-         * Retrieves the content of a sent file and saves it
-         * to a temporary file.
-         * The full path to the saved file is returned.
-         **/
-        private String saveTmpFile(byte[] b, int offset, int len) {
-            String path = "";
-            if (len > 0) {
-                String tmpdir = System.getProperty("java.io.tmpdir");
-                try {
-                    File temp = File.createTempFile("NanoHTTPD", "", new File(tmpdir));
-                    OutputStream fstream = new FileOutputStream(temp);
-                    fstream.write(b, offset, len);
-                    fstream.close();
-                    path = temp.getAbsolutePath();
-                } catch (Exception e) { // Catch exception if any
-                    System.err.println("Error: " + e.getMessage());
-                }
+        private boolean isKeepAlive(String version, String connection) {
+            if (connection != null) {
+                if (connection.equalsIgnoreCase("close")) return false;
+                if (connection.equalsIgnoreCase("keep-alive")) return true;
             }
-            return path;
+            // connections are only persistent by default from HTTP/1.1 on
+            return "HTTP/1.1".equals(version);
         }
 
-
         /**
-         * It returns the offset separating multipart file headers
-         * from the file's data.
+         * Decodes the sent headers and loads the data into
+         * java Properties' key - value pairs
          **/
-        private int stripMultipartHeaders(byte[] b, int offset) {
-            int i = 0;
-            for (i = offset; i < b.length; i++) {
-                if (b[i] == '\r' && b[++i] == '\n' && b[++i] == '\r' && b[++i] == '\n')
-                    break;
+        private void decodeHeader(String text, Properties pre, Properties parms, Properties header)
+                throws InterruptedException {
+            String[] lines = text.split("\r\n");
+
+            // Read the request line
+            StringTokenizer st = new StringTokenizer(lines[0]);
+            if (!st.hasMoreTokens())
+                sendError(HTTP_BADREQUEST, "BAD REQUEST: Syntax error. Usage: GET /example/file.html");
+
+            String method = st.nextToken();
+            pre.put("method", method);
+
+            if (!st.hasMoreTokens())
+                sendError(HTTP_BADREQUEST, "BAD REQUEST: Missing URI. Usage: GET /example/file.html");
+
+            String uri = st.nextToken();
+
+            // Decode parameters from the URI
+            int qmi = uri.indexOf('?');
+            if (qmi >= 0) {
+                decodeParms(uri.substring(qmi + 1), parms);
+                uri = decodePercent(uri.substring(0, qmi));
+            } else uri = Uri.decode(uri);//decodePercent(uri);
+
+            // If there's another token, it's protocol version,
+            // followed by HTTP headers.
+            // NOTE: this now forces header names lowercase since they are
+            // case insensitive and vary by client.
+            pre.put("version", st.hasMoreTokens() ? st.nextToken() : "HTTP/1.0");
+            for (int i = 1; i < lines.length; i++) {
+                int p = lines[i].indexOf(':');
+                if (p >= 0)
+                    header.put(lines[i].substring(0, p).trim().toLowerCase(), lines[i].substring(p + 1).trim());
             }
-            return i + 1;
+
+            pre.put("uri", uri);
         }
 
         /**
@@ -577,7 +471,7 @@ public abstract class StreamServer {
                 }
                 return sb.toString();
             } catch (Exception e) {
-                sendError(socket, HTTP_BADREQUEST, "BAD REQUEST: Bad percent-encoding.");
+                sendError(HTTP_BADREQUEST, "BAD REQUEST: Bad percent-encoding.");
                 return null;
             }
         }
@@ -608,70 +502,98 @@ public abstract class StreamServer {
          * Returns an error message as a HTTP response and
          * throws InterruptedException to stop further request processing.
          */
-        private void sendError(Socket socket, String status, String msg) throws InterruptedException {
-            sendResponse(socket, status, MIME_PLAINTEXT, null, null);
+        private void sendError(String status, String msg) throws InterruptedException {
+            Log.w(CloudUtil.TAG, msg);
+            try {
+                sendResponse(status, MIME_PLAINTEXT, null, null, 0, false);
+            } catch (IOException ioe) {
+                // Couldn't write? No can do.
+            }
             throw new InterruptedException();
         }
 
         /**
-         * Sends given response to the socket.
+         * Sends given response to the connection. The header goes out in the same
+         * write as the first data.
+         *
+         * @param length bytes of data to send, -1 to send till the end of it
+         * @return whether the connection can be kept open for another request
          */
-        private void sendResponse(Socket socket, String status, String mime, Properties header, StreamSource data) {
-            try {
-                if (status == null)
-                    throw new Error("sendResponse(): Status can't be null.");
-
-                OutputStream out = socket.getOutputStream();
-                PrintWriter pw = new PrintWriter(out);
-                pw.print("HTTP/1.0 " + status + " \r\n");
+        private boolean sendResponse(String status, String mime, Properties header, StreamSource data,
+                                     long length, boolean keepAlive) throws IOException {
+            if (status == null)
+                throw new Error("sendResponse(): Status can't be null.");
 
+            StringBuilder sb = new StringBuilder();
+            sb.append("HTTP/1.1 ").append(status).append(" \r\n");
 
-                if (mime != null)
-                    pw.print("Content-Type: " + mime + "\r\n");
+            if (mime != null)
+                sb.append("Content-Type: ").append(mime).append("\r\n");
 
-                if (header == null || header.getProperty("Date") == null)
-                    pw.print("Date: " + gmtFrmt.format(new Date()) + "\r\n");
+            if (header == null || header.getProperty("Date") == null) {
+                synchronized (gmtFrmt) {
+                    sb.append("Date: ").append(gmtFrmt.format(new Date())).append("\r\n");
+                }
+            }
 
-                if (header != null) {
-                    Enumeration e = header.keys();
-                    while (e.hasMoreElements()) {
-                        String key = (String) e.nextElement();
-                        String value = header.getProperty(key);
-                        pw.print(key + ": " + value + "\r\n");
-                    }
+            if (header != null) {
+                Enumeration e = header.keys();
+                while (e.hasMoreElements()) {
+                    String key = (String) e.nextElement();
+                    String value = header.getProperty(key);
+                    sb.append(key).append(": ").append(value).append("\r\n");
                 }
+            }
 
-                pw.print("\r\n");
-                pw.flush();
+            if (data == null) sb.append("Content-Length: ").append(Math.max(length, 0)).append("\r\n");
+            else if (length >= 0) sb.append("Content-Length: ").append(length).append("\r\n");
+            sb.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+            sb.append("\r\n");
 
+            ByteBuffer buffer = sendBuffer.get();
+            buffer.clear();
+            buffer.put(sb.toString().getBytes("ISO-8859-1"));
 
-                if (data != null) {
-                    //long pending = data.available();      // This is to support partial sends, see serveFile()
-                    data.open();
-                    byte[] buff = new byte[8192];
-                    int read = 0;
-                    while ((read = data.read(buff)) > 0) {
-                        //if(SolidExplorer.LOG)Log.d(CloudUtil.TAG, "Read: "+ read +", pending: "+ data.available());
-                        out.write(buff, 0, read);
-                    }
-                }
-                out.flush();
-                out.close();
-                if (data != null)
-                    data.close();
+            if (data == null) {
+                write(buffer);
+                return keepAlive;
+            }
 
-            } catch (IOException ioe) {
-                // Couldn't write? No can do.
-                try {
-                    socket.close();
-                } catch (Throwable t) {
+            try {
+                data.open();
+                long pending = length >= 0 ? length : Long.MAX_VALUE;
+                while (pending > 0) {
+                    if (!buffer.hasRemaining()) write(buffer);
+
+                    int read = data.read(buffer, (int) Math.min(buffer.remaining(), pending));
+                    if (read < 0) break;
+                    pending -= read;
                 }
+                write(buffer);
+
+                // client is waiting on bytes which will never come
+                if (length >= 0 && pending > 0) return false;
+            } finally {
+                releaseSource(data);
+            }
+            return keepAlive;
+        }
+
+        /**
+         * Writes out what's in the buffer, and clears it
+         */
+        private void write(ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
             }
+            buffer.clear();
         }
     }
 
     private int myTcpPort;
-    private final ServerSocket myServerSocket;
+    private final ServerSocketChannel myServerChannel;
+    private final ThreadPoolExecutor mySessionExecutor;
     private Thread myThread;
     private File myRootDir;
 
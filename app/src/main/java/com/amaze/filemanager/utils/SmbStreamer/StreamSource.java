@@ -1,93 +1,107 @@
 package com.amaze.filemanager.utils.SmbStreamer;
 
-/**
- * Created by Arpit on 06-07-2015.
- */
-import android.webkit.MimeTypeMap;
+import com.amaze.filemanager.ui.icons.MimeTypes;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
-import jcifs.smb.SmbException;
-import jcifs.smb.SmbFile;
-
-public class StreamSource {
+/**
+ * Created by Arpit on 06-07-2015.
+ *
+ * Data of a file being streamed by {@link Streamer}, one source is read by each response.
+ * Backends only tell how to open the file at a position, see {@link #openInput(long)}; reading
+ * ahead of the player and caching what's been served is done here, the same for all of them.
+ */
+public abstract class StreamSource {
 
     protected String mime;
     protected long fp;
     protected long len;
     protected String name;
-    protected SmbFile file;
-    InputStream input;
+    protected ReadAheadInputStream input;
     protected int bufferSize;
+    // blocks of the file already streamed, may be null
+    protected RangeCache.Entry cache;
 
-    public StreamSource() {}
+    // factory the source was created by, set by Streamer
+    Streamer.SourceFactory factory;
 
-    public StreamSource(SmbFile file,long l) throws SmbException {
+    private byte[] transferBuffer;
 
+    /**
+     * @param cacheKey tells the file apart from others in {@link RangeCache}, null not to cache it
+     * @param lastModified time of the file, see {@link RangeCache#open(String, long, long)}
+     */
+    public StreamSource(String name, long length, String cacheKey, long lastModified) {
         fp = 0;
-        len = l;
-        mime = MimeTypeMap.getFileExtensionFromUrl(file.getName());
-        name = file.getName();
-        this.file = file;
+        len = length;
+        this.name = name;
+        mime = MimeTypes.getMimeType(new File(name));
         bufferSize = 1024*60;
+        if (cacheKey != null) cache = RangeCache.getInstance().open(cacheKey, lastModified, length);
     }
 
     /**
-     * You may notice a strange name for the smb input stream.
-     * I made some modifications to the original one in the jcifs library for my needs,
-     * but streaming required returning to the original one so I renamed it to "old".
-     * However, I needed to specify a buffer size in the constructor. It looks now like this:
-     *
-     *
-     public SmbFileInputStreamOld( SmbFile file, int readBuffer, int openFlags) throws SmbException, MalformedURLException, UnknownHostException {
-         this.file = file;
-         this.openFlags = SmbFile.O_RDONLY & 0xFFFF;
-         this.access = (openFlags >>> 16) & 0xFFFF;
-         if (file.type != SmbFile.TYPE_NAMED_PIPE) {
-            file.open( openFlags, access, SmbFile.ATTR_NORMAL, 0 );
-            this.openFlags &= ~(SmbFile.O_CREAT | SmbFile.O_TRUNC);
-         } else {
-             file.connect0();
-         }
-         readSize = readBuffer;
-         fs = file.length();
-     }
-     *
-     * Setting buffer size by properties didn't work for me so I created this constructor.
-     * In the libs folder there is a library modified by me. If you want to use a stock one, you
-     * have to set somehow the buffer size to be equal with http server's buffer size which is 8192.
-     *
-     * @throws IOException
+     * @return stream of the file, starting at the position
      */
+    protected abstract InputStream openInput(long position) throws IOException;
+
     public void open() throws IOException {
-        try {
-            input = file.getInputStream();//new SmbFileInputStream(file, bufferSize, 1);
-            if(fp>0)
-                input.skip(fp);
-        } catch (Exception e) {
-            throw new IOException(e);
+        // the input is moved to fp by the first read which isn't cached
+    }
+
+    /**
+     * Moves the input to fp. The open input is kept when fp is where it is or later, it's
+     * opened again otherwise.
+     */
+    protected void seekInput() throws IOException {
+        if (input != null && fp >= input.getPosition()) {
+            input.skip(fp - input.getPosition());
+            return;
         }
+
+        close();
+        input = new ReadAheadInputStream(openInput(fp), fp, ReadAheadInputStream.DEFAULT_CAPACITY,
+                "stream_read_ahead");
     }
+
     public int read(byte[] buff) throws IOException{
         return read(buff, 0, buff.length);
     }
     public int read(byte[] bytes, int start, int offs) throws IOException {
-        int read =  input.read(bytes, start, offs);
-        fp += read;
+        int read = cache != null ? cache.read(fp, bytes, start, offs) : 0;
+        if (read == 0) {
+            seekInput();
+            read = input.read(bytes, start, offs);
+            if (read > 0 && cache != null)
+                cache.write(fp, bytes, start, read);
+        }
+        if (read > 0)
+            fp += read;
         return read;
     }
+
+    /**
+     * Reads at most length bytes into the buffer, at it's position
+     */
+    public int read(ByteBuffer buffer, int length) throws IOException {
+        if (transferBuffer == null || transferBuffer.length < length) transferBuffer = new byte[length];
+        int read = read(transferBuffer, 0, length);
+        if (read > 0) buffer.put(transferBuffer, 0, read);
+        return read;
+    }
+
     public long moveTo(long position) throws IOException {
         fp = position;
         return fp;
     }
 
     public void close() {
-        try {
-            input.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        if (input == null) return;
+        input.close();
+        input = null;
     }
     public String getMimeType(){
         return mime;
@@ -106,13 +120,8 @@ public class StreamSource {
         fp = 0;
     }
 
-    public SmbFile getFile(){
-        return file;
-    }
-
     public int getBufferSize(){
         return bufferSize;
     }
 
 }
-
@@ -6,34 +6,46 @@ import com.amaze.filemanager.utils.cloud.CloudUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Properties;
 import java.util.regex.Pattern;
 
+import jcifs.smb.SmbException;
 import jcifs.smb.SmbFile;
 
 /**
  * Created by Arpit on 06-07-2015.
+ *
+ * Streams the file last set to players, whichever storage it's on. A {@link SourceFactory}
+ * opens a {@link StreamSource} of the file for each response, ranges and keeping connections
+ * alive are handled the same for every backend.
  */
 public class Streamer extends StreamServer {
 
     public static final int PORT = 7871;
     public static final String URL = "http://127.0.0.1:" + PORT;
-    private SmbFile file;
-    long length = 0;
+    private String fileName;
+    private SourceFactory factory;
+    // single stream a file which can't be opened again is read from
+    private ReadAheadInputStream sharedInput;
     //protected List<SmbFile> extras; //those can be subtitles
-    // private InputStream stream;
-    // private long length;
     private static Streamer instance;
+    // source of the last response, its stream is kept open for the next range the player asks for
+    private StreamSource idleSource;
     private static Pattern pattern = Pattern.compile("^.*\\.(?i)(mp3|wma|wav|aac|ogg|m4a|flac|mp4|avi|mpg|mpeg|3gp|3gpp|mkv|flv|rmvb)$");
 
-    // private CBItem source;
-    // private String mime;
+    /**
+     * Opens sources of the file being streamed
+     */
+    public interface SourceFactory {
+        StreamSource create() throws IOException;
+    }
 
     protected Streamer(int port) throws IOException {
         super(port, new File("."));
     }
 
-    public static Streamer getInstance() {
+    public static synchronized Streamer getInstance() {
         if (instance == null)
             try {
                 instance = new Streamer(PORT);
@@ -48,28 +60,85 @@ public class Streamer extends StreamServer {
     }
 
     public void setStreamSrc(SmbFile file, long len) {
-        this.file = file;
-        //this.extras = extraFiles;
-        this.length = len;
+        long time;
+        try {
+            time = file.lastModified();
+        } catch (SmbException e) {
+            time = 0;
+        }
+        final long lastModified = time;
+        setStreamSrc(file.getName(), () -> new SmbStreamSource(file, len, lastModified), null);
+    }
+
+    /**
+     * Streams a file which can only be read once, from start to end, like a cloud download.
+     * Ranges before where the stream is are served from {@link RangeCache}.
+     *
+     * @param path tells the file apart from others streamed
+     * @param lastModified time of the file, 0 if not known
+     */
+    public void setStreamSrc(InputStream inputStream, String fileName, String path, long lastModified,
+                             long length) {
+        // downloading starts right away, so it's ahead once the player asks for data
+        ReadAheadInputStream input = new ReadAheadInputStream(inputStream, 0,
+                ReadAheadInputStream.DEFAULT_CAPACITY, "stream_read_ahead");
+        RangeCache.Entry cache = RangeCache.getInstance().open(path, lastModified, length);
+        setStreamSrc(fileName, () -> new SharedStreamSource(fileName, length, input, cache), input);
+    }
+
+    /**
+     * @param fileName the file is requested by
+     * @param sharedInput closed once another file is streamed, may be null
+     */
+    public synchronized void setStreamSrc(String fileName, SourceFactory factory,
+                                          ReadAheadInputStream sharedInput) {
+        if (idleSource != null) {
+            idleSource.close();
+            idleSource = null;
+        }
+        if (this.sharedInput != null) this.sharedInput.close();
+
+        this.fileName = fileName;
+        this.factory = factory;
+        this.sharedInput = sharedInput;
+    }
+
+    /**
+     * @return the idle source if it's of the file, so a sequential range goes on reading
+     * the stream already open, otherwise a new one
+     */
+    private synchronized StreamSource takeSource(String name) throws IOException {
+        if (factory == null || !fileName.equals(name)) return null;
+
+        StreamSource source = idleSource;
+        idleSource = null;
+        if (source != null) {
+            if (source.factory == factory) return source;
+            source.close();
+        }
+
+        source = factory.create();
+        source.factory = factory;
+        return source;
+    }
+
+    @Override
+    protected synchronized void releaseSource(StreamSource source) {
+        if (source.factory != factory) {
+            source.close();
+            return;
+        }
+
+        if (idleSource != null) idleSource.close();
+        idleSource = source;
     }
 
     @Override
     public Response serve(String uri, String method, Properties header, Properties parms, Properties files) {
         Response res = null;
         try {
-            SmbFile sourceFile = null;
-            String name = getNameFromPath(uri);
-            if (file != null && file.getName().equals(name))
-                sourceFile = file;
-            /*else if(extras!=null){
-                for(SmbFile i : extras){
-                    if(i!=null && i.getName().equals(name)){
-                        sourceFile = i;
-                        break;
-                    }
-                }
-            }*/
-            if (sourceFile == null)
+            final StreamSource source = takeSource(getNameFromPath(uri));
+            if (source == null)
                 res = new Response(HTTP_NOTFOUND, MIME_PLAINTEXT, null);
             else {
 
@@ -93,31 +162,27 @@ public class Streamer extends StreamServer {
 
                 // Change return code and add Content-Range header when skipping
                 // is requested
-                //source.open();
-                final StreamSource source = new StreamSource(sourceFile, length);
                 long fileLen = source.length();
-                if (range != null && startFrom > 0) {
+                if (range != null && (startFrom > 0 || endAt >= 0)) {
                     if (startFrom >= fileLen) {
+                        releaseSource(source);
                         res = new Response(HTTP_RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, null);
-                        res.addHeader("Content-Range", "bytes 0-0/" + fileLen);
+                        res.addHeader("Content-Range", "bytes */" + fileLen);
                     } else {
-                        if (endAt < 0)
+                        if (endAt < 0 || endAt >= fileLen)
                             endAt = fileLen - 1;
-                        long newLen = fileLen - startFrom;
-                        if (newLen < 0)
-                            newLen = 0;
-                        Log.d(CloudUtil.TAG, "start=" + startFrom + ", endAt=" + endAt + ", newLen=" + newLen);
-                        final long dataLen = newLen;
+                        long dataLen = endAt - startFrom + 1;
+                        Log.d(CloudUtil.TAG, "start=" + startFrom + ", endAt=" + endAt + ", dataLen=" + dataLen);
                         source.moveTo(startFrom);
-                        Log.d(CloudUtil.TAG, "Skipped " + startFrom + " bytes");
 
                         res = new Response(HTTP_PARTIALCONTENT, source.getMimeType(), source);
-                        res.addHeader("Content-length", "" + dataLen);
+                        res.length = dataLen;
+                        res.addHeader("Content-Range", "bytes " + startFrom + "-" + endAt + "/" + fileLen);
                     }
                 } else {
                     source.reset();
                     res = new Response(HTTP_OK, source.getMimeType(), source);
-                    res.addHeader("Content-Length", "" + fileLen);
+                    res.length = fileLen;
                 }
             }
         } catch (IOException ioe) {
@@ -58,6 +58,10 @@ public class AppConfig extends GlideApplication {
         // disabling file exposure method check for api n+
         StrictMode.VmPolicy.Builder builder = new StrictMode.VmPolicy.Builder();
         StrictMode.setVmPolicy(builder.build());
+
+        // entries asked for in each round trip of a SMB listing, rather than 200; the size of
+        // a response still bounds it. Read once by jcifs, so set before anything is listed
+        jcifs.Config.setProperty("jcifs.smb.client.listCount", "1000");
     }
 
     @Override
@@ -18,6 +18,7 @@ import com.amaze.filemanager.ui.icons.MimeTypes;
 import com.amaze.filemanager.utils.DataUtils;
 import com.amaze.filemanager.utils.OnFileFound;
 import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.SmbStreamer.Streamer;
 import com.cloudrail.si.interfaces.CloudStorage;
 import com.cloudrail.si.types.CloudMetaData;
 
@@ -122,15 +123,20 @@ public class CloudUtil {
     }
 
     public static void launchCloud(final HybridFileParcelable baseFile, final OpenMode serviceType, final Activity activity) {
-        final CloudStreamer streamer = CloudStreamer.getInstance();
+        final Streamer streamer = Streamer.getInstance();
 
         new Thread(() -> {
             try {
-                streamer.setStreamSrc(baseFile.getInputStream(activity), baseFile.getName(), baseFile.length(activity));
+                // as it is now, the listing may be older than the file's content
+                CloudMetaData metaData = DataUtils.getInstance().getAccount(serviceType)
+                        .getMetadata(CloudUtil.stripPath(serviceType, baseFile.getPath()));
+                long lastModified = metaData.getModifiedAt() != null ? metaData.getModifiedAt() : 0;
+                streamer.setStreamSrc(baseFile.getInputStream(activity), baseFile.getName(), baseFile.getPath(),
+                        lastModified, baseFile.length(activity));
                 activity.runOnUiThread(() -> {
                     try {
                         File file = new File(Uri.parse(CloudUtil.stripPath(serviceType, baseFile.getPath())).getPath());
-                        Uri uri = Uri.parse(CloudStreamer.URL + Uri.fromFile(file).getEncodedPath());
+                        Uri uri = Uri.parse(Streamer.URL + Uri.fromFile(file).getEncodedPath());
                         Intent i = new Intent(Intent.ACTION_VIEW);
                         i.setDataAndType(uri, MimeTypes.getMimeType(file));
                         PackageManager packageManager = activity.getPackageManager();
@@ -0,0 +1,147 @@
+package com.amaze.filemanager.utils.files;
+
+import android.util.Log;
+
+import com.amaze.filemanager.utils.OpenMode;
+import com.amaze.filemanager.utils.ProgressHandler;
+
+import java.util.EnumMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules copy of independent files on a bounded pool of worker threads.
+ *
+ * The thread walking the source tree submits each file here as it finds it. Number of files
+ * being copied at once is limited by the more constrained {@link OpenMode} of source and target,
+ * walker blocks once the limit is reached, so that we never queue up more work than either end
+ * can take. Directories are
+ * expected to be created by the walker before any of their children are submitted.
+ */
+public class CopyScheduler {
+
+    private static final String TAG = "CopyScheduler";
+
+    private static final int POOL_SIZE = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+
+    private final ExecutorService executor;
+    private final ProgressHandler progressHandler;
+    private final EnumMap<OpenMode, Semaphore> lanes = new EnumMap<>(OpenMode.class);
+
+    // number of copies submitted and not yet finished
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final Object completionLock = new Object();
+
+    public CopyScheduler(ProgressHandler progressHandler) {
+        this.progressHandler = progressHandler;
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> new Thread(runnable, "copy_worker"));
+    }
+
+    /**
+     * Maximum number of files copied from or to a file system of given type at once.
+     * Network servers don't like too many parallel streams, and USB drives are accessed
+     * through the single {@link android.support.v4.provider.DocumentFile} provider
+     */
+    public static int getConcurrencyLimit(OpenMode mode) {
+        switch (mode) {
+            case FILE:
+                return POOL_SIZE;
+            case SMB:
+                return 3;
+            case SFTP:
+            case GDRIVE:
+            case DROPBOX:
+            case BOX:
+            case ONEDRIVE:
+                return 2;
+            case OTG:
+            case ROOT:
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Submits a file to be copied. Blocks the caller while source or target, whichever has the
+     * lower {@link #getConcurrencyLimit(OpenMode)}, already has that many copies in progress.
+     *
+     * @param sourceMode open mode of the file copied
+     * @param targetMode open mode of the target the file is copied to
+     * @param task the copy to run
+     * @return false if operation was cancelled or interrupted before the task could be queued
+     */
+    public boolean submit(OpenMode sourceMode, OpenMode targetMode, final CopyTask task) {
+        if (progressHandler.getCancelled()) return false;
+
+        final Semaphore lane = getLane(getConcurrencyLimit(sourceMode) < getConcurrencyLimit(targetMode)
+                ? sourceMode : targetMode);
+        try {
+            lane.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                if (!progressHandler.getCancelled()) task.run();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to copy", e);
+                task.onFailed(e);
+            } finally {
+                lane.release();
+                if (pending.decrementAndGet() == 0) {
+                    synchronized (completionLock) {
+                        completionLock.notifyAll();
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Waits for every submitted copy to finish, and releases the worker threads.
+     * Further submissions aren't accepted.
+     */
+    public void awaitCompletion() {
+        synchronized (completionLock) {
+            while (pending.get() > 0) {
+                try {
+                    completionLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        executor.shutdown();
+    }
+
+    private synchronized Semaphore getLane(OpenMode mode) {
+        Semaphore lane = lanes.get(mode);
+        if (lane == null) {
+            lane = new Semaphore(getConcurrencyLimit(mode));
+            lanes.put(mode, lane);
+        }
+        return lane;
+    }
+
+    /**
+     * A single file copy to be run on a worker thread
+     */
+    public interface CopyTask {
+        void run() throws Exception;
+
+        /**
+         * Called on the worker thread if {@link #run()} threw
+         */
+        void onFailed(Exception e);
+    }
+}
@@ -0,0 +1,355 @@
+package com.amaze.filemanager.utils.files;
+
+import com.amaze.filemanager.utils.ProgressHandler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+/**
+ * Version 2 of the {@link CryptUtil#CRYPT_EXTENSION} format, which splits the file in chunks
+ * encrypted independently with AES/GCM, so that chunks are encrypted and decrypted on several
+ * cores at once, and any part of the file can be decrypted without decrypting what's before it.
+ *
+ * Layout is a {@link #HEADER_SIZE} bytes header followed by the chunks:
+ * <pre>
+ * header: "AZE" 0x02 | chunk size (int) | nonce prefix (7 random bytes) | reserved (1 byte, 0)
+ * chunk:  ciphertext of chunk size bytes, less for the last chunk | GCM tag ({@link #TAG_SIZE} bytes)
+ * </pre>
+ * Nonce of a chunk is the nonce prefix, a byte set to 1 only for the last chunk, and the index of
+ * the chunk (int). A file can't be cut at a chunk boundary, or have it's chunks reordered,
+ * without the tag check failing. There's always at least one chunk, empty files have an empty one.
+ *
+ * Files of version 1 are a single AES/GCM stream with a fixed IV and no header, see
+ * {@link CryptUtil}; {@link #isChunked(byte[], int)} tells them apart.
+ */
+public class CryptFormat {
+
+    public static final int HEADER_SIZE = 16;
+    public static final int TAG_SIZE = 16;
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private static final byte[] MAGIC = {'A', 'Z', 'E', 2};
+    private static final int NONCE_PREFIX_SIZE = 7;
+    private static final int NONCE_SIZE = 12;
+
+    // largest chunk size accepted from a header, so that a damaged file can't make us allocate anything
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private static final int PARALLELISM = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+
+    // number of chunks a single operation keeps in memory, being processed or waiting to be written
+    private static final int MAX_CHUNKS_IN_FLIGHT = PARALLELISM * 2;
+
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        executor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> new Thread(runnable, "crypt_worker"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param header first bytes of a file
+     * @param length number of bytes of header read
+     * @return whether the file is in this format, as opposed to the single stream of version 1
+     */
+    public static boolean isChunked(byte[] header, int length) {
+        if (length < HEADER_SIZE) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encrypts a stream, the header is written first. Chunks are encrypted in parallel.
+     *
+     * @param progressHandler plain bytes are added to it's progress as they're written; checked
+     *                        for cancellation between chunks
+     */
+    public static void encrypt(InputStream inputStream, OutputStream outputStream,
+                               final CipherFactory cipherFactory, ProgressHandler progressHandler)
+            throws GeneralSecurityException, IOException {
+        final Header header = Header.create(DEFAULT_CHUNK_SIZE);
+        outputStream.write(header.toBytes());
+
+        process(inputStream, outputStream, header.chunkSize, TAG_SIZE, progressHandler,
+                (index, last, chunk, length) -> {
+                    Cipher cipher = cipherFactory.create(Cipher.ENCRYPT_MODE, header.getNonce(index, last));
+                    return cipher.doFinal(chunk, 0, length);
+                });
+    }
+
+    /**
+     * Decrypts a stream, positioned right after the header. Chunks are decrypted in parallel.
+     *
+     * @param progressHandler plain bytes are added to it's progress as they're written; checked
+     *                        for cancellation between chunks
+     * @throws javax.crypto.AEADBadTagException if the file was modified or cut
+     */
+    public static void decrypt(InputStream inputStream, OutputStream outputStream, final Header header,
+                               final CipherFactory cipherFactory, ProgressHandler progressHandler)
+            throws GeneralSecurityException, IOException {
+        process(inputStream, outputStream, header.chunkSize + TAG_SIZE, 0, progressHandler,
+                (index, last, chunk, length) -> {
+                    if (length < TAG_SIZE) throw new EOFException("Chunk " + index + " is cut");
+                    Cipher cipher = cipherFactory.create(Cipher.DECRYPT_MODE, header.getNonce(index, last));
+                    return cipher.doFinal(chunk, 0, length);
+                });
+    }
+
+    /**
+     * Reads the stream in chunks, transforms them on the worker threads and writes the results in
+     * order. A chunk is only known to be the last one once the next read finds nothing, so the
+     * following chunk is always read before one is handed out.
+     *
+     * @param overhead bytes a transformed chunk has on top of the plain bytes, not counted as progress
+     */
+    private static void process(InputStream inputStream, OutputStream outputStream, int chunkSize,
+                                int overhead, ProgressHandler progressHandler, final ChunkTransform transform)
+            throws GeneralSecurityException, IOException {
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        try {
+            byte[] chunk = new byte[chunkSize];
+            int length = readFully(inputStream, chunk);
+
+            for (int index = 0; ; index++) {
+                if (progressHandler != null && progressHandler.getCancelled()) return;
+
+                byte[] nextChunk = null;
+                int nextLength = 0;
+                if (length == chunkSize) {
+                    nextChunk = new byte[chunkSize];
+                    nextLength = readFully(inputStream, nextChunk);
+                }
+                final boolean last = nextLength == 0;
+
+                final int chunkIndex = index;
+                final byte[] chunkData = chunk;
+                final int chunkLength = length;
+                pending.add(executor.submit(() -> transform.apply(chunkIndex, last, chunkData, chunkLength)));
+
+                while (pending.size() >= MAX_CHUNKS_IN_FLIGHT || (last && !pending.isEmpty())) {
+                    write(pending.poll(), outputStream, overhead, progressHandler);
+                }
+                if (last) return;
+
+                chunk = nextChunk;
+                length = nextLength;
+            }
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private static void write(Future<byte[]> future, OutputStream outputStream, int overhead,
+                              ProgressHandler progressHandler) throws GeneralSecurityException, IOException {
+        byte[] result = getResult(future);
+        outputStream.write(result);
+        if (progressHandler != null) progressHandler.addProgress(result.length - overhead);
+    }
+
+    private static byte[] getResult(Future<byte[]> future) throws GeneralSecurityException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeneralSecurityException) throw (GeneralSecurityException) cause;
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return number of bytes read, less than the buffer size only at the end of the stream
+     */
+    private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = inputStream.read(buffer, total, buffer.length - total);
+            if (read == -1) break;
+            total += read;
+        }
+        return total;
+    }
+
+    public static class Header {
+
+        public final int chunkSize;
+        private final byte[] noncePrefix;
+
+        private Header(int chunkSize, byte[] noncePrefix) {
+            this.chunkSize = chunkSize;
+            this.noncePrefix = noncePrefix;
+        }
+
+        static Header create(int chunkSize) {
+            byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+            new SecureRandom().nextBytes(noncePrefix);
+            return new Header(chunkSize, noncePrefix);
+        }
+
+        /**
+         * @param bytes at least {@link #HEADER_SIZE} bytes, from the start of the file
+         * @throws IOException if it isn't a valid header
+         */
+        public static Header parse(byte[] bytes, int length) throws IOException {
+            if (!isChunked(bytes, length)) throw new IOException("Not a chunked encrypted file");
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, MAGIC.length, HEADER_SIZE - MAGIC.length);
+            int chunkSize = buffer.getInt();
+            if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+                throw new IOException("Invalid chunk size " + chunkSize);
+            }
+            byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+            buffer.get(noncePrefix);
+            return new Header(chunkSize, noncePrefix);
+        }
+
+        byte[] toBytes() {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            buffer.put(MAGIC);
+            buffer.putInt(chunkSize);
+            buffer.put(noncePrefix);
+            buffer.put((byte) 0);
+            return buffer.array();
+        }
+
+        byte[] getNonce(int index, boolean last) {
+            ByteBuffer buffer = ByteBuffer.allocate(NONCE_SIZE);
+            buffer.put(noncePrefix);
+            buffer.put((byte) (last ? 1 : 0));
+            buffer.putInt(index);
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Decrypts any range of a chunked file, reading only the chunks the range is in. The most
+     * recently decrypted chunk is kept, so that sequential small reads decrypt each chunk once.
+     *
+     * Reads are positional, the channel may be shared; methods are synchronized.
+     */
+    public static class ChunkReader {
+
+        private final FileChannel channel;
+        private final CipherFactory cipherFactory;
+        private final Header header;
+        private final int chunkCount;
+        private final long length;
+
+        private int cachedIndex = -1;
+        private byte[] cachedChunk;
+
+        /**
+         * @throws IOException if the file isn't a chunked encrypted file, or it's size can't be one
+         */
+        public ChunkReader(FileChannel channel, CipherFactory cipherFactory) throws IOException {
+            this.channel = channel;
+            this.cipherFactory = cipherFactory;
+
+            ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(0, headerBuffer);
+            header = Header.parse(headerBuffer.array(), HEADER_SIZE);
+
+            long dataSize = channel.size() - HEADER_SIZE;
+            long encryptedChunkSize = header.chunkSize + TAG_SIZE;
+            long count = (dataSize + encryptedChunkSize - 1) / encryptedChunkSize;
+            if (count < 1 || count > Integer.MAX_VALUE
+                    || dataSize - (count - 1) * encryptedChunkSize < TAG_SIZE) {
+                throw new IOException("Invalid size of encrypted file");
+            }
+            chunkCount = (int) count;
+            length = dataSize - count * TAG_SIZE;
+        }
+
+        /**
+         * @return size of the plain file
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Reads plain bytes starting at a position
+         *
+         * @return number of bytes read, which is less than asked only at the end of the file;
+         * -1 if position is at the end
+         * @throws javax.crypto.AEADBadTagException if the chunk read was modified
+         */
+        public synchronized int read(long position, byte[] buffer, int offset, int count)
+                throws GeneralSecurityException, IOException {
+            if (position >= length) return -1;
+
+            int total = 0;
+            while (total < count && position < length) {
+                int index = (int) (position / header.chunkSize);
+                byte[] chunk = getChunk(index);
+                int chunkOffset = (int) (position - (long) index * header.chunkSize);
+                int copied = Math.min(count - total, chunk.length - chunkOffset);
+                System.arraycopy(chunk, chunkOffset, buffer, offset + total, copied);
+                total += copied;
+                position += copied;
+            }
+            return total;
+        }
+
+        private byte[] getChunk(int index) throws GeneralSecurityException, IOException {
+            if (index == cachedIndex) return cachedChunk;
+
+            long encryptedChunkSize = header.chunkSize + TAG_SIZE;
+            long start = HEADER_SIZE + index * encryptedChunkSize;
+            int size = (int) Math.min(encryptedChunkSize, channel.size() - start);
+            ByteBuffer encrypted = ByteBuffer.allocate(size);
+            readFully(start, encrypted);
+
+            boolean last = index == chunkCount - 1;
+            Cipher cipher = cipherFactory.create(Cipher.DECRYPT_MODE, header.getNonce(index, last));
+            cachedChunk = cipher.doFinal(encrypted.array(), 0, size);
+            cachedIndex = index;
+            return cachedChunk;
+        }
+
+        private void readFully(long position, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read == -1) throw new EOFException();
+                position += read;
+            }
+        }
+    }
+
+    /**
+     * Creates a cipher for a single chunk, ciphers aren't shared between threads
+     */
+    public interface CipherFactory {
+        /**
+         * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+         * @param nonce GCM nonce of the chunk
+         */
+        Cipher create(int mode, byte[] nonce) throws GeneralSecurityException;
+    }
+
+    private interface ChunkTransform {
+        byte[] apply(int index, boolean last, byte[] chunk, int length) throws GeneralSecurityException, IOException;
+    }
+}
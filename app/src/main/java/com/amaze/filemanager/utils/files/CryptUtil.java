@@ -23,6 +23,8 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
@@ -67,7 +69,8 @@ import javax.security.auth.x500.X500Principal;
  * From <i>new ones</i> we mean the ones when were encrypted after user changed preference
  * for master password/fingerprint sensor from settings.
  *
- * We use buffered streams to process files, usage of NIO will probably mildly effect the performance.
+ * Files are written in the chunked format of {@link CryptFormat}, encrypted on several cores.
+ * Files written before, as a single stream, are still decrypted.
  *
  * Be sure to use constructors to encrypt/decrypt files only, and to call service through
  * {@link ServiceWatcherUtil} and to initialize watchers beforehand
@@ -80,7 +83,7 @@ public class CryptUtil {
     private static final String KEY_STORE_ANDROID = "AndroidKeyStore";
     private static final String KEY_ALIAS_AMAZE = "AmazeKey";
     private static final String PREFERENCE_KEY = "aes_key";
-    // TODO: Generate a random IV every time, and keep track of it (in database against encrypted files)
+    // IV of passwords, and of files of version 1; files are now written in chunks, each with it's own nonce, see CryptFormat
     private static final String IV = "LxbHiJhhUXcj";    // 12 byte long IV supported by android for GCM
 
     public static final String CRYPT_EXTENSION = ".aze";
@@ -183,11 +186,43 @@ public class CryptUtil {
 
             if (progressHandler.getCancelled()) return;
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                aesDecrypt(inputStream, outputStream);
-            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                rsaDecrypt(context, inputStream, outputStream);
+            decrypt(context, inputStream, outputStream, progressHandler);
+        }
+    }
+
+    /**
+     * Decrypts an encrypted file of either version, as a stream. Both streams are closed.
+     *
+     * @param inputStream stream of the encrypted file, from it's start
+     * @param outputStream where the plain file is written
+     * @param progressHandler plain bytes written are added to it's progress, may be null
+     */
+    public static void decrypt(Context context, BufferedInputStream inputStream, OutputStream outputStream,
+                               ProgressHandler progressHandler) throws GeneralSecurityException, IOException {
+        // files of version 1 have no header, tell them apart by the first bytes
+        byte[] headerBytes = new byte[CryptFormat.HEADER_SIZE];
+        inputStream.mark(CryptFormat.HEADER_SIZE);
+        int headerLength = readFully(inputStream, headerBytes);
+
+        if (CryptFormat.isChunked(headerBytes, headerLength)) {
+            try {
+                CryptFormat.decrypt(inputStream, outputStream, CryptFormat.Header.parse(headerBytes, headerLength),
+                        getChunkCipherFactory(context), progressHandler);
+            } finally {
+                outputStream.close();
+                inputStream.close();
             }
+            return;
+        }
+
+        inputStream.reset();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            aesDecrypt(inputStream, outputStream, progressHandler);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            rsaDecrypt(context, inputStream, outputStream, progressHandler);
+        } else {
+            outputStream.close();
+            inputStream.close();
         }
     }
 
@@ -237,10 +272,11 @@ public class CryptUtil {
 
             if (progressHandler.getCancelled()) return;
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                aesEncrypt(inputStream, outputStream);
-            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                rsaEncrypt(context, inputStream, outputStream);
+            try {
+                CryptFormat.encrypt(inputStream, outputStream, getChunkCipherFactory(context), progressHandler);
+            } finally {
+                outputStream.close();
+                inputStream.close();
             }
         }
     }
@@ -274,48 +310,14 @@ public class CryptUtil {
         return new String(decryptedBytes);
     }
 
-    /**
-     * Helper method to encrypt a file
-     * @param inputStream stream associated with the file to be encrypted
-     * @param outputStream stream associated with new output encrypted file
-     */
-    @RequiresApi(api = Build.VERSION_CODES.M)
-    private static void aesEncrypt(BufferedInputStream inputStream, BufferedOutputStream outputStream)
-            throws GeneralSecurityException, IOException {
-
-        Cipher cipher = Cipher.getInstance(ALGO_AES);
-
-        GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(128, IV.getBytes());
-
-        cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(), gcmParameterSpec);
-
-        byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-        int count;
-
-        CipherOutputStream cipherOutputStream = new CipherOutputStream(outputStream, cipher);
-
-        try {
-
-            while ((count = inputStream.read(buffer)) != -1) {
-
-                cipherOutputStream.write(buffer, 0, count);
-                ServiceWatcherUtil.POSITION+=count;
-            }
-        } finally {
-
-            cipherOutputStream.flush();
-            cipherOutputStream.close();
-            inputStream.close();
-        }
-    }
-
     /**
      * Helper method to decrypt file
      * @param inputStream stream associated with encrypted file
      * @param outputStream stream associated with new output decrypted file
      */
     @RequiresApi(api = Build.VERSION_CODES.M)
-    private static void aesDecrypt(BufferedInputStream inputStream, BufferedOutputStream outputStream)
+    private static void aesDecrypt(BufferedInputStream inputStream, OutputStream outputStream,
+                                   ProgressHandler progressHandler)
             throws GeneralSecurityException, IOException {
 
         Cipher cipher = Cipher.getInstance(ALGO_AES);
@@ -332,7 +334,7 @@ public class CryptUtil {
             while ((count = cipherInputStream.read(buffer)) != -1) {
 
                 outputStream.write(buffer, 0, count);
-                ServiceWatcherUtil.POSITION+=count;
+                if (progressHandler != null) progressHandler.addProgress(count);
             }
         } finally {
 
@@ -342,6 +344,41 @@ public class CryptUtil {
         }
     }
 
+    /**
+     * Ciphers for the chunks of {@link CryptFormat}, with the key of this device. The key is
+     * looked up once, a new cipher is initialized for every chunk.
+     */
+    public static CryptFormat.CipherFactory getChunkCipherFactory(Context context)
+            throws GeneralSecurityException, IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            final Key key = getSecretKey();
+            return (mode, nonce) -> {
+                Cipher cipher = Cipher.getInstance(ALGO_AES);
+                cipher.init(mode, key, new GCMParameterSpec(128, nonce));
+                return cipher;
+            };
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            final Key key = new RSAKeygen(context).getSecretKey();
+            return (mode, nonce) -> {
+                Cipher cipher = Cipher.getInstance(ALGO_AES, "BC");
+                cipher.init(mode, key, new IvParameterSpec(nonce));
+                return cipher;
+            };
+        } else {
+            throw new GeneralSecurityException("Encryption isn't supported on this device");
+        }
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = inputStream.read(buffer, total, buffer.length - total);
+            if (read == -1) break;
+            total += read;
+        }
+        return total;
+    }
+
     /**
      * Gets a secret key from Android key store.
      * If no key has been generated with a given alias then generate a new one
@@ -376,38 +413,9 @@ public class CryptUtil {
         }
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
-    private static void rsaEncrypt(Context context, BufferedInputStream inputStream, BufferedOutputStream outputStream)
-            throws GeneralSecurityException, IOException {
-
-        Cipher cipher = Cipher.getInstance(ALGO_AES, "BC");
-        RSAKeygen keygen = new RSAKeygen(context);
-
-        IvParameterSpec ivParameterSpec = new IvParameterSpec(IV.getBytes());
-        cipher.init(Cipher.ENCRYPT_MODE, keygen.getSecretKey(), ivParameterSpec);
-
-        byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-        int count;
-
-        CipherOutputStream cipherOutputStream = new CipherOutputStream(outputStream, cipher);
-        try {
-
-            while ((count = inputStream.read(buffer)) != -1) {
-
-                cipherOutputStream.write(buffer, 0, count);
-                ServiceWatcherUtil.POSITION+=count;
-            }
-        } finally {
-
-            cipherOutputStream.flush();
-            cipherOutputStream.close();
-            inputStream.close();
-        }
-    }
-
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     private static void rsaDecrypt(Context context, BufferedInputStream inputStream,
-                                   BufferedOutputStream outputStream) throws GeneralSecurityException, IOException {
+                                   OutputStream outputStream, ProgressHandler progressHandler) throws GeneralSecurityException, IOException {
 
         Cipher cipher = Cipher.getInstance(ALGO_AES, "BC");
         RSAKeygen keygen = new RSAKeygen(context);
@@ -424,7 +432,7 @@ public class CryptUtil {
             while ((count = cipherInputStream.read(buffer)) != -1) {
 
                 outputStream.write(buffer, 0, count);
-                ServiceWatcherUtil.POSITION+=count;
+                if (progressHandler != null) progressHandler.addProgress(count);
             }
         } finally {
 
@@ -13,13 +13,16 @@ import com.amaze.filemanager.asynchronous.services.EncryptService;
 import com.amaze.filemanager.database.CryptHandler;
 import com.amaze.filemanager.database.models.EncryptedEntry;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.filesystem.compressed.CompressedHelper;
 import com.amaze.filemanager.fragments.MainFragment;
 import com.amaze.filemanager.fragments.preference_fragments.PreferencesConstants;
 import com.amaze.filemanager.ui.dialogs.GeneralDialogCreation;
+import com.amaze.filemanager.utils.DecryptedFileProvider;
 import com.amaze.filemanager.utils.OpenMode;
 import com.amaze.filemanager.utils.ServiceWatcherUtil;
 import com.amaze.filemanager.utils.provider.UtilitiesProviderInterface;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 
@@ -82,7 +85,16 @@ public class EncryptDecryptUtils {
                 new DecryptButtonCallbackInterface() {
                     @Override
                     public void confirm(Intent intent) {
-                        ServiceWatcherUtil.runService(main.getContext(), intent);
+                        if (broadcastResult && canOpenDecrypted(openMode, sourceFile.getPath())) {
+                            FileUtils.openDecrypted(new File(sourceFile.getPath()), mainActivity,
+                                    PreferenceManager.getDefaultSharedPreferences(mainActivity)
+                                            .getBoolean(PreferencesConstants.PREFERENCE_TEXTEDITOR_NEWSTACK, false));
+                            return;
+                        }
+
+                        // user is waiting on the file to open, decrypting to cache jumps the queue
+                        ServiceWatcherUtil.runService(main.getContext(), intent, broadcastResult ?
+                                ServiceWatcherUtil.PRIORITY_HIGH : ServiceWatcherUtil.PRIORITY_NORMAL);
                     }
 
                     @Override
@@ -130,6 +142,19 @@ public class EncryptDecryptUtils {
         }
     }
 
+    /**
+     * Whether an encrypted file can be opened through {@link DecryptedFileProvider}, rather than
+     * decrypted to cache first. Only files on local storage can, and not the ones Amaze opens
+     * itself: archives, databases and packages are read from a decrypted copy.
+     */
+    public static boolean canOpenDecrypted(OpenMode openMode, String path) {
+        if (openMode != OpenMode.FILE) return false;
+
+        String plainPath = path.substring(0, path.length() - CryptUtil.CRYPT_EXTENSION.length()).toLowerCase();
+        return !CompressedHelper.isFileExtractable(plainPath) && !plainPath.endsWith(".db")
+                && !plainPath.endsWith(".apk");
+    }
+
     /**
      * Queries database to find entry for the specific path
      *
@@ -0,0 +1,282 @@
+package com.amaze.filemanager.utils.files;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.filesystem.ssh.SFtpClientTemplate;
+import com.amaze.filemanager.filesystem.ssh.SshClientUtils;
+import com.amaze.filemanager.utils.OpenMode;
+
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import jcifs.smb.SmbFile;
+
+/**
+ * Computes several hashes of a file while reading it once, each buffer read is fed to every
+ * digest before the next one is read.
+ *
+ * Hashes are cached by path, size and last modified time, so that opening properties of the same
+ * unchanged file again doesn't read it again. These are read from the file when it's hashed, not
+ * taken from a listing which may be out of date; files which can't be read this way aren't cached.
+ */
+public class FileHasher {
+
+    public static final String MD5 = "MD5";
+    public static final String SHA1 = "SHA-1";
+    public static final String SHA256 = "SHA-256";
+    public static final String CRC_32 = "CRC32";
+
+    // size of buffer a file is read in, large enough to keep the number of reads low on big files
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // number of files whose hashes are kept
+    private static final int CACHE_SIZE = 64;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final LruCache<String, HashMap<String, String>> cache = new LruCache<>(CACHE_SIZE);
+
+    /**
+     * Hashes a file, or returns the cached hashes if the file hasn't changed since
+     *
+     * @param algorithms any of {@link #MD5}, {@link #SHA1}, {@link #SHA256}, {@link #CRC_32}
+     * @param listener to report progress to and check for cancellation, may be null
+     * @return hex encoded hashes by algorithm, or null if cancelled
+     */
+    public static HashMap<String, String> hash(Context context, HybridFileParcelable file,
+                                               String[] algorithms, HashListener listener)
+            throws IOException, NoSuchAlgorithmException {
+
+        String key = getKey(file);
+        if (key != null) {
+            synchronized (cache) {
+                HashMap<String, String> hashes = cache.get(key);
+                if (hashes != null && hashes.keySet().containsAll(Arrays.asList(algorithms))) {
+                    return hashes;
+                }
+            }
+        }
+
+        HashMap<String, String> hashes;
+        if (file.getMode() == OpenMode.FILE) {
+            FileInputStream inputStream = new FileInputStream(file.getPath());
+            try {
+                hashes = hash(inputStream.getChannel(), algorithms, listener);
+            } finally {
+                inputStream.close();
+            }
+        } else {
+            InputStream inputStream = file.getInputStream(context);
+            if (inputStream == null) throw new IOException("Can't read " + file.getPath());
+            try {
+                hashes = hash(inputStream, algorithms, listener);
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        if (hashes != null && key != null) {
+            synchronized (cache) {
+                cache.put(key, hashes);
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Hashes several files one after another, directories are skipped
+     *
+     * @param listener progress is reported over all the files
+     * @param callback called with hashes of each file, or the error it failed with
+     */
+    public static void hash(Context context, List<HybridFileParcelable> files, String[] algorithms,
+                            HashListener listener, BatchCallback callback) {
+        for (HybridFileParcelable file : files) {
+            if (listener != null && listener.isCancelled()) return;
+            if (file.isDirectory()) continue;
+
+            try {
+                HashMap<String, String> hashes = hash(context, file, algorithms, listener);
+                if (hashes != null) callback.onHashed(file, hashes);
+            } catch (IOException | NoSuchAlgorithmException e) {
+                callback.onFailed(file, e);
+            }
+        }
+    }
+
+    /**
+     * @return key of the file's hashes, from it's length and last modified time as they are now,
+     * or null if these can't be read
+     */
+    private static String getKey(HybridFileParcelable file) {
+        long length, lastModified;
+        try {
+            switch (file.getMode()) {
+                case FILE:
+                    File localFile = new File(file.getPath());
+                    length = localFile.length();
+                    lastModified = localFile.lastModified();
+                    break;
+                case SMB:
+                    // a new SmbFile holds no attributes, so these are queried
+                    SmbFile smbFile = new SmbFile(file.getPath());
+                    length = smbFile.length();
+                    lastModified = smbFile.lastModified();
+                    break;
+                case SFTP:
+                    FileAttributes attributes = SshClientUtils.execute(new SFtpClientTemplate(file.getPath()) {
+                        @Override
+                        public FileAttributes execute(SFTPClient client) throws IOException {
+                            return client.stat(SshClientUtils.extractRemotePathFrom(file.getPath()));
+                        }
+                    });
+                    if (attributes == null) return null;
+                    length = attributes.getSize();
+                    lastModified = attributes.getMtime() * 1000;
+                    break;
+                default:
+                    return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        // without a time a file changed in place can't be told apart
+        if (lastModified == 0) return null;
+        return file.getPath() + "\u0000" + length + "\u0000" + lastModified;
+    }
+
+    /**
+     * Reads a local file through a direct buffer, which the channel can fill without copying
+     */
+    private static HashMap<String, String> hash(FileChannel channel, String[] algorithms,
+                                                HashListener listener)
+            throws IOException, NoSuchAlgorithmException {
+        Digests digests = new Digests(algorithms);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        byte[] bytes = digests.crc32 != null ? new byte[BUFFER_SIZE] : null;
+
+        while (channel.read(buffer) != -1) {
+            if (listener != null && listener.isCancelled()) return null;
+
+            buffer.flip();
+            int length = buffer.remaining();
+            if (bytes != null) {
+                // CRC32 can't take a ByteBuffer before API 26
+                buffer.get(bytes, 0, length);
+                digests.update(bytes, length);
+            } else {
+                digests.update(buffer);
+            }
+            buffer.clear();
+
+            if (listener != null) listener.onProgress(length);
+        }
+        return digests.finish();
+    }
+
+    private static HashMap<String, String> hash(InputStream inputStream, String[] algorithms,
+                                                HashListener listener)
+            throws IOException, NoSuchAlgorithmException {
+        Digests digests = new Digests(algorithms);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+
+        while ((length = inputStream.read(buffer)) != -1) {
+            if (listener != null && listener.isCancelled()) return null;
+
+            if (length > 0) {
+                digests.update(buffer, length);
+                if (listener != null) listener.onProgress(length);
+            }
+        }
+        return digests.finish();
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * The digests being computed over a file
+     */
+    private static class Digests {
+
+        private final String[] algorithms;
+        private final MessageDigest[] messageDigests;
+        private CRC32 crc32;
+
+        Digests(String[] algorithms) throws NoSuchAlgorithmException {
+            this.algorithms = algorithms;
+            messageDigests = new MessageDigest[algorithms.length];
+            for (int i = 0; i < algorithms.length; i++) {
+                if (CRC_32.equals(algorithms[i])) crc32 = new CRC32();
+                else messageDigests[i] = MessageDigest.getInstance(algorithms[i]);
+            }
+        }
+
+        void update(byte[] bytes, int length) {
+            for (MessageDigest digest : messageDigests) {
+                if (digest != null) digest.update(bytes, 0, length);
+            }
+            if (crc32 != null) crc32.update(bytes, 0, length);
+        }
+
+        void update(ByteBuffer buffer) {
+            for (MessageDigest digest : messageDigests) {
+                if (digest != null) {
+                    buffer.mark();
+                    digest.update(buffer);
+                    buffer.reset();
+                }
+            }
+        }
+
+        HashMap<String, String> finish() {
+            HashMap<String, String> hashes = new HashMap<>();
+            for (int i = 0; i < algorithms.length; i++) {
+                if (messageDigests[i] != null) {
+                    hashes.put(algorithms[i], toHex(messageDigests[i].digest()));
+                } else {
+                    hashes.put(algorithms[i], String.format("%08x", crc32.getValue()));
+                }
+            }
+            return hashes;
+        }
+    }
+
+    public interface HashListener {
+        boolean isCancelled();
+
+        /**
+         * @param length number of bytes hashed since last call
+         */
+        void onProgress(long length);
+    }
+
+    public interface BatchCallback {
+        void onHashed(HybridFileParcelable file, HashMap<String, String> hashes);
+
+        void onFailed(HybridFileParcelable file, Exception e);
+    }
+}
@@ -0,0 +1,239 @@
+package com.amaze.filemanager.utils.files;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import com.amaze.filemanager.asynchronous.asynctasks.SearchAsyncTask;
+import com.amaze.filemanager.database.FileIndexHandler;
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.filesystem.RootHelper;
+import com.amaze.filemanager.utils.OnFileFound;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps an index of file names on internal storage in {@link FileIndexHandler}, so that a name
+ * search comes back from a database query instead of a walk over the whole storage.
+ *
+ * Index is updated incrementally on a single background thread: a directory is only read again
+ * once it's last modified time has changed since it was indexed. An update is requested after
+ * every search, and a while after MediaStore reports a change. Directories the user is looking at
+ * are re-indexed shortly after {@link com.amaze.filemanager.filesystem.CustomFileObserver} reports
+ * a change, once for a burst of changes.
+ *
+ * A directory is only searched through the index once a walk has covered everything under it, so
+ * a first update which is still running, or was cut short, doesn't give partial results.
+ */
+public class FileIndexer {
+
+    private static final String TAG = "FileIndexer";
+
+    // time to wait for MediaStore changes to settle before updating the index
+    private static final long MEDIA_CHANGE_DELAY = 10 * 1000;
+
+    // time to wait for more changes in watched directories before re-indexing them
+    private static final long DIRECTORY_CHANGE_DELAY = 1000;
+
+    private static FileIndexer sInstance;
+
+    private final FileIndexHandler indexHandler;
+    private final String root;
+    private final AtomicBoolean updating = new AtomicBoolean(false);
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable updateRunnable = this::requestUpdate;
+    private final Runnable indexChangedRunnable = this::indexChangedDirectories;
+
+    // all writes to the index happen on this thread, one at a time
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "file_indexer");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // directories reported changed, not yet re-indexed
+    private final LinkedHashSet<String> changedDirectories = new LinkedHashSet<>();
+
+    private FileIndexer(Context context) {
+        indexHandler = new FileIndexHandler(context);
+        root = Environment.getExternalStorageDirectory().getPath();
+
+        context.getContentResolver().registerContentObserver(MediaStore.Files.getContentUri("external"),
+                true, new ContentObserver(handler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        handler.removeCallbacks(updateRunnable);
+                        handler.postDelayed(updateRunnable, MEDIA_CHANGE_DELAY);
+                    }
+                });
+    }
+
+    public static synchronized FileIndexer getInstance(Context context) {
+        if (sInstance == null) sInstance = new FileIndexer(context.getApplicationContext());
+        return sInstance;
+    }
+
+    /**
+     * Whether files under path can be searched with {@link #search}. Only directories on internal
+     * storage which have been indexed completely, along with everything under them, can be.
+     */
+    public boolean canSearch(String path) {
+        path = new File(path).getPath();
+        return isUnderRoot(path) && indexHandler.isComplete(path);
+    }
+
+    /**
+     * Searches the index for files under a directory
+     *
+     * @param path     the directory to search in
+     * @param nameText text any matching name contains, ASCII letters compared ignoring case;
+     *                 narrows down the names passed to filter. Null to pass every name
+     * @param filter   decides which names match
+     * @param listener called with each file which matched, and still exists
+     * @param cancelled checked between files, stops the search once it returns true
+     */
+    public void search(String path, String nameText, SearchAsyncTask.SearchFilter filter, OnFileFound listener,
+                       CancelSignal cancelled) {
+        indexHandler.query(new File(path).getPath(), nameText, (filePath, name) -> {
+            if (cancelled.isCancelled()) return false;
+
+            if (filter.searchFilter(name)) {
+                File file = new File(filePath);
+                // index may be behind the filesystem, don't show what's gone
+                if (file.exists()) {
+                    HybridFileParcelable baseFile = RootHelper.generateBaseFile(file, true);
+                    if (baseFile != null) listener.onFileFound(baseFile);
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Starts updating the index in background, unless an update is already running
+     */
+    public void requestUpdate() {
+        if (!updating.compareAndSet(false, true)) return;
+
+        executor.execute(() -> {
+            try {
+                long time = System.currentTimeMillis();
+                update(new File(root));
+                Log.d(TAG, "Index updated in " + (System.currentTimeMillis() - time) + "ms");
+            } catch (RuntimeException e) {
+                // database or storage gone away, we'll try again next time
+                Log.e(TAG, "Failed to update index", e);
+            } finally {
+                updating.set(false);
+            }
+        });
+    }
+
+    /**
+     * Re-indexes a single directory, whose children have changed, once no more changes were
+     * reported for {@link #DIRECTORY_CHANGE_DELAY}, along with any new directories in it.
+     * Ignored for directories which aren't indexed, those are picked up by next update.
+     */
+    public void onDirectoryChanged(final String path) {
+        if (path == null || !isUnderRoot(path)) return;
+
+        synchronized (changedDirectories) {
+            changedDirectories.add(path);
+        }
+        handler.removeCallbacks(indexChangedRunnable);
+        handler.postDelayed(indexChangedRunnable, DIRECTORY_CHANGE_DELAY);
+    }
+
+    private void indexChangedDirectories() {
+        final ArrayList<String> paths;
+        synchronized (changedDirectories) {
+            paths = new ArrayList<>(changedDirectories);
+            changedDirectories.clear();
+        }
+
+        executor.execute(() -> {
+            for (String path : paths) {
+                try {
+                    if (indexHandler.isIndexed(path)) indexChangedDirectory(new File(path));
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to update index for " + path, e);
+                }
+            }
+        });
+    }
+
+    private void indexChangedDirectory(File directory) {
+        ArrayList<String> childDirectories = indexDirectory(directory);
+        if (childDirectories == null) {
+            indexHandler.removeDirectory(directory.getPath());
+            return;
+        }
+
+        // directories created or moved in have to be walked before this one is complete again
+        for (String childDirectory : childDirectories) {
+            if (!indexHandler.isIndexed(childDirectory)) update(new File(childDirectory));
+        }
+        indexHandler.setComplete(directory.getPath());
+    }
+
+    /**
+     * Walks the directory tree, reading only the directories which changed since they were indexed.
+     * Each directory is marked complete once the walk under it has finished.
+     */
+    private void update(File directory) {
+        String path = directory.getPath();
+        long date = directory.lastModified();
+
+        ArrayList<String> childDirectories;
+        if (date != 0 && date == indexHandler.getDirectoryDate(path)) {
+            // children are the same as when we indexed it
+            childDirectories = indexHandler.getChildDirectories(path);
+        } else {
+            childDirectories = indexDirectory(directory);
+            if (childDirectories == null) {
+                // we can't read it anymore
+                indexHandler.removeDirectory(path);
+                return;
+            }
+        }
+
+        for (String childDirectory : childDirectories) {
+            update(new File(childDirectory));
+        }
+        indexHandler.setComplete(path);
+    }
+
+    /**
+     * @return paths of the child directories, or null if the directory can't be listed
+     */
+    private ArrayList<String> indexDirectory(File directory) {
+        long date = directory.lastModified();
+        File[] children = directory.listFiles();
+        if (children == null) return null;
+
+        indexHandler.setDirectory(directory.getPath(), date, children);
+
+        ArrayList<String> childDirectories = new ArrayList<>();
+        for (File child : children) {
+            if (child.isDirectory()) childDirectories.add(child.getPath());
+        }
+        return childDirectories;
+    }
+
+    private boolean isUnderRoot(String path) {
+        return path.equals(root) || path.startsWith(root + "/");
+    }
+
+    public interface CancelSignal {
+        boolean isCancelled();
+    }
+}
@@ -51,12 +51,14 @@ import com.amaze.filemanager.activities.DatabaseViewerActivity;
 import com.amaze.filemanager.activities.MainActivity;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.filesystem.compressed.CompressedHelper;
 import com.amaze.filemanager.fragments.preference_fragments.PreferencesConstants;
 import com.amaze.filemanager.ui.dialogs.GeneralDialogCreation;
 import com.amaze.filemanager.ui.icons.Icons;
 import com.amaze.filemanager.ui.icons.MimeTypes;
 import com.amaze.filemanager.utils.application.AppConfig;
 import com.amaze.filemanager.utils.DataUtils;
+import com.amaze.filemanager.utils.DecryptedFileProvider;
 import com.amaze.filemanager.utils.OTGUtil;
 import com.amaze.filemanager.utils.OnFileFound;
 import com.amaze.filemanager.utils.OnProgressUpdate;
@@ -366,6 +368,30 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Open an encrypted file on local storage, it's read decrypted through
+     * {@link DecryptedFileProvider} by the app opening it
+     * @param f the encrypted file, which the user has given the password of
+     */
+    public static void openDecrypted(File f, Context c, boolean useNewStack) {
+        Intent intent = new Intent();
+        intent.setAction(Intent.ACTION_VIEW);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+        String plainName = f.getName().substring(0, f.getName().length() - CryptUtil.CRYPT_EXTENSION.length());
+        String type = MimeTypes.getMimeType(new File(plainName));
+        if (type == null || type.trim().length() == 0) type = MimeTypes.ALL_MIME_TYPES;
+        intent.setDataAndType(DecryptedFileProvider.getUri(f.getPath()), type);
+        if (useNewStack) applyNewDocFlag(intent);
+
+        try {
+            c.startActivity(intent);
+        } catch (ActivityNotFoundException e) {
+            e.printStackTrace();
+            Toast.makeText(c, R.string.noappfound, Toast.LENGTH_SHORT).show();
+        }
+    }
+
     /**
      * Open file from OTG
      */
@@ -662,10 +688,8 @@ public class FileUtils {
         final Toast[] studioCount = {null};
 
         if (defaultHandler && f.getName().toLowerCase().endsWith(".zip") ||
-                f.getName().toLowerCase().endsWith(".jar") ||
-                f.getName().toLowerCase().endsWith(".rar")||
-                f.getName().toLowerCase().endsWith(".tar") ||
-                f.getName().toLowerCase().endsWith(".tar.gz")) {
+                !f.getName().toLowerCase().endsWith(".zip") && !f.getName().toLowerCase().endsWith(".apk")
+                        && CompressedHelper.isFileExtractable(f.getPath())) {
             GeneralDialogCreation.showArchiveDialog(f, m);
         } else if(f.getName().toLowerCase().endsWith(".apk")) {
             GeneralDialogCreation.showPackageDialog(sharedPrefs, f, m);
@@ -811,6 +835,14 @@ public class FileUtils {
         return b;
     }
 
+    // SimpleDateFormat isn't thread safe, and too costly to create for every line of ls output
+    private static final ThreadLocal<SimpleDateFormat> LS_DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy-MM-dd | HH:mm");
+        }
+    };
+
     /**
      * We're parsing a line returned from a stdout of shell.
      * @param line must be the line returned from a 'ls' command
@@ -850,8 +882,7 @@ public class FileUtils {
         long Size = (size==null || size.trim().length()==0)?-1:Long.parseLong(size);
         if(date.trim().length()>0) {
             ParsePosition pos = new ParsePosition(0);
-            SimpleDateFormat simpledateformat = new SimpleDateFormat("yyyy-MM-dd | HH:mm");
-            Date stringDate = simpledateformat.parse(date, pos);
+            Date stringDate = LS_DATE_FORMAT.get().parse(date, pos);
             HybridFileParcelable baseFile=new HybridFileParcelable(name.toString(),array[0],stringDate.getTime(),Size,true);
             baseFile.setLink(link.toString());
             return baseFile;
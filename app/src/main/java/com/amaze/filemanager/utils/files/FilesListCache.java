@@ -0,0 +1,173 @@
+package com.amaze.filemanager.utils.files;
+
+import android.util.LruCache;
+
+import com.amaze.filemanager.adapters.data.LayoutElementParcelable;
+import com.amaze.filemanager.utils.OpenMode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Keeps the listings of recently visited directories, so that going back to them or switching
+ * tabs doesn't read the whole directory again.
+ *
+ * A local listing is valid as long as the directory's last modified time hasn't changed since
+ * it was listed, and until {@link com.amaze.filemanager.filesystem.CustomFileObserver} reports
+ * a change in it, for at most {@link #LOCAL_TTL}; files rewritten in place don't change the
+ * directory's time. A remote listing (SFTP, OTG, cloud) is valid for {@link #REMOTE_TTL}.
+ * SMB listings are cached by {@link com.amaze.filemanager.filesystem.smb.SmbListing} instead,
+ * with times to live set per server, and dropped on changes made through the app.
+ *
+ * Whatever the app changes drops the listings it affects, see {@link #invalidateFile(String)}.
+ *
+ * Cached lists are copied in and out, as the list shown by the fragment is modified in place.
+ */
+public class FilesListCache {
+
+    // number of directory listings kept
+    private static final int MAX_ENTRIES = 32;
+
+    // time in millis for which a listing from a remote source is assumed to be up to date
+    public static final long REMOTE_TTL = 60 * 1000;
+
+    // time in millis after which a local listing is read again, even if the directory is unchanged
+    public static final long LOCAL_TTL = 10 * 1000;
+
+    private static FilesListCache sInstance;
+
+    private final LruCache<String, Entry> cache = new LruCache<>(MAX_ENTRIES);
+
+    private FilesListCache() {
+    }
+
+    public static synchronized FilesListCache getInstance() {
+        if (sInstance == null) sInstance = new FilesListCache();
+        return sInstance;
+    }
+
+    /**
+     * @param openMode mode the directory is requested in, {@link OpenMode#UNKNOWN} matches any
+     * @return the cached listing, or null if there is none, or it's no longer up to date
+     */
+    public synchronized Entry get(OpenMode openMode, String path, boolean showHidden,
+                                  int dirsOnTop, int sortBy, int asc) {
+
+        String key = getKey(path, showHidden, dirsOnTop, sortBy, asc);
+        Entry entry = cache.get(key);
+        if (entry == null) return null;
+
+        if (openMode != OpenMode.UNKNOWN && openMode != entry.openMode) return null;
+
+        if (!entry.isValid(path)) {
+            cache.remove(key);
+            return null;
+        }
+        return entry.copy();
+    }
+
+    public synchronized void put(OpenMode openMode, String path, boolean showHidden, int dirsOnTop,
+                                 int sortBy, int asc, ArrayList<LayoutElementParcelable> elements,
+                                 int folderCount, int fileCount) {
+
+        long lastModified = 0;
+        switch (openMode) {
+            case FILE:
+            case ROOT:
+                lastModified = new File(path).lastModified();
+                // without a valid time we'd never know the listing went stale
+                if (lastModified == 0) return;
+                break;
+            case SFTP:
+            case OTG:
+            case GDRIVE:
+            case DROPBOX:
+            case BOX:
+            case ONEDRIVE:
+                break;
+            default:
+                // media lists are queried from MediaStore, these aren't tied to a directory;
+                // SMB listings are kept by SmbListing
+                return;
+        }
+
+        cache.put(getKey(path, showHidden, dirsOnTop, sortBy, asc), new Entry(openMode,
+                new ArrayList<>(elements), folderCount, fileCount, lastModified,
+                System.currentTimeMillis()));
+    }
+
+    /**
+     * Drops the listings of a directory, for every sort mode it was listed with
+     */
+    public synchronized void invalidate(String path) {
+        String prefix = normalize(path) + "\u0000";
+        for (Map.Entry<String, Entry> entry : cache.snapshot().entrySet()) {
+            if (entry.getKey().startsWith(prefix)) cache.remove(entry.getKey());
+        }
+    }
+
+    /**
+     * Drops the listings of the directory the file is in, and of the file if it's a directory.
+     * To be called once the app has created, written, renamed or deleted it.
+     */
+    public synchronized void invalidateFile(String path) {
+        String normalized = normalize(path);
+        invalidate(normalized);
+
+        int index = normalized.lastIndexOf('/');
+        if (index > 0) invalidate(normalized.substring(0, index));
+        else if (index == 0) invalidate("/");
+    }
+
+    public synchronized void clear() {
+        cache.evictAll();
+    }
+
+    private static String getKey(String path, boolean showHidden, int dirsOnTop, int sortBy, int asc) {
+        return normalize(path) + "\u0000" + showHidden + "/" + dirsOnTop + "/" + sortBy + "/" + asc;
+    }
+
+    // the same directory is listed with or without a trailing separator, depending on the mode
+    private static String normalize(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    /**
+     * A cached directory listing
+     */
+    public static class Entry {
+
+        public final OpenMode openMode;
+        public final ArrayList<LayoutElementParcelable> elements;
+        public final int folderCount, fileCount;
+
+        private final long lastModified, cachedTime;
+
+        private Entry(OpenMode openMode, ArrayList<LayoutElementParcelable> elements, int folderCount,
+                      int fileCount, long lastModified, long cachedTime) {
+            this.openMode = openMode;
+            this.elements = elements;
+            this.folderCount = folderCount;
+            this.fileCount = fileCount;
+            this.lastModified = lastModified;
+            this.cachedTime = cachedTime;
+        }
+
+        private boolean isValid(String path) {
+            switch (openMode) {
+                case FILE:
+                case ROOT:
+                    return new File(path).lastModified() == lastModified
+                            && System.currentTimeMillis() - cachedTime < LOCAL_TTL;
+                default:
+                    return System.currentTimeMillis() - cachedTime < REMOTE_TTL;
+            }
+        }
+
+        private Entry copy() {
+            return new Entry(openMode, new ArrayList<>(elements), folderCount, fileCount,
+                    lastModified, cachedTime);
+        }
+    }
+}
@@ -5,15 +5,14 @@ import android.content.Context;
 import android.support.v4.provider.DocumentFile;
 import android.util.Log;
 
-import com.amaze.filemanager.R;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.filesystem.FileUtil;
-import com.amaze.filemanager.utils.application.AppConfig;
 import com.amaze.filemanager.filesystem.HybridFile;
+import com.amaze.filemanager.filesystem.ssh.SftpTransfer;
 import com.amaze.filemanager.utils.DataUtils;
 import com.amaze.filemanager.utils.OTGUtil;
 import com.amaze.filemanager.utils.OpenMode;
-import com.amaze.filemanager.utils.ServiceWatcherUtil;
+import com.amaze.filemanager.utils.ProgressHandler;
 import com.amaze.filemanager.utils.cloud.CloudUtil;
 import com.cloudrail.si.interfaces.CloudStorage;
 
@@ -24,11 +23,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
 
 /**
  * Created by vishal on 26/10/16.
@@ -46,20 +43,40 @@ public class GenericCopyUtil {
 
     public static final int DEFAULT_BUFFER_SIZE =  8192;
 
-    public GenericCopyUtil(Context context) {
+    // size of a single memory mapped region / transfer chunk, channels are never mapped as a whole
+    public static final long DEFAULT_WINDOW_SIZE = 8 * 1024 * 1024;
+
+    private long mWindowSize;
+    // size of the reads and writes of streams, each is a request of it's own on SFTP
+    private int mBufferSize = DEFAULT_BUFFER_SIZE;
+    private ProgressHandler mProgressHandler;
+
+    /**
+     * @param progressHandler handler of the operation this copy is part of, copied bytes are added to it
+     */
+    public GenericCopyUtil(Context context, ProgressHandler progressHandler) {
+        this(context, progressHandler, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param progressHandler handler of the operation this copy is part of, copied bytes are added to it
+     * @param windowSize size of each region of the file mapped in memory, or transferred between
+     *                   two channels at a time. Bounds the memory used by copy irrespective of file size
+     */
+    public GenericCopyUtil(Context context, ProgressHandler progressHandler, long windowSize) {
         this.mContext = context;
+        this.mProgressHandler = progressHandler;
+        this.mWindowSize = Math.max(windowSize, DEFAULT_BUFFER_SIZE);
     }
 
     /**
      * Starts copy of file
      * Supports : {@link File}, {@link jcifs.smb.SmbFile}, {@link DocumentFile}, {@link CloudStorage}
-     * @param lowOnMemory defines whether system is running low on memory, in which case we'll switch to
-     *                    using streams instead of channel which maps the who buffer in memory.
-     *                    TODO: Use buffers even on low memory but don't map the whole file to memory but
-     *                          parts of it, and transfer each part instead.
+     * Channels are mapped in windows of {@link #mWindowSize} so that memory usage stays flat
+     * even for very large files
      * @throws IOException
      */
-    private void startCopy(boolean lowOnMemory) throws IOException {
+    private void startCopy() throws IOException {
 
         FileInputStream inputStream = null;
         FileOutputStream outputStream = null;
@@ -68,6 +85,10 @@ public class GenericCopyUtil {
         BufferedInputStream bufferedInputStream = null;
         BufferedOutputStream bufferedOutputStream = null;
 
+        // many SFTP requests are kept in flight, in chunks as big as servers take
+        mBufferSize = mSourceFile.isSftp() || mTargetFile.isSftp()
+                ? SftpTransfer.BUFFER_SIZE : DEFAULT_BUFFER_SIZE;
+
         try {
 
             // initializing the input channels based on file types
@@ -84,7 +105,7 @@ public class GenericCopyUtil {
                 // source is in smb
                 bufferedInputStream = new BufferedInputStream(mSourceFile.getInputStream(), DEFAULT_BUFFER_SIZE);
             } else if (mSourceFile.isSftp()) {
-                bufferedInputStream = new BufferedInputStream(mSourceFile.getInputStream(mContext), DEFAULT_BUFFER_SIZE);
+                bufferedInputStream = new BufferedInputStream(mSourceFile.getInputStream(mContext), mBufferSize);
             } else if (mSourceFile.isDropBoxFile()) {
 
                 CloudStorage cloudStorageDropbox = dataUtils.getAccount(OpenMode.DROPBOX);
@@ -118,8 +139,7 @@ public class GenericCopyUtil {
                     if (mTargetFile.isOneDriveFile()
                             || mTargetFile.isDropBoxFile()
                             || mTargetFile.isGoogleDriveFile()
-                            || mTargetFile.isBoxFile()
-                            || lowOnMemory) {
+                            || mTargetFile.isBoxFile()) {
                         // our target is cloud, we need a stream not channel
                         bufferedInputStream = new BufferedInputStream(new FileInputStream(file));
                     } else {
@@ -148,7 +168,7 @@ public class GenericCopyUtil {
                 bufferedOutputStream = new BufferedOutputStream(contentResolver
                         .openOutputStream(documentTargetFile.getUri()), DEFAULT_BUFFER_SIZE);
             } else if (mTargetFile.isSftp()) {
-                bufferedOutputStream = new BufferedOutputStream(mTargetFile.getOutputStream(mContext), DEFAULT_BUFFER_SIZE);
+                bufferedOutputStream = new BufferedOutputStream(mTargetFile.getOutputStream(mContext), mBufferSize);
             } else if (mTargetFile.isSmb()) {
 
                 bufferedOutputStream = new BufferedOutputStream(mTargetFile.getOutputStream(mContext), DEFAULT_BUFFER_SIZE);
@@ -217,12 +237,7 @@ public class GenericCopyUtil {
                 File file = new File(mTargetFile.getPath());
                 if (FileUtil.isWritable(file)) {
 
-                    if (lowOnMemory) {
-                        bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(file));
-                    } else {
-
-                        outChannel = new RandomAccessFile(file, "rw").getChannel();
-                    }
+                    outChannel = new RandomAccessFile(file, "rw").getChannel();
                 } else {
                     ContentResolver contentResolver = mContext.getContentResolver();
                     DocumentFile documentTargetFile = FileUtil.getDocumentFile(file,
@@ -247,13 +262,6 @@ public class GenericCopyUtil {
             e.printStackTrace();
             Log.d(getClass().getSimpleName(), "I/O Error!");
             throw new IOException();
-        } catch (OutOfMemoryError e) {
-            e.printStackTrace();
-
-            // we ran out of memory to map the whole channel, let's switch to streams
-            AppConfig.toast(mContext, mContext.getResources().getString(R.string.copy_low_memory));
-
-            startCopy(true);
         } finally {
 
             try {
@@ -280,40 +288,97 @@ public class GenericCopyUtil {
         this.mSourceFile = sourceFile;
         this.mTargetFile = targetFile;
 
-        startCopy(false);
+        startCopy();
     }
 
     private void copyFile(BufferedInputStream bufferedInputStream, FileChannel outChannel)
             throws IOException {
 
-        MappedByteBuffer byteBuffer = outChannel.map(FileChannel.MapMode.READ_WRITE, 0,
-                mSourceFile.getSize());
+        long position = 0;
         int count = 0;
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+        byte[] buffer = new byte[mBufferSize];
+        MappedByteBuffer byteBuffer = null;
         while (count != -1) {
 
             count = bufferedInputStream.read(buffer);
             if (count!=-1) {
 
-                byteBuffer.put(buffer, 0, count);
-                ServiceWatcherUtil.POSITION+=count;
+                int offset = 0;
+                while (offset < count) {
+                    if (byteBuffer == null || !byteBuffer.hasRemaining()) {
+                        // slide the window ahead, stream may turn out longer than the reported size
+                        long remaining = Math.max(mSourceFile.getSize() - position, count - offset);
+                        byteBuffer = map(outChannel, FileChannel.MapMode.READ_WRITE, position, remaining);
+                    }
+
+                    int length = Math.min(count - offset, byteBuffer.remaining());
+                    byteBuffer.put(buffer, offset, length);
+                    offset += length;
+                    position += length;
+                }
+                mProgressHandler.addProgress(count);
             }
         }
+
+        // mapping ahead may have grown the file beyond what the stream actually had
+        if (outChannel.size() > position) outChannel.truncate(position);
     }
 
     private void copyFile(FileChannel inChannel, FileChannel outChannel) throws IOException {
 
-        //MappedByteBuffer inByteBuffer = inChannel.map(FileChannel.MapMode.READ_ONLY, 0, inChannel.size());
-        //MappedByteBuffer outByteBuffer = outChannel.map(FileChannel.MapMode.READ_WRITE, 0, inChannel.size());
+        long size = inChannel.size();
+        long position = 0;
+        while (position < size) {
+
+            long count = inChannel.transferTo(position, Math.min(mWindowSize, size - position),
+                    outChannel);
+            if (count <= 0) {
+                // transferTo may move nothing without failing, copy the rest through a buffer
+                copyFile(inChannel, outChannel, position, size);
+                break;
+            }
+
+            position += count;
+            mProgressHandler.addProgress(count);
+        }
+
+        // target opened for writing isn't truncated, drop what's left of a longer file it replaced
+        if (outChannel.size() > size) outChannel.truncate(size);
+    }
+
+    /**
+     * Copies from position to size through a buffer, with positional reads and writes
+     *
+     * @throws IOException if the source ends before size, so a truncated target isn't taken
+     *                     for a complete copy
+     */
+    private void copyFile(FileChannel inChannel, FileChannel outChannel, long position, long size)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(mBufferSize);
+        while (position < size) {
+            buffer.clear();
+            if (size - position < buffer.capacity()) buffer.limit((int) (size - position));
+
+            int count = inChannel.read(buffer, position);
+            if (count == -1) {
+                throw new IOException("Source ended at " + position + " of " + size + " bytes");
+            }
 
-        ReadableByteChannel inByteChannel = new CustomReadableByteChannel(inChannel);
-        outChannel.transferFrom(inByteChannel, 0, mSourceFile.getSize());
+            buffer.flip();
+            long writePosition = position;
+            while (buffer.hasRemaining()) {
+                writePosition += outChannel.write(buffer, writePosition);
+            }
+
+            position += count;
+            mProgressHandler.addProgress(count);
+        }
     }
 
     private void copyFile(BufferedInputStream bufferedInputStream, BufferedOutputStream bufferedOutputStream)
             throws IOException {
         int count = 0;
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+        byte[] buffer = new byte[mBufferSize];
 
         while (count != -1) {
 
@@ -321,7 +386,7 @@ public class GenericCopyUtil {
             if (count!=-1) {
 
                 bufferedOutputStream.write(buffer, 0 , count);
-                ServiceWatcherUtil.POSITION+=count;
+                mProgressHandler.addProgress(count);
             }
         }
         bufferedOutputStream.flush();
@@ -329,76 +394,46 @@ public class GenericCopyUtil {
 
     private void copyFile(FileChannel inChannel, BufferedOutputStream bufferedOutputStream)
             throws IOException {
-        MappedByteBuffer inBuffer = inChannel.map(FileChannel.MapMode.READ_ONLY, 0, mSourceFile.getSize());
 
-        int count = -1;
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-        while (inBuffer.hasRemaining() && count != 0) {
+        long size = inChannel.size();
+        long position = 0;
+        byte[] buffer = new byte[mBufferSize];
+        while (position < size) {
 
-            int tempPosition = inBuffer.position();
-
-            try {
-
-                // try normal way of getting bytes
-                ByteBuffer tempByteBuffer = inBuffer.get(buffer);
-                count = tempByteBuffer.position() - tempPosition;
-            } catch (BufferUnderflowException exception) {
-                exception.printStackTrace();
-
-                // not enough bytes left in the channel to read, iterate over each byte and store
-                // in the buffer
-
-                // reset the counter bytes
-                count = 0;
-                for (int i=0; i<buffer.length && inBuffer.hasRemaining(); i++) {
-                    buffer[i] = inBuffer.get();
-                    count++;
-                }
-            }
-
-            if (count != -1) {
+            MappedByteBuffer inBuffer = map(inChannel, FileChannel.MapMode.READ_ONLY, position,
+                    size - position);
+            while (inBuffer.hasRemaining()) {
 
+                int count = Math.min(buffer.length, inBuffer.remaining());
+                inBuffer.get(buffer, 0, count);
                 bufferedOutputStream.write(buffer, 0, count);
-                ServiceWatcherUtil.POSITION = inBuffer.position();
+                mProgressHandler.addProgress(count);
             }
-
+            position += inBuffer.capacity();
         }
         bufferedOutputStream.flush();
     }
 
     /**
-     * Inner class responsible for getting a {@link ReadableByteChannel} from the input channel
-     * and to watch over the read progress
+     * Maps the next window of the channel, no bigger than {@link #mWindowSize}.
+     * If system can't spare the memory for the window, we shrink it and try again,
+     * so that the copy continues from where it was instead of starting over
+     *
+     * @param position the position in channel the window starts at
+     * @param remaining number of bytes left to be copied from this position
      */
-    private class CustomReadableByteChannel implements ReadableByteChannel {
+    private MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position,
+                                 long remaining) throws IOException {
 
-        ReadableByteChannel byteChannel;
-
-        CustomReadableByteChannel(ReadableByteChannel byteChannel) {
-            this.byteChannel = byteChannel;
-        }
-
-        @Override
-        public int read(ByteBuffer dst) throws IOException {
-            int bytes;
-            if (((bytes = byteChannel.read(dst))>0)) {
-
-                ServiceWatcherUtil.POSITION += bytes;
-                return bytes;
+        while (true) {
+            try {
+                return channel.map(mode, position, Math.min(mWindowSize, remaining));
+            } catch (OutOfMemoryError e) {
+                e.printStackTrace();
 
+                if (mWindowSize <= DEFAULT_BUFFER_SIZE) throw new IOException(e);
+                mWindowSize = Math.max(mWindowSize / 2, DEFAULT_BUFFER_SIZE);
             }
-            return 0;
-        }
-
-        @Override
-        public boolean isOpen() {
-            return byteChannel.isOpen();
-        }
-
-        @Override
-        public void close() throws IOException {
-
-            byteChannel.close();
         }
     }
 }
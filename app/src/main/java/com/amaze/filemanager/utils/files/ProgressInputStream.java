@@ -0,0 +1,44 @@
+package com.amaze.filemanager.utils.files;
+
+import android.support.annotation.NonNull;
+
+import com.amaze.filemanager.utils.ProgressHandler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts bytes read from the underlying stream as progress of a {@link ProgressHandler}.
+ * Can be read from any thread, progress is added atomically.
+ */
+public class ProgressInputStream extends FilterInputStream {
+
+    private final ProgressHandler progressHandler;
+
+    public ProgressInputStream(InputStream in, ProgressHandler progressHandler) {
+        super(in);
+        this.progressHandler = progressHandler;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) progressHandler.addProgress(1);
+        return b;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read > 0) progressHandler.addProgress(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) progressHandler.addProgress(skipped);
+        return skipped;
+    }
+}
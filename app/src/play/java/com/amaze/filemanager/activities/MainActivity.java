@@ -2227,8 +2227,10 @@ public class MainActivity extends ThemedActivity implements OnRequestPermissions
     }
 
     @Override
-    public void onProgressUpdate(HybridFileParcelable val , String query) {
-        mainFragment.addSearchResult(val,query);
+    public void onProgressUpdate(ArrayList<HybridFileParcelable> val, String query) {
+        for (HybridFileParcelable file : val) {
+            mainFragment.addSearchResult(file, query);
+        }
     }
 
     @Override